@@ -0,0 +1,45 @@
+/**
+ * Produces the address stream of a workload on demand, a chunk at a time,
+ * instead of materialising the data structures it walks over.
+ */
+interface AddressSource {
+
+  /** Flag in the operand byte of an access that writes. */
+  byte WRITE = (byte) 0x80;
+  /** Mask for the operand id in the operand byte. */
+  byte OPERAND = 0x7f;
+
+  /**
+   * Writes up to <code>len</code> next accesses of the workload to
+   * <code>addresses[off..]</code>, with the operand each access belongs to at
+   * the same position in <code>operands</code>. A write access has
+   * {@link #WRITE} set in its operand byte.
+   *
+   * @return the number of accesses written, 0 once the workload is done.
+   */
+  int fill(int[] addresses, byte[] operands, int off, int len);
+
+  /**
+   * As {@link #fill(int[], byte[], int, int)}, with 64 bit addresses.
+   */
+  int fill(long[] addresses, byte[] operands, int off, int len);
+
+  /**
+   * Skips up to <code>n</code> next accesses of the workload. Sources that
+   * can jump ahead override this; the default generates the accesses and
+   * drops them.
+   *
+   * @return the number of accesses skipped, less than <code>n</code> only
+   *         once the workload is done.
+   */
+  default long skip(long n) {
+    long[] addresses = new long[(int) Math.min(n, RequestBuffer.CHUNK)];
+    byte[] operands = new byte[addresses.length];
+    long done = 0;
+    int count;
+    while (done < n && (count = fill(addresses, operands, 0, (int) Math.min(n - done, addresses.length))) > 0) {
+      done += count;
+    }
+    return done;
+  }
+}
@@ -0,0 +1,54 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Bit-PLRU (MRU-bits): per set een bit per way dat gezet wordt bij gebruik.
+ * Worden alle bits gezet, dan blijft enkel dat van de laatst gebruikte way
+ * over. Het slachtoffer is de eerste way zonder bit. Hoogstens 64 ways; elke
+ * operatie is O(1).
+ */
+class BitPlruPolicy implements ReplacementPolicy {
+
+  private final long full;
+  private final long[] used;
+
+  BitPlruPolicy(int sets, int ways) {
+    if (ways > 64) {
+      throw new IllegalArgumentException("bit PLRU supports at most 64 ways");
+    }
+    this.full = ways == 64 ? -1L : (1L << ways) - 1;
+    this.used = new long[sets];
+  }
+
+  public void hit(int set, int way) {
+    touch(set, way);
+  }
+
+  public int victim(int set) {
+    return Long.numberOfTrailingZeros(~used[set]);
+  }
+
+  public void fill(int set, int way) {
+    touch(set, way);
+  }
+
+  private void touch(int set, int way) {
+    long bit = 1L << way;
+    long bits = used[set] | bit;
+    // Met een enkele way blijft er geen bit over: anders is er geen slachtoffer.
+    used[set] = bits != full ? bits : bit == full ? 0 : bit;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + 8 * used.length;
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, used.length, Long.bitCount(full));
+    CacheSnapshot.putLongs(out, used);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, used.length, Long.bitCount(full));
+    CacheSnapshot.getLongs(in, used);
+  }
+}
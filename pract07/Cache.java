@@ -1,3 +1,5 @@
+import java.nio.ByteBuffer;
+
 /**
  * Interface implemented by any type of cache.
  */
@@ -14,7 +16,235 @@ public interface Cache {
      * @return true bij een cachehit, false bij een cachemis.
      */
     boolean request(int address);
+
+    /**
+     * Simuleert een lees- of schrijfaanvraag voor een specifiek adres. Een
+     * cache die geen schrijfstrategie kent, behandelt een schrijfaanvraag als
+     * een gewone aanvraag.
+     *
+     * @param address het adres van de aanvraag.
+     * @param write true voor een schrijfaanvraag.
+     * @return true bij een cachehit, false bij een cachemis.
+     */
+    default boolean request(int address, boolean write) {
+        return request(address);
+    }
+
+    /**
+     * Simuleert de aanvragen <code>addresses[from]</code> tot en met
+     * <code>addresses[to - 1]</code> in volgorde, met hetzelfde effect als
+     * evenveel oproepen van {@link #request(int)}. Het adres -1 (dump) mag hier
+     * niet voorkomen.
+     *
+     * Voor elke aanvraag <code>i</code> wordt bit <code>i - from</code> van
+     * <code>hitBitmap</code> gezet bij een hit en gewist bij een misser. De
+     * bitmap mag null zijn als enkel het aantal hits van belang is.
+     *
+     * @param addresses de adressen van de aanvragen.
+     * @param from index van de eerste aanvraag.
+     * @param to index na de laatste aanvraag.
+     * @param hitBitmap minstens <code>(to - from + 63) / 64</code> woorden, of null.
+     * @return het aantal cachehits.
+     */
+    default int requestBatch(int[] addresses, int from, int to, long[] hitBitmap) {
+        return batch(this, addresses, null, null, from, to, hitBitmap);
+    }
+
+    /**
+     * Zoals {@link #requestBatch(int[], int, int, long[])}, maar is aanvraag
+     * <code>i</code> een schrijfaanvraag als <code>writes[i]</code> true is.
+     *
+     * @param writes per aanvraag of het een schrijfaanvraag is, of null als
+     *     alle aanvragen leesaanvragen zijn.
+     */
+    default int requestBatch(int[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+        return batch(this, addresses, null, writes, from, to, hitBitmap);
+    }
+
+    /**
+     * Zoals {@link #request(int, boolean)}, maar voor een adres van 64 bits.
+     *
+     * @param address het adres van de aanvraag.
+     * @param write true voor een schrijfaanvraag.
+     * @return true bij een cachehit, false bij een cachemis.
+     */
+    boolean request(long address, boolean write);
+
+    /**
+     * Zoals {@link #requestBatch(int[], boolean[], int, int, long[])}, maar
+     * met adressen van 64 bits.
+     */
+    default int requestBatch(long[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+        return batch(this, null, addresses, writes, from, to, hitBitmap);
+    }
+
+    /**
+     * De lus achter de standaardvarianten van requestBatch: verwerkt de
+     * aanvragen per woord van 64 bits van de bitmap via
+     * {@link #request(long, boolean)}. De cachemodellen zelf hebben hun eigen
+     * lus, zonder virtuele oproep per aanvraag.
+     * Precies een van <code>narrow</code> en <code>wide</code> is niet null;
+     * 32-bit adressen worden als unsigned gelezen.
+     */
+    static int batch(Cache cache, int[] narrow, long[] wide, boolean[] writes, int from, int to, long[] hitBitmap) {
+        int hits = 0;
+        for (int i = from; i < to; ) {
+            int end = Math.min(to, i + 64);
+            long word = 0;
+            for (int bit = 0; i < end; i++, bit++) {
+                long address = narrow != null ? narrow[i] & 0xffffffffL : wide[i];
+                if (cache.request(address, writes != null && writes[i])) {
+                    word |= 1L << bit;
+                }
+            }
+            hits += putHits(hitBitmap, from, end, word);
+        }
+        return hits;
+    }
+
+    /**
+     * Zet het woord van de bitmap met de hits van de aanvragen tot
+     * <code>end</code>, voor de lussen van requestBatch.
+     *
+     * @param hitBitmap de bitmap van de batch die bij <code>from</code> begint,
+     *     of null.
+     * @param word de hits van de hoogstens 64 aanvragen voor <code>end</code>.
+     * @return het aantal hits in het woord.
+     */
+    static int putHits(long[] hitBitmap, int from, int end, long word) {
+        if (hitBitmap != null) {
+            hitBitmap[(end - 1 - from) >>> 6] = word;
+        }
+        return Long.bitCount(word);
+    }
+
+    /**
+     * Geeft het aantal bytes dat tot nu toe naar het geheugen werd
+     * geschreven: teruggeschreven vuile blokken en write-through schrijfopdrachten.
+     * Vuile blokken die nog in de cache zitten, tellen niet mee: ze worden
+     * pas geteld wanneer ze de cache verlaten.
+     *
+     * @return het schrijfverkeer naar het geheugen in bytes, of 0 als de
+     *     cache dit niet bijhoudt.
+     */
+    default long writebackBytes() {
+        return 0;
+    }
+
+    /**
+     * Geeft aan of de laatste aanvraag een geldig blok uit de cache zette.
+     *
+     * @return true als er een blok werd vervangen.
+     */
+    boolean hasEvicted();
+
+    /**
+     * Geeft het adres van het eerste byte van het blok dat bij de laatste
+     * aanvraag uit de cache werd gezet. De waarde is enkel zinvol als
+     * {@link #hasEvicted()} true geeft: elk adres, ook -1, kan een blok zijn.
+     *
+     * @return het adres van het vervangen blok.
+     */
+    long evicted();
+
+    /**
+     * Geeft aan of het blok dat bij de laatste aanvraag uit de cache werd
+     * gezet vuil was. Zo'n blok is al meegeteld in {@link #writebackBytes()};
+     * een hierarchie geeft het door aan het volgende niveau. De waarde is
+     * enkel zinvol als {@link #hasEvicted()} true geeft.
+     *
+     * @return true als het vervangen blok gewijzigde data bevatte.
+     */
+    boolean evictedDirty();
+
+    /**
+     * Geeft het aantal blokken dat bij de laatste aanvraag uit de cache werd
+     * gezet. Een enkele cache zet er hoogstens een uit, maar een hierarchie
+     * kan er meer verliezen: een vuil blok dat naar het laatste niveau gaat,
+     * kan daar nog een blok vervangen. Een victim cache of prefetcher die
+     * zulke blokken opvangt, moet ze dus allemaal overlopen. Het eerste blok
+     * is het blok van {@link #evicted()}.
+     *
+     * @return het aantal vervangen blokken.
+     */
+    default int evictions() {
+        return hasEvicted() ? 1 : 0;
+    }
+
+    /**
+     * @param i een getal kleiner dan {@link #evictions()}.
+     * @return het adres van het i-de blok dat de laatste aanvraag uit de
+     *     cache zette.
+     */
+    default long evicted(int i) {
+        return evicted();
+    }
+
+    /**
+     * @param i een getal kleiner dan {@link #evictions()}.
+     * @return true als het i-de vervangen blok vuil was.
+     */
+    default boolean evictedDirty(int i) {
+        return evictedDirty();
+    }
+
+    /**
+     * Verwijdert het blok dat het adres bevat uit de cache, zonder het te laden
+     * als het er niet in zit.
+     *
+     * @param address een adres binnen het blok.
+     * @return true als het blok in de cache zat.
+     */
+    boolean invalidate(long address);
+
+    /**
+     * Gaat na of het blok dat het adres bevat in de cache zit. Dit is geen
+     * aanvraag: er worden geen statistieken geteld en de vervangingsstrategie
+     * merkt er niets van.
+     *
+     * @param address een adres binnen het blok.
+     * @return true als het blok in de cache zit.
+     */
+    boolean probe(long address);
+
+    /**
+     * Laadt het blok dat het adres bevat in de cache zonder dat het een
+     * aanvraag is, bv. voor een prefetch of een blok dat uit een hoger niveau
+     * komt. Er worden geen hits of missers geteld. Zit het blok er al in, dan
+     * blijft de vervangingsstrategie ongewijzigd en wordt het blok hoogstens
+     * vuil. Anders geven {@link #hasEvicted()} en {@link #evicted()} daarna
+     * het vervangen blok, en telt een vuil vervangen blok als schrijfverkeer.
+     *
+     * @param address een adres binnen het blok.
+     * @param dirty true als het blok gewijzigde data bevat.
+     */
+    void fill(long address, boolean dirty);
     
+    /**
+     * Geeft het aantal bytes dat {@link #save} schrijft.
+     */
+    int snapshotSize();
+
+    /**
+     * Schrijft de volledige toestand van de cache (tags, valid- en dirty-bits
+     * en de toestand van de vervangingsstrategie) naar de buffer, zie
+     * {@link CacheSnapshot}. Een cache die een andere cache omhult, schrijft
+     * zijn eigen toestand en daarna die van de omhulde cache. Statistieken
+     * horen niet bij de toestand.
+     *
+     * @param out buffer met minstens {@link #snapshotSize()} bytes vrij.
+     */
+    void save(ByteBuffer out);
+
+    /**
+     * Herstelt de toestand die {@link #save} schreef.
+     *
+     * @param in buffer met de toestand op de huidige positie.
+     * @throws IllegalArgumentException als de toestand van een cache met een
+     *     andere structuur is.
+     */
+    void restore(ByteBuffer in);
+
     /**
      * Print de inhoud van de cache op het scherm.
      * De inhoud wordt geprint volgens het volgende formaat:
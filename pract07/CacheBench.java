@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput benchmarks for the hot paths of the simulator: the request path
+ * of every cache model, the pattern generators and the trace reader. Each
+ * benchmark is warmed up first and then measured over a number of timed
+ * iterations, reporting operations per second and the bytes allocated per
+ * operation on the benchmark thread.
+ *
+ * Usage: <code>java CacheBench [regex] [-warmup n] [-iterations n] [-time ms]</code>,
+ * where the regex selects benchmarks by name. See bench.sh.
+ */
+public class CacheBench {
+
+  // Length of the synthetic address stream fed to the caches.
+  private static final int STREAM = 1 << 20;
+  // Footprint of the stream: four times the capacity of the benchmarked caches.
+  private static final int FOOTPRINT = 1 << 17;
+  private static final int BLOCKS = 1024;
+  private static final int LINESIZE = 32;
+  private static final int MATRIX = 256;
+  private static final int TRACE_RECORDS = 1 << 22;
+
+  /**
+   * One invocation of a benchmark body.
+   *
+   * @return the number of operations performed.
+   */
+  interface Body {
+    long run();
+  }
+
+  private static final class Benchmark {
+    final String name;
+    final Supplier<Body> setup;
+
+    Benchmark(String name, Supplier<Body> setup) {
+      this.name = name;
+      this.setup = setup;
+    }
+  }
+
+  // Keeps results alive so the JIT cannot drop the work that produced them.
+  private static volatile long sink;
+
+  public static void main(String[] args) throws IOException {
+    Pattern filter = Pattern.compile(".*");
+    int warmup = 3;
+    int iterations = 5;
+    long time = 1000;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-warmup") && i + 1 < args.length) {
+        warmup = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-iterations") && i + 1 < args.length) {
+        iterations = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-time") && i + 1 < args.length) {
+        time = Long.parseLong(args[++i]);
+      }
+      else if (args[i].startsWith("-")) {
+        System.err.println("Usage: java CacheBench [regex] [-warmup n] [-iterations n] [-time ms]");
+        System.exit(-1);
+      }
+      else {
+        filter = Pattern.compile(args[i]);
+      }
+    }
+
+    File trace = File.createTempFile("cachebench", ".trc");
+    trace.deleteOnExit();
+    File delta = File.createTempFile("cachebench", ".dtc");
+    delta.deleteOnExit();
+    writeTrace(new TraceWriter(trace.getPath()));
+    writeTrace(new DeltaTraceWriter(delta.getPath(), 32));
+    // The synthetic stream jumps every 16 accesses or so, which takes two
+    // literals, so it measures the decoding of tokens rather than of runs.
+    File jumps = File.createTempFile("cachebench", ".dtc");
+    jumps.deleteOnExit();
+    writeStream(new DeltaTraceWriter(jumps.getPath(), 32), stream());
+
+    System.out.printf("%-36s %14s %10s %10s%n", "benchmark", "ops/s", "error %", "B/op");
+    for (Benchmark b : benchmarks(trace.getPath(), delta.getPath(), jumps.getPath())) {
+      if (filter.matcher(b.name).find()) {
+        measure(b, warmup, iterations, time);
+      }
+    }
+  }
+
+  private static List<Benchmark> benchmarks(String trace, String delta, String jumps) {
+    int[] stream = stream();
+    List<Benchmark> list = new ArrayList<>();
+
+    list.add(request("request/directmapped", stream, () -> new DirectMappedCache(BLOCKS, LINESIZE)));
+    list.add(batch("batch/directmapped", stream, () -> new DirectMappedCache(BLOCKS, LINESIZE)));
+    for (int assoc = 1; assoc <= 64; assoc *= 4) {
+      int a = assoc;
+      list.add(request("request/nway/assoc=" + a, stream, () -> new NWayAssociativeCache(BLOCKS / a, LINESIZE, a)));
+      list.add(batch("batch/nway/assoc=" + a, stream, () -> new NWayAssociativeCache(BLOCKS / a, LINESIZE, a)));
+    }
+    for (String policy : new String[] { "treeplru", "bitplru", "fifo", "random", "srrip" }) {
+      list.add(batch("batch/nway/assoc=16/" + policy, stream,
+          () -> new NWayAssociativeCache(BLOCKS / 16, LINESIZE, 16, ReplacementPolicy.create(policy, BLOCKS / 16, 16))));
+    }
+    list.add(batch("batch/fullyassociative", stream, () -> new FullyAssociativeCache(BLOCKS, LINESIZE)));
+    for (int assoc = 4; assoc <= 16; assoc *= 2) {
+      int a = assoc;
+      list.add(batch("batch/vway/assoc=" + a, stream, () -> new VWayCache(BLOCKS / a, LINESIZE, a, 2)));
+    }
+    for (PrefetchingCache.Kind kind : PrefetchingCache.Kind.values()) {
+      list.add(batch("batch/prefetch/" + kind.name().toLowerCase(), stream,
+          () -> new PrefetchingCache(new NWayAssociativeCache(BLOCKS / 4, LINESIZE, 4), LINESIZE, kind, kind == PrefetchingCache.Kind.STREAM ? 4 : 1)));
+    }
+    for (int entries : new int[] { 4, 16 }) {
+      list.add(batch("batch/victim/entries=" + entries, stream, () -> new VictimCache(new DirectMappedCache(BLOCKS, LINESIZE), LINESIZE, entries)));
+    }
+    for (CacheHierarchy.Inclusion mode : CacheHierarchy.Inclusion.values()) {
+      list.add(batch("batch/hierarchy/" + mode.name().toLowerCase(), stream, () -> new CacheHierarchy(new Cache[] {
+          new NWayAssociativeCache(16, LINESIZE, 4),
+          new NWayAssociativeCache(BLOCKS / 8, LINESIZE, 8) }, mode)));
+    }
+
+    list.add(source("source/patroon1", () -> new TransposeSource(layout())));
+    list.add(source("source/patroon2", () -> new RowColumnSumSource(layout())));
+    list.add(source("source/patroon3", () -> new IncrementSource(layout())));
+    list.add(new Benchmark("source/trace", () -> traceBody(trace)));
+    list.add(new Benchmark("source/deltatrace", () -> traceBody(delta)));
+    list.add(new Benchmark("source/deltatrace/jumps", () -> traceBody(jumps)));
+    return list;
+  }
+
+  private static MemoryLayout layout() {
+    return new MemoryLayout(MATRIX, MatrixSource.NAMES, new int[] { 0, 64, 32 }, null);
+  }
+
+  // Mostly sequential runs at random places in the footprint, with some
+  // scattered single accesses, so every model sees both hits and misses.
+  private static int[] stream() {
+    int[] stream = new int[STREAM];
+    int x = 1;
+    int address = 0;
+    for (int i = 0; i < STREAM; i++) {
+      x ^= x << 13;
+      x ^= x >>> 17;
+      x ^= x << 5;
+      if ((x & 15) == 0) {
+        address = x & (FOOTPRINT - 4);
+      }
+      else {
+        address = (address + 4) & (FOOTPRINT - 4);
+      }
+      stream[i] = address;
+    }
+    return stream;
+  }
+
+  private static Benchmark request(String name, int[] stream, Supplier<Cache> cache) {
+    return new Benchmark(name, () -> {
+      Cache c = cache.get();
+      return () -> {
+        long hits = 0;
+        for (int address : stream) {
+          if (c.request(address)) {
+            hits++;
+          }
+        }
+        sink += hits;
+        return stream.length;
+      };
+    });
+  }
+
+  private static Benchmark batch(String name, int[] stream, Supplier<Cache> cache) {
+    return new Benchmark(name, () -> {
+      Cache c = cache.get();
+      long[] bitmap = new long[RequestBuffer.CHUNK / 64];
+      return () -> {
+        long hits = 0;
+        for (int i = 0; i < stream.length; i += RequestBuffer.CHUNK) {
+          hits += c.requestBatch(stream, i, Math.min(stream.length, i + RequestBuffer.CHUNK), bitmap);
+        }
+        sink += hits;
+        return stream.length;
+      };
+    });
+  }
+
+  // A pattern is restarted from the beginning when it runs out.
+  private static Benchmark source(String name, Supplier<AddressSource> source) {
+    return new Benchmark(name, () -> {
+      int[] addresses = new int[RequestBuffer.CHUNK];
+      byte[] operands = new byte[RequestBuffer.CHUNK];
+      AddressSource[] current = { source.get() };
+      return () -> {
+        long ops = 0;
+        long sum = 0;
+        for (int k = 0; k < 256; k++) {
+          int n = current[0].fill(addresses, operands, 0, addresses.length);
+          if (n == 0) {
+            current[0] = source.get();
+            continue;
+          }
+          sum += addresses[n - 1];
+          ops += n;
+        }
+        sink += sum;
+        return ops;
+      };
+    });
+  }
+
+  private static Body traceBody(String trace) {
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    TraceSource[] current = { open(trace) };
+    return () -> {
+      long ops = 0;
+      long sum = 0;
+      for (int k = 0; k < 256; k++) {
+        int n = current[0].fill(addresses, operands, 0, addresses.length);
+        if (n == 0) {
+          try {
+            current[0].close();
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          current[0] = open(trace);
+          continue;
+        }
+        sum += addresses[n - 1];
+        ops += n;
+      }
+      sink += sum;
+      return ops;
+    };
+  }
+
+  private static TraceSource open(String trace) {
+    try {
+      return new TraceSource(trace);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeTrace(TraceRecorder recorder) throws IOException {
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    AddressSource source = new TransposeSource(layout());
+    try (TraceRecorder writer = recorder) {
+      for (int written = 0; written < TRACE_RECORDS; ) {
+        int n = source.fill(addresses, operands, 0, addresses.length);
+        if (n == 0) {
+          source = new TransposeSource(layout());
+          continue;
+        }
+        writer.write(addresses, operands, 0, n);
+        written += n;
+      }
+    }
+  }
+
+  private static void writeStream(TraceRecorder recorder, int[] stream) throws IOException {
+    byte[] operands = new byte[stream.length];
+    try (TraceRecorder writer = recorder) {
+      writer.write(stream, operands, 0, stream.length);
+    }
+  }
+
+  private static void measure(Benchmark b, int warmup, int iterations, long time) {
+    Body body = b.setup.get();
+    for (int i = 0; i < warmup; i++) {
+      iteration(body, time, null);
+    }
+
+    double[] rates = new double[iterations];
+    long[] allocation = new long[2];
+    for (int i = 0; i < iterations; i++) {
+      rates[i] = iteration(body, time, allocation);
+    }
+
+    double mean = 0;
+    for (double r : rates) {
+      mean += r;
+    }
+    mean /= iterations;
+    double variance = 0;
+    for (double r : rates) {
+      variance += (r - mean) * (r - mean);
+    }
+    double error = iterations > 1 ? 100 * Math.sqrt(variance / (iterations - 1)) / mean : 0;
+    String perOp = allocation[0] < 0 ? "n/a" : String.format("%.3f", (double) allocation[0] / allocation[1]);
+    System.out.printf("%-36s %14.0f %10.2f %10s%n", b.name, mean, error, perOp);
+  }
+
+  // Runs the body for at least the given time and returns the operations per
+  // second. When allocation is not null, the bytes allocated and the operations
+  // are added to it; allocation[0] becomes -1 if the JVM cannot tell.
+  private static double iteration(Body body, long time, long[] allocation) {
+    long allocated = allocatedBytes();
+    long ops = 0;
+    long start = System.nanoTime();
+    long deadline = start + time * 1_000_000;
+    long now;
+    do {
+      ops += body.run();
+      now = System.nanoTime();
+    } while (now < deadline);
+    if (allocation != null) {
+      long after = allocatedBytes();
+      if (allocated < 0 || after < 0 || allocation[0] < 0) {
+        allocation[0] = -1;
+      }
+      else {
+        allocation[0] += after - allocated;
+      }
+      allocation[1] += ops;
+    }
+    return ops * 1e9 / (now - start);
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,406 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Hierarchie van caches (L1, L2, ...) die zich samen als een cache gedraagt.
+ * Een aanvraag gaat naar L1; enkel een misser op niveau N gaat verder naar
+ * niveau N + 1. Per niveau worden aanvragen en hits geteld.
+ *
+ * Drie inclusiestrategieen worden ondersteund:
+ * <ul>
+ * <li>NINE: elk niveau laadt de blokken die het mist, zonder verdere
+ * afspraken tussen de niveaus.</li>
+ * <li>inclusief: als NINE, maar een blok dat uit een lager niveau verdwijnt,
+ * wordt ook uit alle hogere niveaus verwijderd.</li>
+ * <li>exclusief: een blok zit in hoogstens een niveau. Een hit op een lager
+ * niveau verplaatst het blok naar L1; het blok dat L1 daarvoor vervangt,
+ * schuift een niveau op, enzovoort.</li>
+ * </ul>
+ * Inclusief en exclusief vereisen dezelfde lijngrootte op elk niveau.
+ *
+ * Een schrijfaanvraag is enkel voor L1 een schrijfaanvraag; de lagere niveaus
+ * zien het laden van het blok als een gewone aanvraag. Na de aanvraag gaat
+ * een vuil blok dat een niveau verliet vuil naar het volgende niveau, en een
+ * schrijfopdracht die een niveau niet hield (write-through of
+ * write-no-allocate) als schrijfopdracht; dat telt niet als aanvraag van dat
+ * niveau. Enkel wat het laatste niveau verlaat, is schrijfverkeer naar het
+ * geheugen. Een exclusieve hierarchie verplaatst vuile blokken tussen de
+ * niveaus en vereist daarom write-back met write-allocate.
+ *
+ * Een aanvraag kan bij NINE en inclusief meer dan een blok uit het laatste
+ * niveau zetten: het blok van de aanvraag zelf, en de blokken die een vuil
+ * blok van hogerop daar vervangt. {@link #evictions()} geeft ze allemaal,
+ * het blok van de aanvraag eerst.
+ */
+public class CacheHierarchy implements Cache {
+
+  enum Inclusion { NINE, INCLUSIVE, EXCLUSIVE }
+
+  private final Cache[] levels;
+  private final Inclusion inclusion;
+
+  private final long[] requests;
+  private final long[] hits;
+  // Niveau dat de laatste aanvraag beantwoordde; levels.length voor het geheugen.
+  private int servedBy;
+  // Blokken die bij de laatste aanvraag het laatste niveau verlieten.
+  private final Evictions evictedBlocks = new Evictions();
+  // Per niveau het blok dat de aanvraag verving en of het vuil naar het
+  // volgende niveau moet.
+  private final long[] victims;
+  private final boolean[] spills;
+  // Schrijfverkeer naar het geheugen dat het laatste niveau niet zelf telde.
+  private long memoryBytes;
+
+  public CacheHierarchy(Cache[] levels, Inclusion inclusion) {
+    if (levels.length == 0) {
+      throw new IllegalArgumentException("a hierarchy needs at least one level");
+    }
+    this.levels = levels;
+    this.inclusion = inclusion;
+    this.requests = new long[levels.length];
+    this.hits = new long[levels.length];
+    this.victims = new long[levels.length];
+    this.spills = new boolean[levels.length];
+  }
+
+  /**
+   * @param address het adres van de aanvraag.
+   * @return true bij een hit op eender welk niveau, false als het blok uit
+   *         het geheugen moest komen.
+   */
+  public boolean request(int address) {
+    if (address == -1) {
+      dump();
+      return false;
+    }
+    return request(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return request(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    if (inclusion == Inclusion.EXCLUSIVE) {
+      return exclusive(address, write);
+    }
+
+    evictedBlocks.clear();
+    long before = write ? levels[0].writebackBytes() : 0;
+    boolean through = false;
+    servedBy = levels.length;
+    for (int level = 0; level < levels.length; level++) {
+      requests[level]++;
+      Cache cache = levels[level];
+      boolean hit = cache.request(address, level == 0 && write);
+      if (level == 0) {
+        through = write && !(cache.hasEvicted() && cache.evictedDirty()) && cache.writebackBytes() > before;
+      }
+      spills[level] = cache.hasEvicted() && victimDirty(level, cache.evicted(), cache.evictedDirty());
+      victims[level] = cache.evicted();
+      if (level == levels.length - 1) {
+        lastLevelEvicted();
+      }
+      if (hit) {
+        hits[level]++;
+        servedBy = level;
+        break;
+      }
+    }
+
+    // Pas na de aanvraag gaan vuile blokken en schrijfopdrachten naar beneden.
+    for (int level = 0; level < servedBy && level < levels.length - 1; level++) {
+      if (spills[level]) {
+        pass(level + 1, victims[level], true);
+      }
+    }
+    if (through && levels.length > 1) {
+      pass(1, address, false);
+    }
+    return servedBy < levels.length;
+  }
+
+  // Geeft een vuil blok (line) of een schrijfopdracht die het niveau erboven
+  // niet hield door aan dit niveau. Wat dit niveau op zijn beurt niet houdt,
+  // gaat verder naar beneden.
+  private void pass(int level, long address, boolean line) {
+    Cache cache = levels[level];
+    long before = cache.writebackBytes();
+    if (line) {
+      cache.fill(address, true);
+    }
+    else {
+      cache.request(address, true);
+    }
+    if (level == levels.length - 1) {
+      lastLevelEvicted();
+    }
+    boolean through = !(cache.hasEvicted() && cache.evictedDirty()) && cache.writebackBytes() > before;
+    if (cache.hasEvicted() && victimDirty(level, cache.evicted(), cache.evictedDirty())) {
+      pass(level + 1, cache.evicted(), true);
+    }
+    if (through && level < levels.length - 1) {
+      pass(level + 1, address, line);
+    }
+  }
+
+  // Geeft aan of het blok dat een niveau verving vuil naar het volgende
+  // niveau moet. Bij inclusief laten de hogere niveaus het blok los; had een
+  // van hen het vuil, dan is het blok vuil, en voor het laatste niveau gaat
+  // het dan rechtstreeks naar het geheugen.
+  private boolean victimDirty(int level, long block, boolean dirty) {
+    if (inclusion == Inclusion.INCLUSIVE && level > 0) {
+      long bytes = backInvalidate(level, block);
+      if (bytes > 0 && !dirty) {
+        if (level == levels.length - 1) {
+          memoryBytes += bytes;
+        }
+        dirty = true;
+      }
+    }
+    return dirty && level < levels.length - 1;
+  }
+
+  // Verwijdert een blok dat uit een niveau verdween uit alle hogere niveaus.
+  // Geeft de grootte van het blok als een van hen het vuil had, anders 0.
+  private long backInvalidate(int level, long block) {
+    long bytes = 0;
+    for (int upper = 0; upper < level; upper++) {
+      long before = levels[upper].writebackBytes();
+      levels[upper].invalidate(block);
+      bytes = Math.max(bytes, levels[upper].writebackBytes() - before);
+    }
+    return bytes;
+  }
+
+  // Onthoudt de blokken die het laatste niveau zonet verving.
+  private void lastLevelEvicted() {
+    evictedBlocks.addAll(levels[levels.length - 1]);
+  }
+
+  private boolean exclusive(long address, boolean write) {
+    evictedBlocks.clear();
+    requests[0]++;
+    Cache l1 = levels[0];
+    if (l1.request(address, write)) {
+      hits[0]++;
+      servedBy = 0;
+      return true;
+    }
+    boolean replaced = l1.hasEvicted();
+    long victim = l1.evicted();
+    boolean dirty = l1.evictedDirty();
+
+    // Zoek het blok lager in de hierarchie; een hit haalt het daar weg.
+    servedBy = levels.length;
+    for (int level = 1; level < levels.length; level++) {
+      requests[level]++;
+      if (moveUp(level, address)) {
+        hits[level]++;
+        servedBy = level;
+        break;
+      }
+    }
+
+    cascade(replaced, victim, dirty);
+    return servedBy < levels.length;
+  }
+
+  // Haalt het blok uit een lager niveau van een exclusieve hierarchie; een
+  // vuil blok blijft vuil in L1 in plaats van naar het geheugen te gaan.
+  private boolean moveUp(int level, long address) {
+    Cache cache = levels[level];
+    long before = cache.writebackBytes();
+    if (!cache.invalidate(address)) {
+      return false;
+    }
+    long bytes = cache.writebackBytes() - before;
+    if (bytes > 0) {
+      levels[0].fill(address, true);
+      if (level == levels.length - 1) {
+        // Het laatste niveau telde het blok als teruggeschreven.
+        memoryBytes -= bytes;
+      }
+    }
+    return true;
+  }
+
+  // Het blok dat L1 verving schuift op naar L2, dat van L2 naar L3, ...
+  private void cascade(boolean replaced, long block, boolean dirty) {
+    for (int level = 1; level < levels.length && replaced; level++) {
+      Cache cache = levels[level];
+      cache.fill(block, dirty);
+      replaced = cache.hasEvicted();
+      block = cache.evicted();
+      dirty = cache.evictedDirty();
+    }
+    if (replaced) {
+      evictedBlocks.add(block, dirty);
+    }
+  }
+
+  /**
+   * @return true als het blok in eender welk niveau zit.
+   */
+  public boolean probe(long address) {
+    for (Cache level : levels) {
+      if (level.probe(address)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Laadt het blok zoals een aanvraag het zou laden, maar zonder aanvragen
+   * of hits te tellen: bij NINE en inclusief in elk niveau tot het niveau dat
+   * het blok al heeft, bij exclusief enkel in L1. Vuil wordt het enkel in L1.
+   */
+  public void fill(long address, boolean dirty) {
+    evictedBlocks.clear();
+    if (inclusion == Inclusion.EXCLUSIVE) {
+      Cache l1 = levels[0];
+      if (l1.probe(address)) {
+        l1.fill(address, dirty);
+        return;
+      }
+      l1.fill(address, dirty);
+      boolean replaced = l1.hasEvicted();
+      long victim = l1.evicted();
+      boolean victimDirty = l1.evictedDirty();
+      // Het blok verlaat het lagere niveau waar het zat.
+      for (int level = 1; level < levels.length; level++) {
+        if (moveUp(level, address)) {
+          break;
+        }
+      }
+      cascade(replaced, victim, victimDirty);
+      return;
+    }
+    for (int level = 0; level < levels.length; level++) {
+      Cache cache = levels[level];
+      boolean present = cache.probe(address);
+      cache.fill(address, level == 0 && dirty);
+      if (cache.hasEvicted() && victimDirty(level, cache.evicted(), cache.evictedDirty())) {
+        pass(level + 1, cache.evicted(), true);
+      }
+      if (level == levels.length - 1) {
+        lastLevelEvicted();
+      }
+      if (present) {
+        return;
+      }
+    }
+  }
+
+  int levels() {
+    return levels.length;
+  }
+
+  long requests(int level) {
+    return requests[level];
+  }
+
+  long hits(int level) {
+    return hits[level];
+  }
+
+  /**
+   * @return het niveau dat de laatste aanvraag beantwoordde, of het aantal
+   *         niveaus als het blok uit het geheugen kwam.
+   */
+  int servedBy() {
+    return servedBy;
+  }
+
+  /**
+   * @return true als de laatste aanvraag een blok uit het laatste niveau zette.
+   */
+  public boolean hasEvicted() {
+    return evictedBlocks.count() > 0;
+  }
+
+  /**
+   * Het blok dat het laatste niveau voor de aanvraag zelf verliet, of anders
+   * het eerste blok dat een vuil blok van hogerop er verving; bij NINE kan
+   * het nog in een hoger niveau zitten.
+   */
+  public long evicted() {
+    return evictedBlocks.address(0);
+  }
+
+  public boolean evictedDirty() {
+    return evictedBlocks.dirty(0);
+  }
+
+  public int evictions() {
+    return evictedBlocks.count();
+  }
+
+  public long evicted(int i) {
+    return evictedBlocks.address(i);
+  }
+
+  public boolean evictedDirty(int i) {
+    return evictedBlocks.dirty(i);
+  }
+
+  /**
+   * @return het schrijfverkeer van het laatste niveau naar het geheugen. Het
+   *     verkeer tussen de niveaus telt niet mee, en vuile blokken die nog in
+   *     een niveau zitten ook niet.
+   */
+  public long writebackBytes() {
+    return levels[levels.length - 1].writebackBytes() + memoryBytes;
+  }
+
+  /**
+   * Verwijdert het blok uit alle niveaus; een vuil blok gaat naar het geheugen.
+   */
+  public boolean invalidate(long address) {
+    boolean present = false;
+    long bytes = 0;
+    for (int level = 0; level < levels.length; level++) {
+      long before = levels[level].writebackBytes();
+      present |= levels[level].invalidate(address);
+      long written = levels[level].writebackBytes() - before;
+      // Het laatste niveau telt zijn eigen vuile blok; anders gaat het vuile
+      // blok van een hoger niveau een keer naar het geheugen.
+      bytes = level < levels.length - 1 ? Math.max(bytes, written) : written > 0 ? 0 : bytes;
+    }
+    memoryBytes += bytes;
+    return present;
+  }
+
+  public int snapshotSize() {
+    int size = CacheSnapshot.sectionSize(this, 2);
+    for (Cache level : levels) {
+      size += level.snapshotSize();
+    }
+    return size;
+  }
+
+  /**
+   * Schrijft de toestand van alle niveaus na elkaar.
+   */
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, levels.length, inclusion.ordinal());
+    for (Cache level : levels) {
+      level.save(out);
+    }
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, levels.length, inclusion.ordinal());
+    for (Cache level : levels) {
+      level.restore(in);
+    }
+  }
+
+  public void dump() {
+    for (int level = 0; level < levels.length; level++) {
+      System.out.println("L" + (level + 1) + ":");
+      levels[level].dump();
+    }
+  }
+}
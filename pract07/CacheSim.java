@@ -2,6 +2,8 @@
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.*;
 
@@ -10,6 +12,7 @@ import org.apache.commons.cli.*;
  */
 public class CacheSim {
 
+
   public static boolean isPowerOf2(int n) {
     if (n == 1) {
       return true;
@@ -25,11 +28,40 @@ public class CacheSim {
 
   public static void main(String[] args) {
 
-    Option cacheOpt    = OptionBuilder.withArgName("cache").hasArgs().withDescription("Type of cache. One of directmapped, fullassociative, nwaysetassociative").create("cache");
-    Option blocksOpt   = OptionBuilder.withArgName("blocks").hasArg().isRequired().withDescription("").create("blocks");
-    Option linesizeOpt = OptionBuilder.withArgName("linesize").hasArg().isRequired().withDescription("").create("linesize");
+    Option cacheOpt    = OptionBuilder.withArgName("cache").hasArgs().withDescription("Type of cache. One of directmapped, fullyassociative, nwaysetassociative, vway").create("cache");
+    Option blocksOpt   = OptionBuilder.withArgName("blocks").hasArg().withDescription("").create("blocks");
+    Option linesizeOpt = OptionBuilder.withArgName("linesize").hasArg().withDescription("").create("linesize");
     Option assocOpt    = OptionBuilder.withArgName("assoc").hasArg().withDescription("Associativity of the cache. Ignored for a direct mapped cache and a fully associative cache.").create("assoc");
-    Option patternOpt  = OptionBuilder.withArgName("pattern").hasArg().isRequired().withDescription("Address pattern to simulate. Can by one of patroon1, patroon2 or patroon3").create("pattern");
+    Option patternOpt  = OptionBuilder.withArgName("pattern").hasArg().withDescription("Address pattern to simulate. Can by one of patroon1, patroon2 or patroon3").create("pattern");
+    Option traceOpt    = OptionBuilder.withArgName("file").hasArg().withDescription("Binary address trace to simulate instead of a pattern.").create("trace");
+    Option sizeOpt     = OptionBuilder.withArgName("size").hasArg().withDescription("Matrix size used by the pattern (default 32).").create("size");
+    Option mrcOpt      = OptionBuilder.withDescription("Print the miss ratio curve of a fully associative LRU cache for every power of 2 number of blocks instead of simulating one cache.").create("mrc");
+    Option sweepOpt    = OptionBuilder.withDescription("Simulate all power of 2 combinations of the ranges -blocks min:max, -linesize min:max and -assoc min:max for every pattern in a comma separated -pattern list, on all cores.").create("sweep");
+    Option shardsOpt   = OptionBuilder.withArgName("shards").hasArg().withDescription("Split the sets of a n-way set associative cache over this many threads (a power of 2).").create("shards");
+    Option policyOpt   = OptionBuilder.withArgName("policy").hasArg().withDescription("Replacement policy of an associative cache. One of lru (default), treeplru, bitplru, fifo, random, srrip, brrip").create("policy");
+    Option tdrOpt      = OptionBuilder.withArgName("tdr").hasArg().withDescription("Tag-to-data ratio of a v-way cache (default 2).").create("tdr");
+    Option hierOpt     = OptionBuilder.withArgName("levels").hasArg().withDescription("Simulate a hierarchy instead of one cache, e.g. L1:64x64x8,L2:1024x64x16 (blocks x linesize x assoc per level).").create("hierarchy");
+    Option inclOpt     = OptionBuilder.withArgName("inclusion").hasArg().withDescription("Inclusion policy of a hierarchy. One of nine (default), inclusive, exclusive").create("inclusion");
+    Option recordOpt   = OptionBuilder.withArgName("file").hasArg().withDescription("Write the addresses of the simulated pattern to a binary trace.").create("record");
+    Option recfmtOpt   = OptionBuilder.withArgName("format").hasArg().withDescription("Format of the -record trace. One of raw (default), delta (strides per operand, compressed; -trace reads both).").create("recordformat");
+    Option writeOpt    = OptionBuilder.withArgName("write").hasArg().withDescription("Write policy of the cache, every level of a hierarchy or every -sweep or -shards configuration. One of wb (write-back, default), wt (write-through)").create("write");
+    Option layoutOpt   = OptionBuilder.withArgName("layout").hasArg().withDescription("Memory layout of the matrices, e.g. A:pad=64,B:elem=8:base=65536 (fields base, elem, stride and pad in bytes per operand).").create("layout");
+    Option addrOpt     = OptionBuilder.withArgName("bits").hasArg().withDescription("Address width of the simulation, 32 (default) or 64. 64 bit addresses allow large matrices and 64 bit traces.").create("addrbits");
+    Option allocOpt    = OptionBuilder.withArgName("allocate").hasArg().withDescription("Whether a write miss loads the block. One of yes (default), no").create("allocate");
+    Option victimOpt   = OptionBuilder.withArgName("entries").hasArg().withDescription("Fully associative victim cache of this many blocks behind the cache or hierarchy, e.g. 4 to 16.").create("victim");
+    Option timingOpt   = OptionBuilder.withArgName("latencies").hasArg().withDescription("Time the accesses with these latencies in cycles: hit,miss for one cache, or one per level followed by memory for a hierarchy, e.g. 4,12,200.").create("timing");
+    Option mshrsOpt    = OptionBuilder.withArgName("mshrs").hasArg().withDescription("Number of outstanding misses of -timing (default 8).").create("mshrs");
+    Option saveOpt     = OptionBuilder.withArgName("file").hasArg().withDescription("Write the state of the cache or hierarchy, with its -victim, -timing, -prefetch or -classify layers, after the simulation to a snapshot.").create("save");
+    Option restoreOpt  = OptionBuilder.withArgName("file").hasArg().withDescription("Start from the state in a snapshot written by -save for the same cache or hierarchy with the same layers.").create("restore");
+    Option prefetchOpt = OptionBuilder.withArgName("kind").hasArg().withDescription("Hardware prefetcher in front of the cache or hierarchy. One of nextline, stride, stream, optionally followed by :degree (default 1, 4 for stream).").create("prefetch");
+    Option sampleOpt   = OptionBuilder.withArgName("mode").hasArg().withDescription("Estimate the results from sampled intervals instead of simulating every access. Between the samples the accesses warm the cache or hierarchy (warm) or are skipped (skip).").create("sample");
+    Option periodOpt   = OptionBuilder.withArgName("accesses").hasArg().withDescription("Distance between two samples of -sample (default 1000000).").create("period");
+    Option intervalOpt = OptionBuilder.withArgName("accesses").hasArg().withDescription("Length of a sample of -sample (default 10000).").create("interval");
+    Option warmupOpt   = OptionBuilder.withArgName("accesses").hasArg().withDescription("Accesses simulated uncounted before every sample of -sample (default the -interval).").create("warmup");
+    Option setsOpt     = OptionBuilder.withArgName("k").hasArg().withDescription("Estimate the hit rate of a n-way set associative cache from one in k of its sets (a power of 2), chosen by a hash of the set index.").create("setsample");
+    Option validateOpt = OptionBuilder.withDescription("With -setsample, also simulate the full cache and compare.").create("validate");
+    Option classifyOpt = OptionBuilder.withDescription("Classify the misses of a single cache as compulsory, capacity or conflict misses.").create("classify");
+    Option simpointOpt = OptionBuilder.withArgName("clusters").hasArg().withDescription("With -sample, cluster the intervals of the stream by their signature and measure one interval per cluster instead of every -period.").create("simpoints");
 
     Options options = new Options();
     options.addOption(cacheOpt);
@@ -37,6 +69,35 @@ public class CacheSim {
     options.addOption(linesizeOpt);
     options.addOption(assocOpt);
     options.addOption(patternOpt);
+    options.addOption(traceOpt);
+    options.addOption(sizeOpt);
+    options.addOption(mrcOpt);
+    options.addOption(sweepOpt);
+    options.addOption(shardsOpt);
+    options.addOption(policyOpt);
+    options.addOption(tdrOpt);
+    options.addOption(hierOpt);
+    options.addOption(inclOpt);
+    options.addOption(recordOpt);
+    options.addOption(recfmtOpt);
+    options.addOption(writeOpt);
+    options.addOption(allocOpt);
+    options.addOption(layoutOpt);
+    options.addOption(addrOpt);
+    options.addOption(victimOpt);
+    options.addOption(timingOpt);
+    options.addOption(mshrsOpt);
+    options.addOption(prefetchOpt);
+    options.addOption(saveOpt);
+    options.addOption(restoreOpt);
+    options.addOption(sampleOpt);
+    options.addOption(periodOpt);
+    options.addOption(intervalOpt);
+    options.addOption(warmupOpt);
+    options.addOption(simpointOpt);
+    options.addOption(setsOpt);
+    options.addOption(validateOpt);
+    options.addOption(classifyOpt);
 
     HelpFormatter formatter = new HelpFormatter();
 
@@ -53,228 +114,535 @@ public class CacheSim {
 
     // The cache should be one of the specified types.
     Cache cache = null;
+    CacheHierarchy hierarchy = null;
+    VictimCache victim = null;
+    TimingCache timing = null;
+    PrefetchingCache prefetcher = null;
+    MissClassifier classifier = null;
+    AddressSource source = null;
     try {
-      int blocks = Integer.parseInt(line.getOptionValue("blocks"));
-      int linesize = Integer.parseInt(line.getOptionValue("linesize"));
-      if(! isPowerOf2(blocks) || ! isPowerOf2(linesize)) {
-        throw new Exception("Whoops. blocks and linesize must be powers of 2.");
+      if((line.hasOption("save") || line.hasOption("restore")) && (line.hasOption("sweep") || line.hasOption("mrc") || line.hasOption("shards"))) {
+        throw new Exception("Whoops. -save and -restore need a single cache or a hierarchy.");
+      }
+      if(line.hasOption("setsample") && (line.hasOption("sweep") || line.hasOption("mrc") || line.hasOption("shards") || line.hasOption("hierarchy") || line.hasOption("victim") || line.hasOption("timing") || line.hasOption("prefetch") || line.hasOption("sample") || line.hasOption("record") || line.hasOption("save") || line.hasOption("restore"))) {
+        throw new Exception("Whoops. -setsample simulates a single n-way set associative cache without other options.");
+      }
+      if(line.hasOption("sample") && (line.hasOption("sweep") || line.hasOption("mrc") || line.hasOption("shards") || line.hasOption("timing") || line.hasOption("record"))) {
+        throw new Exception("Whoops. -sample cannot be combined with -sweep, -mrc, -shards, -timing or -record.");
+      }
+      if(line.hasOption("classify") && (line.hasOption("sweep") || line.hasOption("mrc") || line.hasOption("shards") || line.hasOption("hierarchy") || line.hasOption("sample") || line.hasOption("setsample"))) {
+        throw new Exception("Whoops. -classify needs a single cache, without -hierarchy, -sweep, -mrc, -shards, -sample or -setsample.");
       }
-      String ctype = line.getOptionValue("cache");
-      if(ctype.equals("directmapped")) {
-        cache = new DirectMappedCache(blocks, linesize);
+      if(line.hasOption("sweep")) {
+        sweep(line);
+        return;
       }
-      else if(ctype.equals("fullyassociative")) {
-        cache = new FullyAssociativeCache(blocks, linesize);
+
+      source = source(line);
+
+      if(line.hasOption("mrc")) {
+        int linesize = intOption(line, "linesize");
+        StackDistance engine = new StackDistance(linesize);
+        engine.run(source);
+        printMissRatioCurve(engine, linesize);
+        return;
       }
-      else if(ctype.equals("nwaysetassociative")) {
+
+      if(line.hasOption("shards")) {
+        int blocks = intOption(line, "blocks");
+        int assoc = intOption(line, "assoc");
+        if(! "nwaysetassociative".equals(line.getOptionValue("cache")) || blocks % assoc != 0) {
+          throw new Exception("Whoops. -shards needs a n-way set associative cache");
+        }
+        ShardedSimulator sharded = new ShardedSimulator(blocks / assoc, intOption(line, "linesize"), assoc, line.getOptionValue("policy", "lru"), writeBack(line), writeAllocate(line), intOption(line, "shards"));
+        sharded.run(source);
+        System.out.println("Total Requests: " + sharded.requests);
+        System.out.println("    Cache Hits: " + sharded.hits);
+        System.out.println("      Hit Rate: " + ((double) sharded.hits)/ sharded.requests);
+        System.out.println(" Write Traffic: " + sharded.writebackBytes + " bytes");
+        return;
+      }
+
+      if(line.hasOption("setsample")) {
+        int blocks = intOption(line, "blocks");
+        int linesize = intOption(line, "linesize");
         int assoc = Integer.parseInt(line.getOptionValue("assoc"));
-        if(blocks % assoc != 0) {
-          throw new Exception("Whoops. blocks should be a multiple of the associativity in a n-way set associative cache");
+        int sampling = intOption(line, "setsample");
+        if(! "nwaysetassociative".equals(line.getOptionValue("cache")) || blocks % assoc != 0 || sampling > blocks / assoc) {
+          throw new Exception("Whoops. -setsample needs a n-way set associative cache with at least k sets");
+        }
+        String policy = line.getOptionValue("policy", "lru");
+        int sets = blocks / assoc;
+        Cache sampled = writePolicy(new NWayAssociativeCache(sets / sampling, linesize, assoc, ReplacementPolicy.create(policy, sets / sampling, assoc), addressBits(line)), line);
+        Cache reference = line.hasOption("validate") ? writePolicy(cache("nwaysetassociative", blocks, linesize, line), line) : null;
+        SetSampler sampler = new SetSampler(sampled, reference, sets, linesize, sampling);
+        if(addressBits(line) == 64) {
+          sampler.runWide(source);
+        }
+        else {
+          sampler.run(source);
         }
-        cache = new NWayAssociativeCache(blocks / assoc, linesize, assoc);
+        System.out.println("Total Requests: " + sampler.requests);
+        System.out.println("    Cache Hits: " + sampler.hits());
+        System.out.println("      Hit Rate: " + sampler.hitRate());
+        System.out.println("  Hit Rate 95% CI: +/- " + sampler.confidence());
+        System.out.println(" Sampled Requests: " + sampler.sampledRequests);
+        System.out.println(" Write Traffic: " + sampler.writebackBytes() + " bytes");
+        if(reference != null) {
+          double full = ((double) sampler.referenceHits) / sampler.requests;
+          System.out.println(" Full Cache Hits: " + sampler.referenceHits);
+          System.out.println(" Full Hit Rate: " + full);
+          System.out.println("         Error: " + (sampler.hitRate() - full));
+          System.out.println(" Within 95% CI: " + (Math.abs(sampler.hitRate() - full) <= sampler.confidence()));
+          System.out.println(" Full Write Traffic: " + reference.writebackBytes() + " bytes");
+        }
+        return;
+      }
+
+      if(line.hasOption("hierarchy")) {
+        hierarchy = hierarchy(line.getOptionValue("hierarchy"), line.getOptionValue("inclusion", "nine"), line.getOptionValue("policy", "lru"), line);
+        cache = hierarchy;
       }
       else {
-        throw new Exception("Just because I can.");
+        cache = writePolicy(cache(line.getOptionValue("cache"), intOption(line, "blocks"), intOption(line, "linesize"), line), line);
+      }
+      Cache base = cache;
+      int linesize = hierarchy != null ? firstLinesize(line.getOptionValue("hierarchy")) : intOption(line, "linesize");
+      int blocks = hierarchy != null ? 0 : intOption(line, "blocks");
+      if(line.hasOption("victim")) {
+        int entries = Integer.parseInt(line.getOptionValue("victim"));
+        victim = new VictimCache(cache, linesize, entries);
+        blocks += entries;
+        cache = victim;
+      }
+      if(line.hasOption("timing")) {
+        // Prefetches would take MSHRs and issue slots from the demand accesses.
+        if(line.hasOption("prefetch")) {
+          throw new Exception("Whoops. -timing cannot be combined with -prefetch.");
+        }
+        int[] latencies = TimingCache.latencies(line.getOptionValue("timing"));
+        int levels = hierarchy != null ? hierarchy.levels() : 1;
+        if(latencies.length != levels + 1) {
+          throw new Exception("Whoops. -timing needs " + (levels + 1) + " latencies, one per level and one for memory.");
+        }
+        timing = new TimingCache(cache, linesize, latencies, hierarchy != null ? hierarchy::servedBy : null, Integer.parseInt(line.getOptionValue("mshrs", "8")));
+        cache = timing;
+      }
+      if(line.hasOption("prefetch")) {
+        prefetcher = PrefetchingCache.create(line.getOptionValue("prefetch"), cache, linesize);
+        cache = prefetcher;
+      }
+      if(line.hasOption("classify")) {
+        // Every miss is classified as compulsory, capacity or conflict in the same pass.
+        // A victim cache adds to the capacity of the fully associative reference.
+        classifier = new MissClassifier(cache, blocks, linesize);
+        cache = classifier;
+      }
+      // A snapshot holds the cache or hierarchy with all the layers above, so
+      // it only fits a run with the same options.
+      if(line.hasOption("restore")) {
+        CacheSnapshot.read(cache, line.getOptionValue("restore"));
       }
 
-      String pattern = line.getOptionValue("pattern");
-      if(pattern.equals("patroon1")) {
-        pattern1(cache, 32);
+      if(line.hasOption("sample")) {
+        IntervalSampler sampler = sampler(line, cache, base, linesize);
+        if(line.hasOption("simpoints")) {
+          // Choosing the intervals reads the whole stream; the samples are taken from a fresh one.
+          sampler.choose(source, Integer.parseInt(line.getOptionValue("simpoints")));
+          close(source);
+          source = source(line);
+        }
+        sampler.run(source);
+        if(sampler.samples == 0) {
+          throw new Exception("Whoops. The stream ended before the first sample.");
+        }
+        if(line.hasOption("save")) {
+          CacheSnapshot.write(cache, line.getOptionValue("save"));
+        }
+
+        // The other statistics of the cache only saw the sampled accesses.
+        System.out.println("Total Requests: " + sampler.requests);
+        System.out.println("    Cache Hits: " + sampler.hits());
+        System.out.println("      Hit Rate: " + sampler.hitRate());
+        if(! line.hasOption("simpoints")) {
+          System.out.println("  Hit Rate 95% CI: +/- " + sampler.confidence());
+        }
+        System.out.println(" Sampled Requests: " + sampler.sampledRequests);
+        System.out.println("          Samples: " + sampler.samples);
+        System.out.println(" Write Traffic: " + sampler.writebackBytes() + " bytes");
+        return;
       }
-      else if(pattern.equals("patroon2")) {
-        pattern2(cache, 32);
+
+      TraceRecorder recorder = null;
+      if(line.hasOption("record")) {
+        String format = line.getOptionValue("recordformat", "raw");
+        if(format.equals("raw")) {
+          recorder = new TraceWriter(line.getOptionValue("record"), addressBits(line));
+        }
+        else if(format.equals("delta")) {
+          recorder = new DeltaTraceWriter(line.getOptionValue("record"), addressBits(line));
+        }
+        else {
+          throw new Exception("Whoops. -recordformat is raw or delta.");
+        }
       }
-      else if(pattern.equals("patroon3")) {
-        pattern3(cache, 32);
+
+      // Accesses are submitted to the cache in chunks.
+      RequestBuffer buffer = new RequestBuffer(cache, recorder);
+      if(addressBits(line) == 64) {
+        buffer.runWide(source);
       }
       else {
-        throw new Exception("Just because I can too.");
+        buffer.run(source);
+      }
+
+      if(recorder != null) {
+        recorder.close();
+      }
+      if(line.hasOption("save")) {
+        CacheSnapshot.write(cache, line.getOptionValue("save"));
+      }
+
+      // Force a cache dump after a pattern (put the following line in comment to prevent the dump).
+      if(! line.hasOption("trace")) {
+        cache.request(-1);
+      }
+
+      // Report the results of the simulation.
+      if(hierarchy != null) {
+        for (int level = 0; level < hierarchy.levels(); level++) {
+          System.out.println("L" + (level + 1) + " Requests: " + hierarchy.requests(level));
+          System.out.println("    L" + (level + 1) + " Hits: " + hierarchy.hits(level));
+          System.out.println("L" + (level + 1) + " Hit Rate: " + ((double) hierarchy.hits(level))/ hierarchy.requests(level));
+        }
+      }
+      System.out.println("Total Requests: " + buffer.requests);
+      System.out.println("    Cache Hits: " + buffer.hits);
+      System.out.println("      Hit Rate: " + ((double) buffer.hits)/ buffer.requests);
+      if(classifier != null) {
+        System.out.println("Compulsory Misses: " + classifier.compulsoryMisses());
+        System.out.println("  Capacity Misses: " + classifier.capacityMisses());
+        System.out.println("  Conflict Misses: " + classifier.conflictMisses());
+      }
+      if(victim != null) {
+        System.out.println("      Victim Hits: " + victim.victimHits());
+        System.out.println("     Victim Swaps: " + victim.swaps());
+      }
+      if(timing != null) {
+        System.out.println("     Total Cycles: " + timing.cycles());
+        System.out.println("             AMAT: " + timing.amat());
+        System.out.println("              MLP: " + timing.mlp());
+        System.out.println(" Secondary Misses: " + timing.secondaryMisses());
+        System.out.println("      MSHR Stalls: " + timing.stallCycles());
       }
+      if(prefetcher != null) {
+        System.out.println("       Prefetches: " + prefetcher.prefetches());
+        System.out.println("Prefetch Accuracy: " + prefetcher.accuracy());
+        System.out.println("Prefetch Coverage: " + prefetcher.coverage());
+        System.out.println(" Pollution Misses: " + prefetcher.pollution());
+      }
+      System.out.println(" Write Traffic: " + cache.writebackBytes() + " bytes");
     }
     catch(Exception exp) {
       System.err.println(exp.getMessage());
       formatter.printHelp("CacheSim", options);
       System.exit(-1);
     }
+    finally {
+      close(source);
+    }
 
   }
 
 
-  private static boolean sendCacheRequest(Cache cache, String matrix, int i, int j, int size) {
-    // different matrices are located in different places in the memory, this
-    // is modelled by using a matrix-specific base address.
-    int base = 0;
-    if (matrix.compareTo("A")==0)
-      base = 0;
-    else if (matrix.compareTo("B")==0)
-      base = 4*size*size + 64;
-    else if (matrix.compareTo("C")==0)
-      base = 8*size*size + 96 ;
-    else
-    {
-      System.err.println("Matrix " + matrix + "not recognized, please use A, B or C");
-      System.exit(-1);
+  // Closes the source if it holds a file.
+  private static void close(AddressSource source) {
+    if(source instanceof TraceSource) {
+      try {
+        ((TraceSource) source).close();
+      }
+      catch(IOException exp) {
+        System.err.println(exp.getMessage());
+      }
     }
+  }
 
 
-    // Address is calculated (multiply by 4 assumes int equals 4B).
-    int address = base + 4*((i * size) + j);
-
-    boolean hit = cache.request(address);
+  // The sampler of -sample, measuring with the cache and warming the base
+  // cache or hierarchy in between.
+  private static IntervalSampler sampler(CommandLine line, Cache cache, Cache base, int linesize) throws Exception {
+    IntervalSampler.Mode mode;
+    String sample = line.getOptionValue("sample");
+    if(sample.equals("warm")) {
+      mode = IntervalSampler.Mode.WARM;
+    }
+    else if(sample.equals("skip")) {
+      mode = IntervalSampler.Mode.SKIP;
+    }
+    else {
+      throw new Exception("Whoops. -sample is warm or skip.");
+    }
+    int interval = Integer.parseInt(line.getOptionValue("interval", "10000"));
+    int warmup = Integer.parseInt(line.getOptionValue("warmup", String.valueOf(interval)));
+    long period = Long.parseLong(line.getOptionValue("period", "1000000"));
+    if(line.hasOption("simpoints")) {
+      // Every interval can be chosen, so the period only bounds the warm-up.
+      period = (long) interval + warmup;
+    }
+    if(interval < 1 || warmup < 0 || period < (long) interval + warmup) {
+      throw new Exception("Whoops. -interval must be positive and -period at least -interval plus -warmup.");
+    }
+    return new IntervalSampler(cache, base, mode, period, interval, warmup, linesize, addressBits(line) == 64);
+  }
 
-    // Print out the address  (comment out the following line if needed)
-    //System.out.println(matrix + ": " +  address + (hit ? "" : " *"));
 
-    return hit;
+  // A required integer option that must be a power of 2.
+  private static int intOption(CommandLine line, String name) throws Exception {
+    if(! line.hasOption(name)) {
+      throw new Exception("Whoops. -" + name + " is required.");
+    }
+    int value = Integer.parseInt(line.getOptionValue(name));
+    if(! isPowerOf2(value)) {
+      throw new Exception("Whoops. " + name + " must be a power of 2.");
+    }
+    return value;
   }
 
 
-  // Data1 access pattern: .
-  private static void pattern2(Cache cache, int size)
-  {
-    // Statistics
-    int requests = 0;
-    int hits = 0;
-
-    // Input matrix
-    int A[][] = new int[size][size];
-    int B[][] = new int[size][size];
-
-    // Initialize matrix
-    int counter = 1;
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      {
-        A[ i ][ j ] = counter++;
-        B[ i ][ j ] = 0;
-      }
-    }
-
-    // Now fill B such that B[i][j] equals the sum of all elements of row i and column j of A
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      { 
-        // assuming this fits in a registers and does not generate a cache access.
-        int sum = -A[i][j];
-        for (int ii=0;ii<size;ii++)
-        {
-          sum+= A[ii][j];
-          requests++;
-          if (sendCacheRequest(cache, "A", ii, j, size)) hits++ ;
-        }
-        for (int jj=0;jj<size;jj++)
-        {
-          sum += A[i][jj];
-          requests++;
-          if (sendCacheRequest(cache, "A", i, jj, size)) hits++ ;
-        }
+  // The -addrbits option: 32 or 64.
+  private static int addressBits(CommandLine line) throws Exception {
+    String bits = line.getOptionValue("addrbits", "32");
+    if(! bits.equals("32") && ! bits.equals("64")) {
+      throw new Exception("Whoops. -addrbits is 32 or 64.");
+    }
+    return Integer.parseInt(bits);
+  }
 
-        B[ i ][ j ] = sum;
-        requests++;
-        if(sendCacheRequest(cache, "B", i, j, size)) hits++ ;
+
+  // A single cache of the given type.
+  private static Cache cache(String ctype, int blocks, int linesize, CommandLine line) throws Exception {
+    String policy = line.getOptionValue("policy", "lru");
+    if(ctype == null) {
+      throw new Exception("Whoops. -cache or -hierarchy is required.");
+    }
+    if(ctype.equals("directmapped")) {
+      return new DirectMappedCache(blocks, linesize, addressBits(line));
+    }
+    else if(ctype.equals("fullyassociative")) {
+      return new FullyAssociativeCache(blocks, linesize, ReplacementPolicy.create(policy, 1, blocks), addressBits(line));
+    }
+    else if(ctype.equals("nwaysetassociative")) {
+      int assoc = Integer.parseInt(line.getOptionValue("assoc"));
+      if(blocks % assoc != 0) {
+        throw new Exception("Whoops. blocks should be a multiple of the associativity in a n-way set associative cache");
+      }
+      return new NWayAssociativeCache(blocks / assoc, linesize, assoc, ReplacementPolicy.create(policy, blocks / assoc, assoc), addressBits(line));
+    }
+    else if(ctype.equals("vway")) {
+      int assoc = Integer.parseInt(line.getOptionValue("assoc"));
+      if(blocks % assoc != 0) {
+        throw new Exception("Whoops. blocks should be a multiple of the associativity in a v-way cache");
       }
+      return new VWayCache(blocks / assoc, linesize, assoc, Integer.parseInt(line.getOptionValue("tdr", "2")), addressBits(line));
     }
+    throw new Exception("Just because I can.");
+  }
 
-    // Force a cache dump (put the following line in comment to prevent the dump).
-    cache.request(-1);
 
-    // Report the results of the simulation.
-    System.out.println("Total Requests: " + requests);
-    System.out.println("    Cache Hits: " + hits);
-    System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+  // Applies -write and -allocate to a direct mapped, associative or v-way cache.
+  private static Cache writePolicy(Cache cache, CommandLine line) throws Exception {
+    if(cache instanceof NWayAssociativeCache) {
+      ((NWayAssociativeCache) cache).setWritePolicy(writeBack(line), writeAllocate(line));
+    }
+    else if(cache instanceof DirectMappedCache) {
+      ((DirectMappedCache) cache).setWritePolicy(writeBack(line), writeAllocate(line));
+    }
+    else if(cache instanceof VWayCache) {
+      ((VWayCache) cache).setWritePolicy(writeBack(line), writeAllocate(line));
+    }
+    return cache;
+  }
 
+
+  private static boolean writeBack(CommandLine line) throws Exception {
+    String write = line.getOptionValue("write", "wb");
+    if(! (write.equals("wb") || write.equals("wt"))) {
+      throw new Exception("Whoops. -write is wb or wt.");
+    }
+    return write.equals("wb");
   }
 
 
-  // transpose access pattern: .
-  private static void pattern1(Cache cache, int size)
-  {
-    // Statistics
-    int requests = 0;
-    int hits = 0;
+  private static boolean writeAllocate(CommandLine line) throws Exception {
+    String allocate = line.getOptionValue("allocate", "yes");
+    if(! (allocate.equals("yes") || allocate.equals("no"))) {
+      throw new Exception("Whoops. -allocate is yes or no.");
+    }
+    return allocate.equals("yes");
+  }
 
-    // Input matrix
-    int A[][] = new int[size][size];
-    int B[][] = new int[size][size];
 
-    // Initialize matrix
-    int counter = 1;
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      {
-        A[ i ][ j ] = counter++;
-        B[ i ][ j ] = 0;
+  // Builds a hierarchy from "L1:<blocks>x<linesize>x<assoc>,L2:...". A level
+  // with associativity 1 is direct mapped.
+  private static CacheHierarchy hierarchy(String spec, String inclusion, String policy, CommandLine line) throws Exception {
+    String[] parts = spec.split(",");
+    Cache[] levels = new Cache[parts.length];
+    int linesize = 0;
+    boolean sameLinesize = true;
+    for (int i = 0; i < parts.length; i++) {
+      String[] size = parts[i].substring(parts[i].indexOf(':') + 1).split("x");
+      if(size.length != 3) {
+        throw new Exception("Whoops. hierarchy levels look like L1:<blocks>x<linesize>x<assoc>, not " + parts[i]);
+      }
+      int blocks = Integer.parseInt(size[0]);
+      int l = Integer.parseInt(size[1]);
+      int assoc = Integer.parseInt(size[2]);
+      if(! isPowerOf2(blocks) || ! isPowerOf2(l) || blocks % assoc != 0) {
+        throw new Exception("Whoops. blocks and linesize must be powers of 2 and blocks a multiple of the associativity: " + parts[i]);
       }
+      sameLinesize &= i == 0 || l == linesize;
+      linesize = l;
+      if(assoc == 1) {
+        levels[i] = new DirectMappedCache(blocks, l, addressBits(line));
+      }
+      else {
+        levels[i] = new NWayAssociativeCache(blocks / assoc, l, assoc, ReplacementPolicy.create(policy, blocks / assoc, assoc), addressBits(line));
+      }
+      writePolicy(levels[i], line);
     }
 
-    // Now fill B such that B[i][j] equals A[i][j];
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      { 
-        B[ i ][ j ] = A[ j ][ i ];
-        requests++;
-        if(sendCacheRequest(cache, "A", j, i, size)) hits++ ;
-        requests++;
-        if(sendCacheRequest(cache, "B", i, j, size)) hits++ ;
-      }
+    CacheHierarchy.Inclusion mode = CacheHierarchy.Inclusion.valueOf(inclusion.toUpperCase());
+    if(mode != CacheHierarchy.Inclusion.NINE && ! sameLinesize) {
+      throw new Exception("Whoops. inclusive and exclusive hierarchies need the same linesize on every level.");
     }
+    if(mode == CacheHierarchy.Inclusion.EXCLUSIVE && ! (writeBack(line) && writeAllocate(line))) {
+      throw new Exception("Whoops. an exclusive hierarchy needs -write wb and -allocate yes.");
+    }
+    return new CacheHierarchy(levels, mode);
+  }
 
-    // Force a cache dump (put the following line in comment to prevent the dump).
-    cache.request(-1);
 
-    // Report the results of the simulation.
-    System.out.println("Total Requests: " + requests);
-    System.out.println("    Cache Hits: " + hits);
-    System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+  // Line size of the first level of a -hierarchy specification.
+  private static int firstLinesize(String spec) {
+    String first = spec.split(",")[0];
+    return Integer.parseInt(first.substring(first.indexOf(':') + 1).split("x")[1]);
+  }
 
+
+  // The address stream selected on the command line: a binary trace (see
+  // TraceFormat) or one of the patterns.
+  private static AddressSource source(CommandLine line) throws Exception {
+    if(line.hasOption("trace")) {
+      return new TraceSource(line.getOptionValue("trace"));
+    }
+
+    String pattern = line.getOptionValue("pattern");
+    if(pattern == null) {
+      throw new Exception("Whoops. Either -pattern or -trace is required.");
+    }
+    return source(pattern, layout(Integer.parseInt(line.getOptionValue("size", "32")), line));
   }
 
-  // Matrix increment access pattern
-  private static void pattern3(Cache cache, int size)
-  {
-    // Statistics
-    int requests = 0;
-    int hits = 0;
 
-    // Input matrix
-    int A[][] = new int[size][size];
+  private static AddressSource source(String pattern, MemoryLayout layout) throws Exception {
+    if(pattern.equals("patroon1")) {
+      // transpose access pattern: B[i][j] = A[j][i]
+      return new TransposeSource(layout);
+    }
+    else if(pattern.equals("patroon2")) {
+      // Data1 access pattern: B[i][j] is the sum of row i and column j of A
+      return new RowColumnSumSource(layout);
+    }
+    else if(pattern.equals("patroon3")) {
+      // Matrix increment access pattern
+      return new IncrementSource(layout);
+    }
+    throw new Exception("Just because I can too.");
+  }
+
 
-    // Initialize matrix
-    int counter = 1;
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      {
-        A[ i ][ j ] = counter++;
+  // Simulates every combination of the -blocks, -linesize and -assoc ranges
+  // for every pattern in the comma separated -pattern list (or the -trace) on
+  // all cores, and prints one table.
+  private static void sweep(CommandLine line) throws Exception {
+    int[] blocks = range(line.getOptionValue("blocks"));
+    int[] linesizes = range(line.getOptionValue("linesize"));
+    int[] assocs = range(line.getOptionValue("assoc", "1"));
+    int size = Integer.parseInt(line.getOptionValue("size", "32"));
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    Sweep sweep = new Sweep(line.getOptionValue("policy", "lru"), writeBack(line), writeAllocate(line), threads);
+    List<Sweep.Result> results = new ArrayList<Sweep.Result>();
+    if(line.hasOption("trace")) {
+      String file = line.getOptionValue("trace");
+      try (TraceSource source = new TraceSource(file)) {
+        results.addAll(sweep.run(file, source, blocks, linesizes, assocs));
       }
     }
-
-    for (int i=0;i<size;i++)
-    {	
-      for (int j=0;j<size;j++)
-      { 
-        A[ i ][ j ] = A[ i ][ j ]++;
-        // read
-        requests++;
-        if(sendCacheRequest(cache, "A", j, i, size)) hits++ ;
-        //write
-        requests++;
-        if(sendCacheRequest(cache, "A", j, i, size)) hits++ ;
+    else if(line.hasOption("pattern")) {
+      for (String pattern : line.getOptionValue("pattern").split(",")) {
+        results.addAll(sweep.run(pattern, source(pattern, layout(size, line)), blocks, linesizes, assocs));
       }
     }
+    else {
+      throw new Exception("Whoops. Either -pattern or -trace is required.");
+    }
+
+    System.out.printf("%-12s %8s %8s %6s %14s %14s %10s %14s%n", "workload", "blocks", "linesize", "assoc", "requests", "hits", "hit rate", "write bytes");
+    for (Sweep.Result r : results) {
+      System.out.printf("%-12s %8d %8d %6d %14d %14d %10.6f %14d%n", r.workload, r.blocks, r.linesize, r.assoc, r.requests, r.hits, ((double) r.hits) / r.requests, r.writebackBytes);
+    }
+  }
+
+
+  // Parses "n" or "min:max" into all powers of 2 from min to max.
+  private static int[] range(String value) throws Exception {
+    if(value == null) {
+      throw new Exception("Whoops. -blocks and -linesize are required.");
+    }
+    String[] bounds = value.split(":");
+    int min = Integer.parseInt(bounds[0]);
+    int max = Integer.parseInt(bounds[bounds.length - 1]);
+    if(! isPowerOf2(min) || ! isPowerOf2(max) || min > max) {
+      throw new Exception("Whoops. range bounds must be powers of 2: " + value);
+    }
+    int[] values = new int[Integer.numberOfTrailingZeros(max) - Integer.numberOfTrailingZeros(min) + 1];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = min << i;
+    }
+    return values;
+  }
 
-    // Force a cache dump (put the following line in comment to prevent the dump).
-    cache.request(-1);
 
-    // Report the results of the simulation.
-    System.out.println("Total Requests: " + requests);
-    System.out.println("    Cache Hits: " + hits);
-    System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+  // Prints hits and misses of a fully associative LRU cache for every power
+  // of two number of lines up to the footprint of the workload.
+  private static void printMissRatioCurve(StackDistance engine, int linesize) {
+    System.out.println("Total Requests: " + engine.accesses());
+    System.out.println("Distinct Lines: " + engine.distinctLines());
+    System.out.println();
+    System.out.printf("%10s %12s %14s %14s %10s%n", "lines", "bytes", "hits", "misses", "miss rate");
+    for (int b = 0; b <= 31; b++) {
+      long lines = 1L << b;
+      long hits = engine.hits(b);
+      long misses = engine.accesses() - hits;
+      System.out.printf("%10d %12d %14d %14d %10.6f%n", lines, lines * linesize, hits, misses, ((double) misses) / engine.accesses());
+      if (lines >= engine.distinctLines()) {
+        break;
+      }
+    }
+  }
+
 
+  // Layout of the matrices A, B and C: different matrices are located in
+  // different places in the memory, by default 64 and 32 bytes apart. The
+  // -layout option overrides this per matrix.
+  private static MemoryLayout layout(int size, CommandLine line) throws Exception {
+    try {
+      return new MemoryLayout(size, MatrixSource.NAMES, new int[] { 0, 64, 32 }, line.getOptionValue("layout"), addressBits(line));
+    }
+    catch(IllegalArgumentException exp) {
+      throw new Exception("Whoops. Bad -layout: " + exp.getMessage());
+    }
   }
 
 
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of the state of a cache, so a warmed cache can be saved
+ * once and restored by any number of later runs.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "CSNP"
+ *      4     2  version (1)
+ *      6     2  reserved (0)
+ *      8     8  size of the state in bytes
+ *     16        state, as written by {@link Cache#save}
+ * </pre>
+ *
+ * All values are little endian. The state is a sequence of sections, one
+ * for the cache and one for every part it owns (replacement policy, levels of
+ * a hierarchy, the cache behind a victim cache, prefetcher, timing model or
+ * miss classifier). A section starts with the class name and the geometry of the
+ * part, and restoring checks both before it reads the arrays, so a snapshot
+ * only goes into a cache with the same structure. Write policies and
+ * statistics are not part of the state.
+ *
+ * The whole file goes through one direct buffer: the arrays are copied in
+ * bulk and the buffer is written or read by the channel in one go.
+ */
+final class CacheSnapshot {
+
+  static final int MAGIC = 0x504e5343; // "CSNP" read little endian
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  private CacheSnapshot() {
+  }
+
+  /**
+   * Writes the state of the cache to a file.
+   */
+  static void write(Cache cache, String file) throws IOException {
+    int size = cache.snapshotSize();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + size).order(ORDER);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putLong(size);
+    cache.save(buffer);
+    if (buffer.hasRemaining()) {
+      throw new IllegalStateException(cache.getClass().getName() + " wrote " + (buffer.position() - HEADER_SIZE) + " of " + size + " bytes");
+    }
+    buffer.flip();
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Restores the state of the cache from a file written by {@link #write}.
+   *
+   * @throws IOException if the file cannot be read, is not a snapshot or
+   *         belongs to a cache with a different structure.
+   */
+  static void read(Cache cache, String file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+        throw new IOException("Not a cache snapshot: bad size " + length);
+      }
+      buffer = ByteBuffer.allocateDirect((int) length).order(ORDER);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated cache snapshot");
+        }
+      }
+    }
+    buffer.flip();
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a cache snapshot: bad magic");
+    }
+    short version = buffer.getShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported cache snapshot version " + version);
+    }
+    buffer.getShort();
+    if (buffer.getLong() != buffer.remaining()) {
+      throw new IOException("Truncated cache snapshot");
+    }
+    try {
+      cache.restore(buffer);
+    }
+    catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("Snapshot does not fit this cache: " + (e.getMessage() != null ? e.getMessage() : "too short"));
+    }
+    if (buffer.hasRemaining()) {
+      throw new IOException("Snapshot does not fit this cache: " + buffer.remaining() + " bytes left");
+    }
+  }
+
+  /**
+   * @return the size of a section header for this owner and geometry.
+   */
+  static int sectionSize(Object owner, int fields) {
+    return 2 + owner.getClass().getName().getBytes(StandardCharsets.UTF_8).length + 2 + 8 * fields;
+  }
+
+  static void putSection(ByteBuffer out, Object owner, long... geometry) {
+    byte[] name = owner.getClass().getName().getBytes(StandardCharsets.UTF_8);
+    out.putShort((short) name.length);
+    out.put(name);
+    out.putShort((short) geometry.length);
+    for (long g : geometry) {
+      out.putLong(g);
+    }
+  }
+
+  /**
+   * Reads a section header and checks that it matches the owner.
+   *
+   * @throws IllegalArgumentException if it does not.
+   */
+  static void checkSection(ByteBuffer in, Object owner, long... geometry) {
+    byte[] name = new byte[in.getShort()];
+    in.get(name);
+    String found = new String(name, StandardCharsets.UTF_8);
+    if (!found.equals(owner.getClass().getName())) {
+      throw new IllegalArgumentException("snapshot of a " + found + ", not a " + owner.getClass().getName());
+    }
+    long[] saved = new long[in.getShort()];
+    for (int i = 0; i < saved.length; i++) {
+      saved[i] = in.getLong();
+    }
+    if (!Arrays.equals(saved, geometry)) {
+      throw new IllegalArgumentException(found + " geometry " + Arrays.toString(saved) + " instead of " + Arrays.toString(geometry));
+    }
+  }
+
+  // Bulk copies between arrays and the buffer.
+
+  static void putInts(ByteBuffer out, int[] values) {
+    out.asIntBuffer().put(values);
+    out.position(out.position() + 4 * values.length);
+  }
+
+  static void getInts(ByteBuffer in, int[] values) {
+    in.asIntBuffer().get(values);
+    in.position(in.position() + 4 * values.length);
+  }
+
+  static void putLongs(ByteBuffer out, long[] values) {
+    out.asLongBuffer().put(values);
+    out.position(out.position() + 8 * values.length);
+  }
+
+  static void getLongs(ByteBuffer in, long[] values) {
+    in.asLongBuffer().get(values);
+    in.position(in.position() + 8 * values.length);
+  }
+
+  // One byte per flag.
+
+  static void putBooleans(ByteBuffer out, boolean[] values) {
+    for (boolean v : values) {
+      out.put((byte) (v ? 1 : 0));
+    }
+  }
+
+  static void getBooleans(ByteBuffer in, boolean[] values) {
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.get() != 0;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Assertions for the self-checking test programs (the <code>*Test</code>
+ * classes), which run without a test framework; see test.sh. A failed check
+ * throws an AssertionError, so the program exits with a non-zero status.
+ */
+final class Check {
+
+  private Check() {
+  }
+
+  static void that(boolean condition, String what) {
+    if (!condition) {
+      throw new AssertionError(what);
+    }
+  }
+
+  static void equal(long expected, long actual, String what) {
+    if (expected != actual) {
+      throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+  }
+
+  static void equal(Object expected, Object actual, String what) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+  }
+
+  /**
+   * Checks that <code>body</code> throws an exception of the given type.
+   */
+  static void fails(Class<? extends Throwable> type, Runnable body, String what) {
+    try {
+      body.run();
+    }
+    catch (Throwable t) {
+      if (type.isInstance(t)) {
+        return;
+      }
+      throw new AssertionError(what + ": expected " + type.getSimpleName() + " but got " + t, t);
+    }
+    throw new AssertionError(what + ": expected " + type.getSimpleName());
+  }
+}
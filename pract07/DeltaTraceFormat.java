@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compressed address trace format for regular access streams.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "CDTC"
+ *      4     2  version (1)
+ *      6     2  address width in bits (32 or 64)
+ *      8     8  number of records
+ *     16        blocks
+ * </pre>
+ *
+ * A block holds up to {@link #BLOCK_RECORDS} records and starts with two 32
+ * bit values, its number of records and the size of its tokens in bytes. The
+ * decoder starts every block from a clean state, so a reader can skip a
+ * block by its header alone.
+ *
+ * The tokens encode each record against a prediction. A stream is an
+ * operand byte of {@link AddressSource}: the operand with the write flag, so
+ * the reads and the writes of an operand are separate streams. Per stream
+ * the decoder keeps the last address, the stride (the last explicit delta)
+ * and the stream that followed it. The next record is predicted to be of the
+ * stream that followed the previous one, at its last address plus its
+ * stride. Tokens are unsigned LEB128 varints:
+ * <ul>
+ * <li>run: <code>count &lt;&lt; 1 | 1</code>, the next <code>count</code>
+ * records are as predicted;</li>
+ * <li>literal: <code>stream &lt;&lt; 1</code> followed by the zig-zag
+ * encoded delta to the last address of that stream, which becomes its
+ * stride.</li>
+ * </ul>
+ * Interleaved streams with constant strides, as in the matrix kernels, are
+ * one run per innermost loop. All values are little endian; addresses have
+ * the full 32 or 64 bits.
+ */
+final class DeltaTraceFormat {
+
+  static final int MAGIC = 0x43544443; // "CDTC" read little endian
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int BLOCK_HEADER_SIZE = 8;
+  static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  static final int BLOCK_RECORDS = 1 << 16;
+  static final int STREAMS = 256;
+  // A literal takes at most 2 bytes of stream and 10 of delta, and a run
+  // is always followed by a literal or the end of the block.
+  static final int MAX_BLOCK_BYTES = 12 * BLOCK_RECORDS + 16;
+
+  private DeltaTraceFormat() {
+  }
+
+  static long zigzag(long delta) {
+    return (delta << 1) ^ (delta >> 63);
+  }
+
+  static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static void writeHeader(ByteBuffer header, int addressBits, long records) {
+    header.order(ORDER);
+    header.putInt(MAGIC);
+    header.putShort(VERSION);
+    header.putShort((short) addressBits);
+    header.putLong(records);
+  }
+
+  /**
+   * Checks the header at the current position of the buffer.
+   *
+   * @return the address width in bits.
+   */
+  static int readHeader(ByteBuffer header) throws IOException {
+    header.order(ORDER);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a delta trace file: bad magic");
+    }
+    short version = header.getShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported delta trace version " + version);
+    }
+    int addressBits = header.getShort();
+    if (addressBits != 32 && addressBits != 64) {
+      throw new IOException("Unsupported address width " + addressBits);
+    }
+    return addressBits;
+  }
+
+  /**
+   * @return whether the file starts with the magic of this format.
+   */
+  static boolean isDelta(String file) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(4).order(ORDER);
+      while (magic.hasRemaining() && channel.read(magic) > 0) {
+      }
+      return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+  }
+}
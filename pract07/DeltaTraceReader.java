@@ -0,0 +1,402 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Decodes a {@link DeltaTraceFormat} file a block at a time. The tokens of
+ * the current block are read into one array and decoded on demand straight
+ * into the caller's arrays, with the operand bytes of {@link AddressSource}.
+ * A run costs a few array lookups per record, so decoding is usually cheaper
+ * than copying raw records.
+ *
+ * The tokens are followed by zero bytes, enough for every record of one call
+ * of decode to be a two byte literal. Varints are therefore decoded without a
+ * bounds check per byte; a corrupt block that reads past its tokens is
+ * detected once per call.
+ */
+class DeltaTraceReader implements Closeable {
+
+  // Runs of at least this many records are decoded per stream.
+  private static final int LONG_RUN = 64;
+  // Records per call of decode, and the zero bytes after the tokens.
+  private static final int DECODE_RECORDS = RequestBuffer.CHUNK;
+  private static final int PADDING = 2 * DECODE_RECORDS + 16;
+
+  private final FileChannel channel;
+  private final int addressBits;
+  private final long records;
+  private final ByteBuffer blockHeader = ByteBuffer.allocate(DeltaTraceFormat.BLOCK_HEADER_SIZE).order(DeltaTraceFormat.ORDER);
+
+  private byte[] tokens = new byte[0];
+  private int at;
+  private int limit;
+  // Records left in the block and in the current run.
+  private int blockLeft;
+  private int run;
+
+  // Predictor: per stream the last address, the stride and the stream that
+  // followed it.
+  private final long[] last = new long[DeltaTraceFormat.STREAMS];
+  private final long[] stride = new long[DeltaTraceFormat.STREAMS];
+  private final int[] next = new int[DeltaTraceFormat.STREAMS];
+  private int previous;
+
+  // The streams of a long run in order, with the run they were last seen in
+  // and their position.
+  private final int[] cycle = new int[DeltaTraceFormat.STREAMS];
+  private final int[] seen = new int[DeltaTraceFormat.STREAMS];
+  private final int[] position = new int[DeltaTraceFormat.STREAMS];
+  private int stamp;
+
+  // Scratch arrays for skipping within a block.
+  private long[] skipped;
+  private byte[] skippedOperands;
+
+  DeltaTraceReader(String file) throws IOException {
+    channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(DeltaTraceFormat.HEADER_SIZE);
+    if (!readFully(header)) {
+      throw new IOException("Trace file too short: " + file);
+    }
+    header.flip();
+    addressBits = DeltaTraceFormat.readHeader(header);
+    records = header.getLong();
+  }
+
+  long records() {
+    return records;
+  }
+
+  int addressBits() {
+    return addressBits;
+  }
+
+  /**
+   * Decodes up to <code>len</code> accesses.
+   *
+   * @return the number of accesses decoded, 0 at the end of the trace.
+   * @throws IOException if an address does not fit in 32 bits, or the
+   *         trace is corrupt.
+   */
+  int read(int[] addresses, byte[] operands, int off, int len) throws IOException {
+    return read(addresses, null, operands, off, len);
+  }
+
+  /**
+   * Decodes up to <code>len</code> accesses with 64 bit addresses.
+   *
+   * @return the number of accesses decoded, 0 at the end of the trace.
+   */
+  int read(long[] addresses, byte[] operands, int off, int len) throws IOException {
+    return read(null, addresses, operands, off, len);
+  }
+
+  /**
+   * Skips up to <code>n</code> accesses. Whole blocks are skipped by their
+   * header without reading their tokens.
+   *
+   * @return the number of accesses skipped, less than <code>n</code> only at
+   *         the end of the trace.
+   */
+  long skip(long n) throws IOException {
+    long done = 0;
+    while (done < n) {
+      if (blockLeft == 0) {
+        if (!readBlockHeader()) {
+          break;
+        }
+        int tokenBytes = blockHeader.getInt(4);
+        if (blockLeft <= n - done) {
+          channel.position(channel.position() + tokenBytes);
+          done += blockLeft;
+          blockLeft = 0;
+          continue;
+        }
+        readTokens(tokenBytes);
+      }
+      if (skipped == null) {
+        skipped = new long[RequestBuffer.CHUNK];
+        skippedOperands = new byte[RequestBuffer.CHUNK];
+      }
+      done += read(null, skipped, skippedOperands, 0, (int) Math.min(n - done, skipped.length));
+    }
+    return done;
+  }
+
+  private int read(int[] narrow, long[] wide, byte[] operands, int off, int len) throws IOException {
+    int done = 0;
+    while (done < len) {
+      if (blockLeft == 0) {
+        if (!readBlockHeader()) {
+          break;
+        }
+        readTokens(blockHeader.getInt(4));
+      }
+      int n = Math.min(Math.min(len - done, blockLeft), DECODE_RECORDS);
+      decode(narrow, wide, operands, off + done, n);
+      blockLeft -= n;
+      done += n;
+      if (blockLeft == 0 && (run != 0 || at != limit)) {
+        throw new IOException("Corrupt delta trace block");
+      }
+    }
+    return done;
+  }
+
+  private void decode(int[] narrow, long[] wide, byte[] operands, int off, int n) throws IOException {
+    int i = off;
+    int end = off + n;
+    // Or of all addresses, to check once that they fit in 32 bits.
+    long all = 0;
+    while (i < end) {
+      if (run == 0) {
+        byte b = tokens[at++];
+        long head = b >= 0 ? b : varint(b);
+        if ((head & 1) != 0) {
+          run = (int) (head >>> 1);
+          if (run < 1) {
+            throw new IOException("Corrupt delta trace block");
+          }
+          continue;
+        }
+        // Literal: an explicit delta that becomes the stride.
+        int stream = (int) (head >>> 1) & 0xff;
+        b = tokens[at++];
+        stride[stream] = DeltaTraceFormat.unzigzag(b >= 0 ? b : varint(b));
+        next[previous] = stream;
+        long address = last[stream] + stride[stream];
+        last[stream] = address;
+        previous = stream;
+        operands[i] = (byte) stream;
+        all |= address;
+        if (narrow != null) {
+          narrow[i] = (int) address;
+        }
+        else {
+          wide[i] = address;
+        }
+        i++;
+        continue;
+      }
+
+      int stop = i + Math.min(run, end - i);
+      run -= stop - i;
+      if (stop - i >= LONG_RUN) {
+        all |= longRun(narrow, wide, operands, i, stop);
+        i = stop;
+        continue;
+      }
+      int p = previous;
+      if (next[p] == p) {
+        // One stream, as after most jumps: its address stays in a register.
+        long address = last[p];
+        long step = stride[p];
+        byte operand = (byte) p;
+        for (; i < stop; i++) {
+          address += step;
+          operands[i] = operand;
+          all |= address;
+          if (narrow != null) {
+            narrow[i] = (int) address;
+          }
+          else {
+            wide[i] = address;
+          }
+        }
+        last[p] = address;
+        continue;
+      }
+      for (; i < stop; i++) {
+        int stream = next[p];
+        long address = last[stream] + stride[stream];
+        last[stream] = address;
+        p = stream;
+        operands[i] = (byte) stream;
+        all |= address;
+        if (narrow != null) {
+          narrow[i] = (int) address;
+        }
+        else {
+          wide[i] = address;
+        }
+      }
+      previous = p;
+    }
+    if (at > limit) {
+      throw new IOException("Corrupt delta trace block");
+    }
+    if (narrow != null && all >>> 32 != 0) {
+      throw new IOException("Address does not fit in 32 bits");
+    }
+  }
+
+  // Within a run the streams follow next[] and end up in a cycle, each with
+  // its constant stride. Past the streams before the cycle, every stream of
+  // the cycle fills its own positions, without a dependency between records.
+  private long longRun(int[] narrow, long[] wide, byte[] operands, int from, int stop) {
+    long all = 0;
+    int i = from;
+    stamp++;
+    int length = 0;
+    int stream = next[previous];
+    while (seen[stream] != stamp) {
+      seen[stream] = stamp;
+      position[stream] = length;
+      cycle[length++] = stream;
+      stream = next[stream];
+    }
+    // The streams before the cycle occur once.
+    for (int c = 0; c < position[stream] && i < stop; c++, i++) {
+      all |= emit(narrow, wide, operands, i, cycle[c]);
+    }
+    int first = position[stream];
+    int period = length - first;
+    if (period == 1 && narrow != null) {
+      // One stream: its addresses lie between the first and the last.
+      int s0 = cycle[first];
+      long a0 = last[s0];
+      long step0 = stride[s0];
+      Arrays.fill(operands, i, stop, (byte) s0);
+      for (; i < stop; i++) {
+        a0 += step0;
+        narrow[i] = (int) a0;
+      }
+      all |= a0 | last[s0] + step0;
+      last[s0] = a0;
+      previous = s0;
+      return all;
+    }
+    if (period == 2 && narrow != null) {
+      // Two interleaved streams, as in most kernels, one pair per iteration.
+      int s0 = cycle[first];
+      int s1 = cycle[first + 1];
+      long a0 = last[s0];
+      long a1 = last[s1];
+      long step0 = stride[s0];
+      long step1 = stride[s1];
+      byte o0 = (byte) s0;
+      byte o1 = (byte) s1;
+      for (; i + 1 < stop; i += 2) {
+        a0 += step0;
+        a1 += step1;
+        narrow[i] = (int) a0;
+        narrow[i + 1] = (int) a1;
+        operands[i] = o0;
+        operands[i + 1] = o1;
+        all |= a0 | a1;
+      }
+      if (i < stop) {
+        a0 += step0;
+        narrow[i] = (int) a0;
+        operands[i] = o0;
+        all |= a0;
+      }
+      last[s0] = a0;
+      last[s1] = a1;
+      previous = operands[stop - 1] & 0xff;
+      return all;
+    }
+    for (int c = 0; c < period && i + c < stop; c++) {
+      int s = cycle[first + c];
+      long address = last[s];
+      long step = stride[s];
+      byte operand = (byte) s;
+      if (narrow != null) {
+        for (int t = i + c; t < stop; t += period) {
+          address += step;
+          narrow[t] = (int) address;
+          operands[t] = operand;
+          all |= address;
+        }
+      }
+      else {
+        for (int t = i + c; t < stop; t += period) {
+          address += step;
+          wide[t] = address;
+          operands[t] = operand;
+        }
+      }
+      last[s] = address;
+    }
+    previous = operands[stop - 1] & 0xff;
+    return all;
+  }
+
+  private long emit(int[] narrow, long[] wide, byte[] operands, int i, int stream) {
+    long address = last[stream] + stride[stream];
+    last[stream] = address;
+    previous = stream;
+    operands[i] = (byte) stream;
+    if (narrow != null) {
+      narrow[i] = (int) address;
+    }
+    else {
+      wide[i] = address;
+    }
+    return address;
+  }
+
+  // The rest of a varint of more than one byte, after its first byte.
+  private long varint(byte first) throws IOException {
+    long value = first & 0x7f;
+    for (int shift = 7; shift < 64; shift += 7) {
+      byte b = tokens[at++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupt delta trace block");
+  }
+
+  // Reads the header of the next block and resets the predictor.
+  private boolean readBlockHeader() throws IOException {
+    blockHeader.clear();
+    if (!readFully(blockHeader)) {
+      if (blockHeader.position() != 0) {
+        throw new IOException("Truncated delta trace");
+      }
+      return false;
+    }
+    blockLeft = blockHeader.getInt(0);
+    int tokenBytes = blockHeader.getInt(4);
+    if (blockLeft < 1 || blockLeft > DeltaTraceFormat.BLOCK_RECORDS || tokenBytes < 1 || tokenBytes > DeltaTraceFormat.MAX_BLOCK_BYTES) {
+      throw new IOException("Corrupt delta trace block header");
+    }
+    run = 0;
+    Arrays.fill(last, 0);
+    Arrays.fill(stride, 0);
+    Arrays.fill(next, 0);
+    previous = 0;
+    return true;
+  }
+
+  private void readTokens(int tokenBytes) throws IOException {
+    if (tokens.length < tokenBytes + PADDING) {
+      tokens = new byte[Math.max(tokenBytes, Math.min(2 * tokens.length, DeltaTraceFormat.MAX_BLOCK_BYTES)) + PADDING];
+    }
+    if (!readFully(ByteBuffer.wrap(tokens, 0, tokenBytes))) {
+      throw new IOException("Truncated delta trace");
+    }
+    Arrays.fill(tokens, tokenBytes, tokenBytes + PADDING, (byte) 0);
+    at = 0;
+    limit = tokenBytes;
+  }
+
+  private boolean readFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes delta traces of several blocks and checks that reading them back,
+ * in chunks of any size and after skipping, gives the same records, and that
+ * a damaged trace is reported rather than decoded.
+ */
+class DeltaTraceTest {
+
+  private static final int RECORDS = 3 * DeltaTraceFormat.BLOCK_RECORDS + 1234;
+
+  public static void main(String[] args) throws IOException {
+    Random random = new Random(1);
+    long[] addresses = new long[RECORDS];
+    byte[] operands = new byte[RECORDS];
+    generate(random, addresses, operands, 1L << 28);
+    File narrow = write(32, addresses, operands);
+    roundTrip(random, narrow, addresses, operands, false);
+    roundTrip(random, narrow, addresses, operands, true);
+    skip(random, narrow, addresses, operands);
+
+    long[] high = new long[RECORDS];
+    generate(random, high, operands, 1L << 40);
+    File wide = write(64, high, operands);
+    roundTrip(random, wide, high, operands, true);
+    skip(random, wide, high, operands);
+    Check.fails(UncheckedIOException.class, () -> readAll(wide, false), "64 bit addresses read as 32 bits");
+
+    damaged(narrow);
+  }
+
+  // Kernels of one, two and three interleaved streams with runs of every
+  // length, jumps within a stream, and records of random streams.
+  private static void generate(Random random, long[] addresses, byte[] operands, long base) {
+    int i = 0;
+    while (i < addresses.length) {
+      int streams = 1 + random.nextInt(3);
+      int length = random.nextInt(4) == 0 ? 1 + random.nextInt(8) : 1 + random.nextInt(400);
+      long[] address = new long[streams];
+      long[] step = new long[streams];
+      for (int s = 0; s < streams; s++) {
+        address[s] = base + random.nextInt(1 << 24);
+        step[s] = (random.nextInt(9) - 4) * 4L * (random.nextBoolean() ? 1 : 300);
+      }
+      for (int n = 0; n < length && i < addresses.length; n++) {
+        int s = n % streams;
+        if (random.nextInt(100) == 0) {
+          address[s] = base + random.nextInt(1 << 30);
+        }
+        address[s] += step[s];
+        addresses[i] = address[s];
+        operands[i] = (byte) (s | (random.nextInt(50) == 0 ? AddressSource.WRITE : 0));
+        i++;
+      }
+      if (i < addresses.length && random.nextInt(10) == 0) {
+        addresses[i] = base + random.nextInt(1 << 30);
+        operands[i] = (byte) random.nextInt(256);
+        i++;
+      }
+    }
+  }
+
+  private static File write(int addressBits, long[] addresses, byte[] operands) throws IOException {
+    File file = File.createTempFile("deltatracetest", ".dtc");
+    file.deleteOnExit();
+    DeltaTraceWriter writer = new DeltaTraceWriter(file.getPath(), addressBits);
+    int[] narrow = new int[addresses.length];
+    for (int i = 0; i < addresses.length; i++) {
+      narrow[i] = (int) addresses[i];
+    }
+    // Pieces of several sizes, through both write methods.
+    for (int from = 0, piece = 1; from < addresses.length; piece = piece * 7 % 10007) {
+      int to = Math.min(addresses.length, from + piece);
+      if (addressBits == 32 && piece % 2 == 0) {
+        writer.write(narrow, operands, from, to);
+      }
+      else {
+        writer.write(addresses, operands, from, to);
+      }
+      from = to;
+    }
+    writer.close();
+    return file;
+  }
+
+  // Reads in chunks of random length, also longer than one decode call.
+  private static void roundTrip(Random random, File file, long[] addresses, byte[] operands, boolean wide) throws IOException {
+    DeltaTraceReader reader = new DeltaTraceReader(file.getPath());
+    Check.equal(addresses.length, reader.records(), file.getName() + ": records in the header");
+    int[] narrowOut = new int[3 * RequestBuffer.CHUNK];
+    long[] wideOut = new long[3 * RequestBuffer.CHUNK];
+    byte[] operandsOut = new byte[3 * RequestBuffer.CHUNK];
+    int position = 0;
+    while (true) {
+      int off = random.nextInt(4);
+      int len = 1 + random.nextInt(narrowOut.length - off);
+      int n = wide ? reader.read(wideOut, operandsOut, off, len) : reader.read(narrowOut, operandsOut, off, len);
+      if (n == 0) {
+        break;
+      }
+      Check.that(n <= len, "no more records than asked for");
+      for (int i = 0; i < n; i++) {
+        long address = wide ? wideOut[off + i] : narrowOut[off + i] & 0xffffffffL;
+        Check.equal(addresses[position + i], address, "address of record " + (position + i));
+        Check.equal(operands[position + i], operandsOut[off + i], "operand of record " + (position + i));
+      }
+      position += n;
+    }
+    reader.close();
+    Check.equal(addresses.length, position, "records read");
+  }
+
+  // Skips to positions within a block, to block boundaries and past the end,
+  // then compares the records that follow.
+  private static void skip(Random random, File file, long[] addresses, byte[] operands) throws IOException {
+    int block = DeltaTraceFormat.BLOCK_RECORDS;
+    int[] starts = { 0, 1, 4000, block - 1, block, block + 1, 2 * block, 2 * block + 77, RECORDS - 1, RECORDS, 1 + random.nextInt(RECORDS) };
+    for (int start : starts) {
+      DeltaTraceReader reader = new DeltaTraceReader(file.getPath());
+      // In two steps, so the second may start within a block.
+      int first = start / 3;
+      Check.equal(first, reader.skip(first), "skipped to " + first);
+      Check.equal(start - first, reader.skip(start - first), "skipped to " + start);
+      long[] out = new long[1000];
+      byte[] operandsOut = new byte[1000];
+      int n = reader.read(out, operandsOut, 0, out.length);
+      Check.equal(Math.min(out.length, RECORDS - start), n, "records after skipping to " + start);
+      for (int i = 0; i < n; i++) {
+        Check.equal(addresses[start + i], out[i], "address " + i + " after skipping to " + start);
+        Check.equal(operands[start + i], operandsOut[i], "operand " + i + " after skipping to " + start);
+      }
+      reader.close();
+    }
+
+    DeltaTraceReader reader = new DeltaTraceReader(file.getPath());
+    Check.equal(RECORDS, reader.skip(RECORDS + 10), "skip past the end");
+    Check.equal(0, reader.skip(1), "skip at the end");
+    reader.close();
+  }
+
+  private static void damaged(File file) throws IOException {
+    byte[] original = Files.readAllBytes(file.toPath());
+    int tokens = DeltaTraceFormat.HEADER_SIZE + DeltaTraceFormat.BLOCK_HEADER_SIZE;
+
+    // The tokens of the first block end long before its records, so the
+    // decoder runs past them, further than the zero bytes after them.
+    byte[] shorter = original.clone();
+    int tokenBytes = (shorter[20] & 0xff) | (shorter[21] & 0xff) << 8 | (shorter[22] & 0xff) << 16 | (shorter[23] & 0xff) << 24;
+    int cut = tokenBytes / 4;
+    shorter[20] = (byte) cut;
+    shorter[21] = (byte) (cut >>> 8);
+    shorter[22] = (byte) (cut >>> 16);
+    shorter[23] = (byte) (cut >>> 24);
+    Check.fails(UncheckedIOException.class, () -> readAll(save(shorter), false), "tokens that end too early");
+
+    // A varint that does not end.
+    byte[] endless = original.clone();
+    Arrays.fill(endless, tokens, tokens + 20, (byte) 0xff);
+    Check.fails(UncheckedIOException.class, () -> readAll(save(endless), false), "a varint of 20 bytes");
+
+    byte[] truncated = Arrays.copyOf(original, original.length - 3);
+    Check.fails(UncheckedIOException.class, () -> readAll(save(truncated), false), "truncated trace");
+  }
+
+  private static File save(byte[] bytes) {
+    try {
+      File file = File.createTempFile("deltatracetest", ".dtc");
+      file.deleteOnExit();
+      try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+        out.write(bytes);
+      }
+      return file;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Reads the whole trace, for Check.fails.
+  private static void readAll(File file, boolean wide) {
+    try (DeltaTraceReader reader = new DeltaTraceReader(file.getPath())) {
+      int[] narrowOut = new int[RequestBuffer.CHUNK];
+      long[] wideOut = new long[RequestBuffer.CHUNK];
+      byte[] operandsOut = new byte[RequestBuffer.CHUNK];
+      while ((wide ? reader.read(wideOut, operandsOut, 0, wideOut.length) : reader.read(narrowOut, operandsOut, 0, narrowOut.length)) > 0) {
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
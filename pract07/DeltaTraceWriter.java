@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a {@link DeltaTraceFormat} file. The tokens of a block are built in
+ * one array and written with their block header once the block is full; the
+ * record count in the file header is filled in by {@link #close()}.
+ */
+class DeltaTraceWriter implements TraceRecorder {
+
+  private final FileChannel channel;
+  private final int addressBits;
+  private final byte[] tokens = new byte[DeltaTraceFormat.MAX_BLOCK_BYTES];
+  private final ByteBuffer blockHeader = ByteBuffer.allocate(DeltaTraceFormat.BLOCK_HEADER_SIZE).order(DeltaTraceFormat.ORDER);
+  private int at;
+  private int blockRecords;
+  private int run;
+  private long records;
+
+  // Predictor, as in the decoder.
+  private final long[] last = new long[DeltaTraceFormat.STREAMS];
+  private final long[] stride = new long[DeltaTraceFormat.STREAMS];
+  private final int[] next = new int[DeltaTraceFormat.STREAMS];
+  private int previous;
+
+  /**
+   * @param addressBits 32 or 64.
+   */
+  DeltaTraceWriter(String file, int addressBits) throws IOException {
+    if (addressBits != 32 && addressBits != 64) {
+      throw new IllegalArgumentException("Unsupported address width " + addressBits);
+    }
+    this.addressBits = addressBits;
+    channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    channel.position(DeltaTraceFormat.HEADER_SIZE);
+  }
+
+  public void write(int[] addresses, byte[] operands, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      put(addresses[i] & 0xffffffffL, operands[i]);
+    }
+  }
+
+  public void write(long[] addresses, byte[] operands, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      if (addressBits == 32 && addresses[i] >>> 32 != 0) {
+        throw new IOException("Address " + addresses[i] + " does not fit in a 32 bit trace");
+      }
+      put(addresses[i], operands[i]);
+    }
+  }
+
+  private void put(long address, byte operand) throws IOException {
+    int stream = operand & 0xff;
+    if (stream == next[previous] && address == last[stream] + stride[stream]) {
+      run++;
+    }
+    else {
+      endRun();
+      long delta = address - last[stream];
+      varint(stream << 1);
+      varint(DeltaTraceFormat.zigzag(delta));
+      stride[stream] = delta;
+      next[previous] = stream;
+    }
+    last[stream] = address;
+    previous = stream;
+    records++;
+    if (++blockRecords == DeltaTraceFormat.BLOCK_RECORDS) {
+      flush();
+    }
+  }
+
+  private void endRun() {
+    if (run > 0) {
+      varint((long) run << 1 | 1);
+      run = 0;
+    }
+  }
+
+  private void varint(long value) {
+    while ((value & ~0x7fL) != 0) {
+      tokens[at++] = (byte) (value | 0x80);
+      value >>>= 7;
+    }
+    tokens[at++] = (byte) value;
+  }
+
+  // Writes the current block and starts the next one from a clean state.
+  private void flush() throws IOException {
+    endRun();
+    if (blockRecords == 0) {
+      return;
+    }
+    blockHeader.clear();
+    blockHeader.putInt(blockRecords);
+    blockHeader.putInt(at);
+    blockHeader.flip();
+    ByteBuffer body = ByteBuffer.wrap(tokens, 0, at);
+    while (blockHeader.hasRemaining()) {
+      channel.write(blockHeader);
+    }
+    while (body.hasRemaining()) {
+      channel.write(body);
+    }
+    at = 0;
+    blockRecords = 0;
+    Arrays.fill(last, 0);
+    Arrays.fill(stride, 0);
+    Arrays.fill(next, 0);
+    previous = 0;
+  }
+
+  public void close() throws IOException {
+    flush();
+    ByteBuffer header = ByteBuffer.allocate(DeltaTraceFormat.HEADER_SIZE);
+    DeltaTraceFormat.writeHeader(header, addressBits, records);
+    header.flip();
+    channel.write(header, 0);
+    channel.close();
+  }
+}
@@ -1,7 +1,49 @@
+import java.nio.ByteBuffer;
+
 class DirectMappedCache implements Cache {
+
+  private static final int VALID = 1;
+  private static final int DIRTY = 2;
+  private static final int WORD = 4;
+
+  private final int blocks;
+  private final int size;
+  private final int offsetBits;
+  private final int indexMask;
+  private final int tagShift;
+
+  // Tag met valid-bit in bit 0 en dirty-bit in bit 1 per blok; 0 is een leeg
+  // blok. Het hoge woord wordt enkel bewaard als de tags er niet in passen.
+  private final int[] lines;
+  private final int[] linesHi;
+  private long evicted;
+  private boolean hasEvicted;
+  private boolean evictedDirty;
+
+  private boolean writeBack = true;
+  private boolean writeAllocate = true;
+  private long writebacks;
+  private long writeThroughs;
 	
   DirectMappedCache(int blocks, int size) {
+    this(blocks, size, 32);
+  }
+
+  DirectMappedCache(int blocks, int size, int addressBits) {
     // Ga na hoeveel bits er worden gebruikt voor de tag, index en offset. 
+    if (Integer.bitCount(blocks) != 1 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("blocks and size must be powers of 2");
+    }
+    this.blocks = blocks;
+    this.size = size;
+    this.offsetBits = Integer.numberOfTrailingZeros(size);
+    this.indexMask = blocks - 1;
+    this.tagShift = offsetBits + Integer.numberOfTrailingZeros(blocks);
+    if (addressBits > 64 || tagShift >= addressBits) {
+      throw new IllegalArgumentException("blocks * size must fit in a " + addressBits + " bit address");
+    }
+    this.lines = new int[blocks];
+    this.linesHi = addressBits - tagShift + 2 > 32 ? new int[blocks] : null;
   }
 
   /**
@@ -10,9 +52,199 @@ class DirectMappedCache implements Cache {
    */
   public boolean request(int address) {
     // Geef true terug bij een hit en false bij een misser.
+    if (address == -1) {
+      dump();
+      return false;
+    }
+    return lookup(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return lookup(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    return lookup(address, write);
+  }
+
+  public int requestBatch(int[] addresses, int from, int to, long[] hitBitmap) {
+    return requestBatch(addresses, null, from, to, hitBitmap);
+  }
+
+  public int requestBatch(int[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i] & 0xffffffffL, writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  public int requestBatch(long[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i], writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  /**
+   * Kiest write-back of write-through, en of een schrijfmisser het blok laadt.
+   */
+  void setWritePolicy(boolean writeBack, boolean writeAllocate) {
+    this.writeBack = writeBack;
+    this.writeAllocate = writeAllocate;
+  }
+
+  public long writebackBytes() {
+    return writebacks * size + writeThroughs * WORD;
+  }
+
+  private boolean lookup(long address, boolean write) {
+    int index = (int) (address >>> offsetBits) & indexMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    if (matches(index, line)) {
+      hasEvicted = false;
+      if (write) {
+        write(index);
+      }
+      return true;
+    }
+    if (write && !writeAllocate) {
+      writeThroughs++;
+      hasEvicted = false;
+      return false;
+    }
+    install(index, line);
+    if (write) {
+      write(index);
+    }
+    return false;
+  }
+
+  // Vervangt het blok op index door line.
+  private void install(int index, long line) {
+    long old = line(index);
+    hasEvicted = old != 0;
+    evicted = ((old >>> 2) << tagShift) | ((long) index << offsetBits);
+    evictedDirty = (old & DIRTY) != 0;
+    if (evictedDirty) {
+      writebacks++;
+    }
+    lines[index] = (int) line;
+    if (linesHi != null) {
+      linesHi[index] = (int) (line >>> 32);
+    }
+  }
+
+  public boolean probe(long address) {
+    return matches((int) (address >>> offsetBits) & indexMask, ((address >>> tagShift) << 2) | VALID);
+  }
+
+  /**
+   * Een vuil blok in een write-through cache gaat meteen naar het geheugen.
+   */
+  public void fill(long address, boolean dirty) {
+    int index = (int) (address >>> offsetBits) & indexMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    if (matches(index, line)) {
+      hasEvicted = false;
+    }
+    else {
+      install(index, line);
+    }
+    if (dirty) {
+      if (writeBack) {
+        lines[index] |= DIRTY;
+      }
+      else {
+        writebacks++;
+      }
+    }
+  }
+
+  private boolean matches(int index, long line) {
+    return (lines[index] & ~DIRTY) == (int) line && (linesHi == null || linesHi[index] == (int) (line >>> 32));
+  }
+
+  private long line(int index) {
+    long low = lines[index] & 0xffffffffL;
+    return linesHi == null ? low : ((long) linesHi[index] << 32) | low;
+  }
+
+  private void write(int index) {
+    if (writeBack) {
+      lines[index] |= DIRTY;
+    }
+    else {
+      writeThroughs++;
+    }
+  }
+
+  public boolean hasEvicted() {
+    return hasEvicted;
+  }
+
+  public long evicted() {
+    return evicted;
+  }
+
+  public boolean evictedDirty() {
+    return evictedDirty;
+  }
+
+  public boolean invalidate(long address) {
+    int index = (int) (address >>> offsetBits) & indexMask;
+    if (!matches(index, ((address >>> tagShift) << 2) | VALID)) {
+      return false;
+    }
+    if ((lines[index] & DIRTY) != 0) {
+      writebacks++;
+    }
+    lines[index] = 0;
+    if (linesHi != null) {
+      linesHi[index] = 0;
+    }
     return true;
   }
 
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 3) + 4 * lines.length * (linesHi == null ? 1 : 2);
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, blocks, size, linesHi == null ? 0 : 1);
+    CacheSnapshot.putInts(out, lines);
+    if (linesHi != null) {
+      CacheSnapshot.putInts(out, linesHi);
+    }
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, blocks, size, linesHi == null ? 0 : 1);
+    CacheSnapshot.getInts(in, lines);
+    if (linesHi != null) {
+      CacheSnapshot.getInts(in, linesHi);
+    }
+    hasEvicted = false;
+  }
+
   public void dump() {
+    for (int i = 0; i < blocks; i++) {
+      System.out.println("Block " + i + ": " + ((lines[i] & VALID) != 0) + " " + (line(i) >>> 2));
+    }
   }
 }
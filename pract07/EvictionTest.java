@@ -0,0 +1,103 @@
+/**
+ * Checks that every cache model reports the block it replaces through
+ * hasEvicted() and evicted(), including the block at address -1 and blocks
+ * above 4 GB, that a hierarchy reports every block its last level loses,
+ * and that invalidate() removes a block.
+ */
+class EvictionTest {
+
+  public static void main(String[] args) {
+    // One line of one byte: every new address replaces the previous one.
+    highestBlock(new DirectMappedCache(1, 1));
+    highestBlock(new NWayAssociativeCache(1, 1, 1));
+    highestBlock(new FullyAssociativeCache(1, 1));
+    highestBlock(new VWayCache(1, 1, 1, 1));
+    highestBlock(new CacheHierarchy(new Cache[] { new DirectMappedCache(1, 1) }, CacheHierarchy.Inclusion.NINE));
+
+    wideBlock(new DirectMappedCache(1, 16, 64));
+    wideBlock(new NWayAssociativeCache(1, 16, 1, new LruPolicy(1, 1), 64));
+    wideBlock(new VWayCache(1, 16, 1, 1, 64));
+    for (CacheHierarchy.Inclusion inclusion : CacheHierarchy.Inclusion.values()) {
+      hierarchy(inclusion);
+      // Exclusive levels hold both blocks, so one level only.
+      Cache l2 = inclusion == CacheHierarchy.Inclusion.EXCLUSIVE ? null : new VWayCache(1, 16, 1, 1, 64);
+      Cache l1 = new DirectMappedCache(1, 16, 64);
+      wideBlock(new CacheHierarchy(l2 == null ? new Cache[] { l1 } : new Cache[] { l1, l2 }, inclusion));
+    }
+
+    spill();
+
+    invalidate(new DirectMappedCache(4, 16));
+    invalidate(new NWayAssociativeCache(2, 16, 2));
+    invalidate(new FullyAssociativeCache(4, 16));
+    invalidate(new VWayCache(2, 16, 2, 2));
+    invalidate(new VictimCache(new DirectMappedCache(4, 16), 16, 2));
+    invalidate(new MissClassifier(new DirectMappedCache(4, 16), 4, 16));
+  }
+
+  private static void highestBlock(Cache cache) {
+    String name = cache.getClass().getSimpleName();
+    Check.that(!cache.request(-1, false), name + ": first access to -1 misses");
+    Check.that(!cache.hasEvicted(), name + ": nothing replaced in an empty cache");
+    Check.that(cache.request(-1, false), name + ": second access to -1 hits");
+    Check.that(!cache.hasEvicted(), name + ": nothing replaced on a hit");
+    Check.that(!cache.request(0, false), name + ": access to 0 misses");
+    Check.that(cache.hasEvicted(), name + ": block -1 replaced");
+    Check.equal(0xffffffffL, cache.evicted(), name + ": replaced block");
+  }
+
+  // Addresses that differ only above bit 32 are different blocks.
+  private static void wideBlock(Cache cache) {
+    String name = cache.getClass().getSimpleName();
+    long low = 0x1234567890L;
+    long high = low + (1L << 40);
+    Check.that(!cache.request(low, false), name + ": first access misses");
+    Check.that(cache.request(low, false), name + ": second access hits");
+    Check.that(!cache.request(high, false), name + ": block 2^40 higher misses");
+    Check.that(cache.hasEvicted(), name + ": first block replaced");
+    Check.equal(low, cache.evicted(), name + ": replaced wide block");
+    Check.that(cache.invalidate(high), name + ": invalidating a wide block");
+    Check.that(!cache.request(high, false), name + ": invalidated wide block misses");
+  }
+
+  // A hit in L1 must not report what the last level replaced earlier.
+  private static void hierarchy(CacheHierarchy.Inclusion inclusion) {
+    CacheHierarchy cache = new CacheHierarchy(new Cache[] { new DirectMappedCache(1, 16), new DirectMappedCache(2, 16) }, inclusion);
+    cache.request(0, false);
+    cache.request(64, false);
+    cache.request(128, false);
+    Check.that(cache.request(128, false), inclusion + ": repeated access hits in L1");
+    Check.that(!cache.hasEvicted(), inclusion + ": an L1 hit replaces nothing");
+  }
+
+  // A dirty L1 victim that goes down into a full L2 replaces a second block
+  // there, after the block the request itself replaced.
+  private static void spill() {
+    long a = 0;
+    long b = 32;
+    long x = 16;
+    long y = 48;
+    CacheHierarchy hierarchy = new CacheHierarchy(new Cache[] { new DirectMappedCache(2, 16), new NWayAssociativeCache(1, 16, 2) }, CacheHierarchy.Inclusion.NINE);
+    VictimCache cache = new VictimCache(new MissClassifier(hierarchy, 4, 16), 16, 4);
+    cache.request(a, true);
+    cache.request(x, false);
+    // L2 drops a, which stays dirty in L1.
+    cache.request(y, false);
+    cache.request(b, false);
+    Check.equal(2, hierarchy.evictions(), "spill: blocks that left L2");
+    Check.equal(x, hierarchy.evicted(0), "spill: replaced by the request");
+    Check.equal(y, hierarchy.evicted(1), "spill: replaced by the dirty a");
+    Check.that(!hierarchy.evictedDirty(1), "spill: y was clean");
+    Check.that(cache.probe(x) && cache.probe(y), "spill: the victim cache holds both");
+  }
+
+  private static void invalidate(Cache cache) {
+    String name = cache.getClass().getSimpleName();
+    cache.request(32, false);
+    cache.request(64, false);
+    Check.that(cache.invalidate(40), name + ": invalidating a cached block");
+    Check.that(!cache.invalidate(40), name + ": invalidating it again");
+    Check.that(!cache.request(32, false), name + ": invalidated block misses");
+    Check.that(cache.request(64, false), name + ": other block still hits");
+  }
+}
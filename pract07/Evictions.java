@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/**
+ * De blokken die een cache bij zijn laatste aanvraag verliet, in volgorde,
+ * met per blok of het vuil was. Een enkele cache verliest er hoogstens een;
+ * een hierarchie, een victim cache of een prefetcher kan er meer verliezen.
+ */
+final class Evictions {
+
+  private long[] addresses = new long[4];
+  private boolean[] dirty = new boolean[4];
+  private int count;
+
+  void clear() {
+    count = 0;
+  }
+
+  void add(long address, boolean blockDirty) {
+    if (count == addresses.length) {
+      addresses = Arrays.copyOf(addresses, 2 * count);
+      dirty = Arrays.copyOf(dirty, 2 * count);
+    }
+    addresses[count] = address;
+    dirty[count] = blockDirty;
+    count++;
+  }
+
+  /**
+   * Voegt de blokken toe die de cache bij zijn laatste aanvraag verliet.
+   */
+  void addAll(Cache cache) {
+    for (int i = 0, n = cache.evictions(); i < n; i++) {
+      add(cache.evicted(i), cache.evictedDirty(i));
+    }
+  }
+
+  int count() {
+    return count;
+  }
+
+  long address(int i) {
+    return addresses[i];
+  }
+
+  boolean dirty(int i) {
+    return dirty[i];
+  }
+}
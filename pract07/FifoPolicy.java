@@ -0,0 +1,44 @@
+import java.nio.ByteBuffer;
+
+/**
+ * FIFO: de ways van een set worden in volgorde van laden vervangen. Een hit
+ * verandert niets.
+ */
+class FifoPolicy implements ReplacementPolicy {
+
+  private final int ways;
+  // Volgende te vervangen way per set.
+  private final int[] oldest;
+
+  FifoPolicy(int sets, int ways) {
+    this.ways = ways;
+    this.oldest = new int[sets];
+  }
+
+  public void hit(int set, int way) {
+  }
+
+  public int victim(int set) {
+    return oldest[set];
+  }
+
+  public void fill(int set, int way) {
+    if (way == oldest[set]) {
+      oldest[set] = way + 1 == ways ? 0 : way + 1;
+    }
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + 4 * oldest.length;
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, oldest.length, ways);
+    CacheSnapshot.putInts(out, oldest);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, oldest.length, ways);
+    CacheSnapshot.getInts(in, oldest);
+  }
+}
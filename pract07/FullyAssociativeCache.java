@@ -1,16 +1,20 @@
-public class FullyAssociativeCache implements Cache {
+/**
+ * Volledig associatieve cache: een N-weg set-associatieve cache met een enkele
+ * set waarin elk blok op elke plaats terecht kan. De aanvragen in batch lopen
+ * door de lus van {@link NWayAssociativeCache}, zonder virtuele oproep per
+ * aanvraag.
+ */
+public class FullyAssociativeCache extends NWayAssociativeCache {
 
   public FullyAssociativeCache(int blocks, int linesize) {
+    super(1, linesize, blocks);
   }
 
-  /**
-   * @param address het adres van de aanvraag.
-   * @return true bij een cachehit, false bij een cachemis.
-   */
-  public boolean request(int address) {
-    return true;
+  public FullyAssociativeCache(int blocks, int linesize, ReplacementPolicy policy) {
+    super(1, linesize, blocks, policy);
   }
 
-  public void dump() {
+  public FullyAssociativeCache(int blocks, int linesize, ReplacementPolicy policy, int addressBits) {
+    super(1, linesize, blocks, policy, addressBits);
   }
 }
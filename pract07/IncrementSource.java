@@ -0,0 +1,29 @@
+/**
+ * Matrix increment access pattern (patroon3): A[j][i] is read and written.
+ */
+class IncrementSource extends MatrixSource {
+
+  private int i;
+  private int j;
+
+  IncrementSource(MemoryLayout layout) {
+    super(layout, 2);
+  }
+
+  protected void emit(int step, int at) {
+    if (step == 0) {
+      put(at, A, j, i);
+    }
+    else {
+      putWrite(at, A, j, i);
+    }
+  }
+
+  protected boolean advance() {
+    if (++j == size) {
+      j = 0;
+      return ++i < size;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,391 @@
+import java.util.Arrays;
+
+/**
+ * Estimates the hit rate of a long access stream by simulating only some
+ * intervals of it in detail, as in SMARTS. Every measured interval of
+ * <code>interval</code> accesses is preceded by <code>warmup</code> accesses
+ * that go through the cache uncounted, so the state it reaches is close to
+ * that of a full run. The accesses between two warm-ups either go to the
+ * functional cache, the cache or hierarchy without the layers on top
+ * (<code>WARM</code>), or are skipped altogether (<code>SKIP</code>). Warming
+ * keeps the cache exact but costs nearly as much as simulating, since the
+ * cache model is the functional model here; skipping only pays for reading
+ * the accesses, or nothing for a trace, which jumps ahead.
+ *
+ * Intervals are chosen in one of two ways:
+ * <ul>
+ * <li>periodically: the last interval of every <code>period</code>
+ * accesses. The hit rate is the mean of the hit rates of the samples, with a
+ * 95% confidence interval from their variance (normal approximation, so it
+ * needs some 30 samples or more). A stream that repeats in step with the
+ * period is biased beyond that interval;</li>
+ * <li>by {@link #choose}, in a first pass over the stream that splits it
+ * into intervals and clusters their signatures with k-means, as SimPoint
+ * does with basic block vectors. One interval per cluster, the one closest
+ * to its centre, stands for the cluster, weighted by the accesses in the
+ * cluster. This needs far fewer samples for a stream with phases, but the
+ * error has no statistical bound.</li>
+ * </ul>
+ * An address trace has no basic blocks; the signature of an interval is a
+ * histogram of its accesses by operand and distance in blocks to the previous
+ * access of that operand, followed by a histogram of the 64 KB regions it
+ * touches, both hashed into {@link #DIMENSIONS} / 2 buckets.
+ */
+class IntervalSampler {
+
+  enum Mode { WARM, SKIP }
+
+  static final int DIMENSIONS = 64;
+
+  // Quantile of the normal distribution for a 95% confidence interval.
+  private static final double Z = 1.96;
+  private static final int REGION_BITS = 16;
+  private static final int ITERATIONS = 50;
+
+  private final Cache cache;
+  private final Cache functional;
+  private final Mode mode;
+  private final int interval;
+  private final int warmup;
+  private final long period;
+  private final int offsetBits;
+  private final boolean wide;
+
+  private final int[] addresses = new int[RequestBuffer.CHUNK];
+  private final long[] wideAddresses;
+  private final byte[] operands = new byte[RequestBuffer.CHUNK];
+  private final boolean[] writes = new boolean[RequestBuffer.CHUNK];
+  private long hits;
+
+  // Intervals chosen by choose(), in stream order, with their weights; null
+  // for periodic sampling.
+  private long[] chosen;
+  private double[] weights;
+  private long profiled;
+
+  // Sums over the samples of the hit rate, its square and the write traffic
+  // per access, or their weighted sums for chosen intervals.
+  private double hitRates;
+  private double squares;
+  private double traffic;
+
+  long requests;
+  long sampledRequests;
+  int samples;
+
+  /**
+   * @param cache the cache that measures, with all its layers.
+   * @param functional the cache or hierarchy at the bottom of it, warmed
+   *        between the samples in mode WARM.
+   * @param mode what happens to the accesses between the samples.
+   * @param period accesses from the start of one sample to the next.
+   * @param interval accesses in a sample.
+   * @param warmup accesses simulated uncounted before every sample.
+   * @param linesize line size of the cache, for the signatures.
+   * @param wide whether the addresses are 64 bit.
+   */
+  IntervalSampler(Cache cache, Cache functional, Mode mode, long period, int interval, int warmup, int linesize, boolean wide) {
+    if (interval < 1 || warmup < 0 || period < (long) interval + warmup) {
+      throw new IllegalArgumentException("interval must be positive and the period at least the interval plus the warm-up");
+    }
+    this.cache = cache;
+    this.functional = functional;
+    this.mode = mode;
+    this.period = period;
+    this.interval = interval;
+    this.warmup = warmup;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.wide = wide;
+    this.wideAddresses = wide ? new long[RequestBuffer.CHUNK] : null;
+  }
+
+  /**
+   * Splits the source into intervals, clusters their signatures in
+   * <code>clusters</code> clusters and has {@link #run} measure one
+   * interval per cluster instead of sampling periodically. The source is
+   * read to the end; run needs a fresh one.
+   */
+  void choose(AddressSource source, int clusters) {
+    if (clusters < 1) {
+      throw new IllegalArgumentException("clusters must be positive");
+    }
+    float[] signatures = new float[DIMENSIONS * 64];
+    int[] lengths = new int[64];
+    int count = 0;
+    double[] current = new double[DIMENSIONS];
+    long[] last = new long[AddressSource.OPERAND + 1];
+    int length = 0;
+    int n;
+    profiled = 0;
+    while ((n = read(source, RequestBuffer.CHUNK)) > 0) {
+      for (int i = 0; i < n; i++) {
+        long address = wide ? wideAddresses[i] : addresses[i] & 0xffffffffL;
+        int operand = operands[i] & AddressSource.OPERAND;
+        long block = address >>> offsetBits;
+        long distance = Math.abs(block - last[operand]);
+        last[operand] = block;
+        int kind = distance == 0 ? 0 : 65 - Long.numberOfLeadingZeros(distance);
+        current[bucket(operand << 7 | kind)]++;
+        current[DIMENSIONS / 2 + bucket(address >>> REGION_BITS)]++;
+        if (++length == interval) {
+          count = signature(current, length, signatures, lengths, count);
+          length = 0;
+          if (count == lengths.length) {
+            lengths = Arrays.copyOf(lengths, count * 2);
+            signatures = Arrays.copyOf(signatures, count * 2 * DIMENSIONS);
+          }
+        }
+      }
+      profiled += n;
+    }
+    if (length > 0) {
+      count = signature(current, length, signatures, lengths, count);
+    }
+
+    int k = Math.min(clusters, count);
+    int[] assignment = kMeans(signatures, count, k);
+
+    // The full interval closest to the centre of each cluster represents it;
+    // a cluster of only the short last interval has nothing to measure.
+    float[] centres = centres(signatures, count, assignment, k);
+    int[] best = new int[k];
+    double[] distance = new double[k];
+    long[] accesses = new long[k];
+    Arrays.fill(best, -1);
+    for (int i = 0; i < count; i++) {
+      int c = assignment[i];
+      double d = distance(signatures, i, centres, c);
+      if (lengths[i] == interval && (best[c] < 0 || d < distance[c])) {
+        best[c] = i;
+        distance[c] = d;
+      }
+      accesses[c] += lengths[i];
+    }
+    // Sorted by interval, so run() meets them in stream order.
+    long[] order = new long[k];
+    int used = 0;
+    for (int c = 0; c < k; c++) {
+      if (best[c] >= 0) {
+        order[used++] = (long) best[c] << 32 | c;
+      }
+    }
+    Arrays.sort(order, 0, used);
+    chosen = new long[used];
+    weights = new double[used];
+    long weighted = 0;
+    for (int j = 0; j < used; j++) {
+      weighted += accesses[(int) order[j]];
+    }
+    for (int j = 0; j < used; j++) {
+      chosen[j] = order[j] >>> 32;
+      weights[j] = (double) accesses[(int) order[j]] / weighted;
+    }
+  }
+
+  private static int bucket(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(DIMENSIONS / 2)));
+  }
+
+  // Stores the normalised histograms of an interval and clears them.
+  private static int signature(double[] current, int length, float[] signatures, int[] lengths, int count) {
+    for (int d = 0; d < DIMENSIONS; d++) {
+      signatures[count * DIMENSIONS + d] = (float) (current[d] / length);
+    }
+    Arrays.fill(current, 0);
+    lengths[count] = length;
+    return count + 1;
+  }
+
+  // Clusters the signatures with k-means after a k-means++ start with a
+  // fixed seed, so the choice is the same in every run.
+  private static int[] kMeans(float[] signatures, int count, int k) {
+    float[] centres = new float[k * DIMENSIONS];
+    double[] nearest = new double[count];
+    Arrays.fill(nearest, Double.MAX_VALUE);
+    long state = 0x9E3779B97F4A7C15L;
+    int pick = 0;
+    for (int c = 0; c < k; c++) {
+      System.arraycopy(signatures, pick * DIMENSIONS, centres, c * DIMENSIONS, DIMENSIONS);
+      double total = 0;
+      for (int i = 0; i < count; i++) {
+        nearest[i] = Math.min(nearest[i], distance(signatures, i, centres, c));
+        total += nearest[i];
+      }
+      // The next centre is an interval picked with probability proportional
+      // to its squared distance to the nearest centre so far.
+      state ^= state << 13;
+      state ^= state >>> 7;
+      state ^= state << 17;
+      double target = (state >>> 11) * 0x1.0p-53 * total;
+      pick = count - 1;
+      for (int i = 0; i < count; i++) {
+        target -= nearest[i];
+        if (target < 0) {
+          pick = i;
+          break;
+        }
+      }
+    }
+
+    int[] assignment = new int[count];
+    Arrays.fill(assignment, -1);
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      boolean changed = false;
+      for (int i = 0; i < count; i++) {
+        int closest = 0;
+        double min = Double.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+          double d = distance(signatures, i, centres, c);
+          if (d < min) {
+            min = d;
+            closest = c;
+          }
+        }
+        changed |= assignment[i] != closest;
+        assignment[i] = closest;
+      }
+      if (!changed) {
+        break;
+      }
+      centres = centres(signatures, count, assignment, k);
+    }
+    return assignment;
+  }
+
+  // The mean signature of every cluster; an empty cluster stays at zero.
+  private static float[] centres(float[] signatures, int count, int[] assignment, int k) {
+    double[] sums = new double[k * DIMENSIONS];
+    int[] sizes = new int[k];
+    for (int i = 0; i < count; i++) {
+      int c = assignment[i];
+      sizes[c]++;
+      for (int d = 0; d < DIMENSIONS; d++) {
+        sums[c * DIMENSIONS + d] += signatures[i * DIMENSIONS + d];
+      }
+    }
+    float[] centres = new float[k * DIMENSIONS];
+    for (int c = 0; c < k; c++) {
+      for (int d = 0; d < DIMENSIONS && sizes[c] > 0; d++) {
+        centres[c * DIMENSIONS + d] = (float) (sums[c * DIMENSIONS + d] / sizes[c]);
+      }
+    }
+    return centres;
+  }
+
+  private static double distance(float[] signatures, int i, float[] centres, int c) {
+    double sum = 0;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double diff = signatures[i * DIMENSIONS + d] - centres[c * DIMENSIONS + d];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  /**
+   * Samples the source: periodically, or the intervals picked by
+   * {@link #choose} on the same stream.
+   */
+  void run(AddressSource source) {
+    long position = 0;
+    for (int sample = 0; ; sample++) {
+      long start;
+      if (chosen == null) {
+        start = sample * period + period - interval;
+      }
+      else if (sample < chosen.length) {
+        start = chosen[sample] * interval;
+      }
+      else {
+        // Nothing left to measure; choose() counted the rest.
+        requests = profiled;
+        return;
+      }
+
+      long from = Math.max(position, start - warmup);
+      long gap = from - position;
+      long done = mode == Mode.SKIP ? source.skip(gap) : simulate(functional, source, gap);
+      position += done;
+      if (done < gap) {
+        break;
+      }
+      done = simulate(cache, source, start - position);
+      position += done;
+      if (position < start) {
+        break;
+      }
+
+      long bytes = cache.writebackBytes();
+      done = simulate(cache, source, interval);
+      position += done;
+      if (done < interval) {
+        // A sample cut short by the end of the stream does not count.
+        break;
+      }
+      double hitRate = (double) hits / interval;
+      double written = (double) (cache.writebackBytes() - bytes) / interval;
+      double weight = chosen == null ? 1 : weights[sample];
+      hitRates += weight * hitRate;
+      squares += weight * hitRate * hitRate;
+      traffic += weight * written;
+      sampledRequests += interval;
+      samples++;
+    }
+    requests = chosen == null ? position : profiled;
+  }
+
+  // Simulates up to count accesses of the source on the target.
+  private long simulate(Cache target, AddressSource source, long count) {
+    long done = 0;
+    hits = 0;
+    int n;
+    while (done < count && (n = read(source, (int) Math.min(count - done, RequestBuffer.CHUNK))) > 0) {
+      for (int i = 0; i < n; i++) {
+        writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+      }
+      hits += wide ? target.requestBatch(wideAddresses, writes, 0, n, null) : target.requestBatch(addresses, writes, 0, n, null);
+      done += n;
+    }
+    return done;
+  }
+
+  private int read(AddressSource source, int len) {
+    return wide ? source.fill(wideAddresses, operands, 0, len) : source.fill(addresses, operands, 0, len);
+  }
+
+  /**
+   * @return the estimated hit rate of the whole stream.
+   */
+  double hitRate() {
+    return chosen == null ? hitRates / samples : hitRates;
+  }
+
+  /**
+   * @return half the width of the 95% confidence interval of the hit rate,
+   *         or NaN for chosen intervals or fewer than two samples.
+   */
+  double confidence() {
+    if (chosen != null || samples < 2) {
+      return Double.NaN;
+    }
+    double mean = hitRates / samples;
+    double variance = Math.max(0, (squares - samples * mean * mean) / (samples - 1));
+    // The samples are drawn without replacement from the intervals.
+    double population = (double) requests / interval;
+    double correction = Math.max(0, 1 - samples / population);
+    return Z * Math.sqrt(variance / samples * correction);
+  }
+
+  /**
+   * @return the estimated hits of the whole stream.
+   */
+  long hits() {
+    return Math.round(hitRate() * requests);
+  }
+
+  /**
+   * @return the estimated write traffic of the whole stream in bytes.
+   */
+  long writebackBytes() {
+    return Math.round((chosen == null ? traffic / samples : traffic) * requests);
+  }
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative long keys (line numbers) to int
+ * values, with linear probing over primitive arrays. The table doubles when it
+ * is half full.
+ */
+class LongIntMap {
+
+  private static final long EMPTY = -1L;
+
+  private long[] keys;
+  private int[] values;
+  private int mask;
+  private int size;
+
+  LongIntMap(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) * 2;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the value for <code>key</code>, or <code>missing</code>.
+   */
+  int get(long key, int missing) {
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) {
+        return values[i];
+      }
+      if (k == EMPTY) {
+        return missing;
+      }
+    }
+  }
+
+  void put(long key, int value) {
+    int i = hash(key) & mask;
+    while (keys[i] != EMPTY && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    values[i] = value;
+    if (keys[i] == EMPTY) {
+      keys[i] = key;
+      if (++size * 2 > keys.length) {
+        rehash();
+      }
+    }
+  }
+
+  /**
+   * Puts <code>value</code> for <code>key</code>.
+   *
+   * @return the previous value, or <code>missing</code>.
+   */
+  int replace(long key, int value, int missing) {
+    int i = hash(key) & mask;
+    while (keys[i] != EMPTY && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    if (keys[i] == key) {
+      int previous = values[i];
+      values[i] = value;
+      return previous;
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size * 2 > keys.length) {
+      rehash();
+    }
+    return missing;
+  }
+
+  /**
+   * Removes <code>key</code> if present, shifting later entries of its probe
+   * sequence back so lookups never need tombstones.
+   */
+  void remove(long key) {
+    int i = hash(key) & mask;
+    while (keys[i] != key) {
+      if (keys[i] == EMPTY) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    size--;
+    for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+      int home = hash(keys[j]) & mask;
+      // Move keys[j] into the hole at i unless its home lies cyclically in (i, j].
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        keys[i] = keys[j];
+        values[i] = values[j];
+        i = j;
+      }
+    }
+    keys[i] = EMPTY;
+  }
+
+  /**
+   * Replaces every value v by <code>mapping[v]</code>.
+   */
+  void remapValues(int[] mapping) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        values[i] = mapping[values[i]];
+      }
+    }
+  }
+
+  /**
+   * Copies all values to <code>out</code>, which must hold size() entries.
+   */
+  void values(int[] out) {
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        out[n++] = values[i];
+      }
+    }
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(keys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int j = hash(oldKeys[i]) & mask;
+        while (keys[j] != EMPTY) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+}
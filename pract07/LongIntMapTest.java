@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks LongIntMap against a HashMap under random inserts, updates and
+ * removals, including keys that share probe sequences and tables that grow.
+ */
+class LongIntMapTest {
+
+  public static void main(String[] args) {
+    emptyMap();
+    replaceReturnsPrevious();
+    randomOperations(new Random(1), 1 << 10, false);
+    randomOperations(new Random(2), 1 << 16, false);
+    // Multiples of a large power of two all land in few home slots.
+    randomOperations(new Random(3), 1 << 10, true);
+    removeEverything();
+    remapValues();
+  }
+
+  private static void emptyMap() {
+    LongIntMap map = new LongIntMap(0);
+    Check.equal(0, map.size(), "size of an empty map");
+    Check.equal(-1, map.get(0, -1), "get on an empty map");
+    map.remove(42);
+    Check.equal(0, map.size(), "size after removing an absent key");
+  }
+
+  private static void replaceReturnsPrevious() {
+    LongIntMap map = new LongIntMap(4);
+    Check.equal(-1, map.replace(7, 1, -1), "replace of an absent key");
+    Check.equal(1, map.replace(7, 2, -1), "replace of a present key");
+    Check.equal(2, map.get(7, -1), "value after replace");
+    Check.equal(1, map.size(), "size after two replaces of one key");
+  }
+
+  private static void randomOperations(Random random, int keyRange, boolean clustered) {
+    LongIntMap map = new LongIntMap(4);
+    Map<Long, Integer> model = new HashMap<>();
+    for (int op = 0; op < 200000; op++) {
+      long key = random.nextInt(keyRange);
+      if (clustered) {
+        key <<= 32;
+      }
+      int value = random.nextInt();
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          map.put(key, value);
+          model.put(key, value);
+          break;
+        case 2:
+          Integer previous = model.put(key, value);
+          Check.equal(previous == null ? -1 : previous, map.replace(key, value, -1), "replace " + key);
+          break;
+        default:
+          map.remove(key);
+          model.remove(key);
+          break;
+      }
+      if (op % 1000 == 0) {
+        compare(map, model, keyRange, clustered);
+      }
+    }
+    compare(map, model, keyRange, clustered);
+  }
+
+  private static void removeEverything() {
+    LongIntMap map = new LongIntMap(4);
+    for (long key = 0; key < 5000; key++) {
+      map.put(key * 31, (int) key);
+    }
+    for (long key = 4999; key >= 0; key -= 2) {
+      map.remove(key * 31);
+    }
+    for (long key = 0; key < 5000; key += 2) {
+      Check.equal(key, map.get(key * 31, -1), "surviving key " + key * 31);
+      map.remove(key * 31);
+    }
+    Check.equal(0, map.size(), "size after removing every key");
+    for (long key = 0; key < 5000; key++) {
+      Check.equal(-1, map.get(key * 31, -1), "removed key " + key * 31);
+    }
+  }
+
+  private static void remapValues() {
+    LongIntMap map = new LongIntMap(4);
+    for (int key = 0; key < 100; key++) {
+      map.put(key, 99 - key);
+    }
+    int[] mapping = new int[100];
+    for (int v = 0; v < 100; v++) {
+      mapping[v] = v * 3;
+    }
+    map.remapValues(mapping);
+    for (int key = 0; key < 100; key++) {
+      Check.equal((99 - key) * 3, map.get(key, -1), "remapped value of " + key);
+    }
+  }
+
+  private static void compare(LongIntMap map, Map<Long, Integer> model, int keyRange, boolean clustered) {
+    Check.equal(model.size(), map.size(), "size");
+    for (long key = 0; key < keyRange; key++) {
+      long k = clustered ? key << 32 : key;
+      Integer expected = model.get(k);
+      Check.equal(expected == null ? -1 : expected, map.get(k, -1), "get " + k);
+    }
+    int[] values = new int[map.size()];
+    map.values(values);
+    List<Integer> expected = new ArrayList<>(model.values());
+    int[] sorted = expected.stream().mapToInt(Integer::intValue).toArray();
+    Arrays.sort(sorted);
+    Arrays.sort(values);
+    Check.that(Arrays.equals(sorted, values), "values");
+  }
+}
@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Echte LRU: per set een dubbel gelinkte lijst van de ways, van meest naar
+ * minst recent gebruikt, in primitieve arrays. Elke operatie is O(1).
+ */
+class LruPolicy implements ReplacementPolicy {
+
+  private final int ways;
+  // Vorige en volgende way in de lijst, per lijn (set * ways + way).
+  private final int[] prev;
+  private final int[] next;
+  // Meest en minst recent gebruikte way per set.
+  private final int[] head;
+  private final int[] tail;
+
+  LruPolicy(int sets, int ways) {
+    this.ways = ways;
+    this.prev = new int[sets * ways];
+    this.next = new int[sets * ways];
+    this.head = new int[sets];
+    this.tail = new int[sets];
+    for (int set = 0; set < sets; set++) {
+      int first = set * ways;
+      for (int way = 0; way < ways; way++) {
+        prev[first + way] = way - 1;
+        next[first + way] = way + 1 < ways ? way + 1 : -1;
+      }
+      head[set] = 0;
+      tail[set] = ways - 1;
+    }
+  }
+
+  public void hit(int set, int way) {
+    moveToFront(set, way);
+  }
+
+  public int victim(int set) {
+    return tail[set];
+  }
+
+  public void fill(int set, int way) {
+    moveToFront(set, way);
+  }
+
+  private void moveToFront(int set, int way) {
+    if (head[set] == way) {
+      return;
+    }
+    int first = set * ways;
+    int p = prev[first + way];
+    int n = next[first + way];
+    // Haal de way uit de lijst; hij is niet de kop, dus p bestaat.
+    next[first + p] = n;
+    if (n >= 0) {
+      prev[first + n] = p;
+    }
+    else {
+      tail[set] = p;
+    }
+    // Zet hem vooraan.
+    prev[first + way] = -1;
+    next[first + way] = head[set];
+    prev[first + head[set]] = way;
+    head[set] = way;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + 4 * (prev.length + next.length + head.length + tail.length);
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, head.length, ways);
+    CacheSnapshot.putInts(out, prev);
+    CacheSnapshot.putInts(out, next);
+    CacheSnapshot.putInts(out, head);
+    CacheSnapshot.putInts(out, tail);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, head.length, ways);
+    CacheSnapshot.getInts(in, prev);
+    CacheSnapshot.getInts(in, next);
+    CacheSnapshot.getInts(in, head);
+    CacheSnapshot.getInts(in, tail);
+  }
+}
@@ -0,0 +1,151 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a {@link TraceFormat} file through memory mapped windows. Records are
+ * copied in bulk from the mapping into the caller's array, so reading does not
+ * allocate per record and is bound by the page cache or the disk.
+ */
+class MappedTraceReader implements Closeable {
+
+  // Size of one mapped window; a multiple of both record sizes.
+  private static final long WINDOW = 1L << 28;
+
+  private final FileChannel channel;
+  private final int recordSize;
+  private final long records;
+
+  private long position;      // index of the next record
+  private long windowStart;   // index of the first record in the window
+  private IntBuffer ints;
+  private LongBuffer longs;
+
+  MappedTraceReader(String file) throws IOException {
+    channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE);
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+    }
+    if (header.hasRemaining()) {
+      throw new IOException("Trace file too short: " + file);
+    }
+    header.flip();
+    recordSize = TraceFormat.readHeader(header) / 8;
+    long stored = header.getLong();
+    long available = (channel.size() - TraceFormat.HEADER_SIZE) / recordSize;
+    records = Math.min(stored, available);
+  }
+
+  long records() {
+    return records;
+  }
+
+  /**
+   * Reads up to <code>len</code> records in the 32 bit form of
+   * {@link TraceFormat}.
+   *
+   * @return the number of records read, 0 at the end of the trace.
+   */
+  int read(int[] buffer, int off, int len) throws IOException {
+    int done = 0;
+    while (done < len && position < records) {
+      if (position >= windowStart + windowRecords()) {
+        map();
+      }
+      int n = (int) Math.min(len - done, windowStart + windowRecords() - position);
+      if (recordSize == 4) {
+        ints.get(buffer, off + done, n);
+      }
+      else {
+        for (int i = off + done, end = i + n; i < end; i++) {
+          long record = longs.get();
+          long address = record & ~TraceFormat.WRITE_FLAG_64;
+          if (address > TraceFormat.ADDRESS_MASK) {
+            throw new IOException("Address " + address + " does not fit in 31 bits at record " + (position + i - off - done));
+          }
+          buffer[i] = TraceFormat.record((int) address, record < 0);
+        }
+      }
+      position += n;
+      done += n;
+    }
+    return done;
+  }
+
+  /**
+   * Reads up to <code>len</code> records in the 64 bit form of
+   * {@link TraceFormat}; records of a 32 bit trace are widened.
+   *
+   * @return the number of records read, 0 at the end of the trace.
+   */
+  int read(long[] buffer, int off, int len) throws IOException {
+    int done = 0;
+    while (done < len && position < records) {
+      if (position >= windowStart + windowRecords()) {
+        map();
+      }
+      int n = (int) Math.min(len - done, windowStart + windowRecords() - position);
+      if (recordSize == 8) {
+        longs.get(buffer, off + done, n);
+      }
+      else {
+        for (int i = off + done, end = i + n; i < end; i++) {
+          int record = ints.get();
+          buffer[i] = TraceFormat.record((long) TraceFormat.address(record), TraceFormat.isWrite(record));
+        }
+      }
+      position += n;
+      done += n;
+    }
+    return done;
+  }
+
+  /**
+   * Skips up to <code>n</code> records without reading them.
+   *
+   * @return the number of records skipped, less than <code>n</code> only at
+   *         the end of the trace.
+   */
+  long skip(long n) {
+    long skipped = Math.min(n, records - position);
+    position += skipped;
+    // Within the current window the buffer moves along; otherwise the next
+    // read maps a new window at the position.
+    if (position < windowStart + windowRecords()) {
+      if (ints != null) {
+        ints.position((int) (position - windowStart));
+      }
+      else {
+        longs.position((int) (position - windowStart));
+      }
+    }
+    return skipped;
+  }
+
+  private long windowRecords() {
+    return ints != null ? ints.limit() : longs != null ? longs.limit() : 0;
+  }
+
+  private void map() throws IOException {
+    windowStart = position;
+    long bytes = Math.min(WINDOW, (records - position) * recordSize);
+    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, TraceFormat.HEADER_SIZE + position * recordSize, bytes);
+    window.order(TraceFormat.ORDER);
+    if (recordSize == 4) {
+      ints = window.asIntBuffer();
+    }
+    else {
+      longs = window.asLongBuffer();
+    }
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Base class for the matrix kernels. A kernel is a loop nest whose innermost
+ * iteration performs a fixed number of accesses ("steps"); subclasses emit the
+ * access for each step and advance the loop indices. Matrices are stored row
+ * major as described by a {@link MemoryLayout}.
+ */
+abstract class MatrixSource implements AddressSource {
+
+  // Operand ids.
+  static final byte A = 0;
+  static final byte B = 1;
+  static final byte C = 2;
+
+  static final String[] NAMES = { "A", "B", "C" };
+
+  protected final int size;
+  private final MemoryLayout layout;
+  private final int steps;
+
+  private int step;
+  private boolean done;
+
+  // Destination of the current fill: exactly one of the address arrays is set.
+  private int[] narrow;
+  private long[] wide;
+  private byte[] operands;
+
+  MatrixSource(MemoryLayout layout, int steps) {
+    this.size = layout.size();
+    this.layout = layout;
+    this.steps = steps;
+    this.done = size == 0;
+  }
+
+  /**
+   * @throws IllegalStateException if the layout needs 64 bit addresses.
+   */
+  public final int fill(int[] addresses, byte[] operands, int off, int len) {
+    if (!layout.narrow()) {
+      throw new IllegalStateException("the memory layout needs 64 bit addresses");
+    }
+    narrow = addresses;
+    wide = null;
+    this.operands = operands;
+    return fill(off, len);
+  }
+
+  public final int fill(long[] addresses, byte[] operands, int off, int len) {
+    narrow = null;
+    wide = addresses;
+    this.operands = operands;
+    return fill(off, len);
+  }
+
+  private int fill(int off, int len) {
+    int at = off;
+    int end = off + len;
+    while (at < end && !done) {
+      emit(step, at++);
+      if (++step == steps) {
+        step = 0;
+        done = !advance();
+      }
+    }
+    return at - off;
+  }
+
+  /**
+   * Skips whole innermost iterations by only advancing the loop indices.
+   */
+  public long skip(long n) {
+    long skipped = 0;
+    while (skipped < n && !done) {
+      int rest = steps - step;
+      if (n - skipped < rest) {
+        step += (int) (n - skipped);
+        return n;
+      }
+      skipped += rest;
+      step = 0;
+      done = !advance();
+    }
+    return skipped;
+  }
+
+  /**
+   * Writes access <code>step</code> of the current innermost iteration to
+   * position <code>at</code> with {@link #put} or {@link #putWrite}.
+   */
+  protected abstract void emit(int step, int at);
+
+  /**
+   * Moves to the next innermost iteration.
+   *
+   * @return false when the loop nest is finished.
+   */
+  protected abstract boolean advance();
+
+  protected final void put(int at, byte operand, int i, int j) {
+    long address = layout.address(operand, i, j);
+    if (narrow != null) {
+      narrow[at] = (int) address;
+    }
+    else {
+      wide[at] = address;
+    }
+    operands[at] = operand;
+  }
+
+  protected final void putWrite(int at, byte operand, int i, int j) {
+    put(at, operand, i, j);
+    operands[at] |= WRITE;
+  }
+}
@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * Where the square matrices of a kernel live in memory. Per operand it holds
+ * a base address, an element size and a row stride in bytes, so an address
+ * is a multiply-add away:
+ *
+ * <pre>
+ * address(operand, i, j) = base + i * rowStride + j * elementSize
+ * </pre>
+ *
+ * Addresses are limited to 31 bits, or to 63 bits for a layout made for 64
+ * bit addresses, so the top bit stays free for the write flag of a binary
+ * trace.
+ *
+ * By default the elements are 4 bytes, rows are not padded and every operand
+ * starts a fixed gap after the end of the previous one. A specification such
+ * as <code>A:pad=64,B:elem=8:base=65536</code> overrides fields per operand:
+ * <ul>
+ * <li><code>base</code>: base address; by default the end of the previous
+ * operand plus its gap.</li>
+ * <li><code>elem</code>: element size in bytes.</li>
+ * <li><code>stride</code>: row stride in bytes before padding; by default
+ * the size of a row.</li>
+ * <li><code>pad</code>: bytes added after every row.</li>
+ * </ul>
+ */
+final class MemoryLayout {
+
+  private final int size;
+  private final long[] base;
+  private final long[] elementSize;
+  private final long[] rowStride;
+  private long highest;
+
+  /**
+   * @param size number of rows and columns of every matrix.
+   * @param names operand names, indexed by operand id.
+   * @param gaps default gap in bytes in front of every operand.
+   * @param spec overrides as described above, or null.
+   * @throws IllegalArgumentException if the specification is malformed or
+   *         the matrices do not fit in a 32 bit address space.
+   */
+  MemoryLayout(int size, String[] names, int[] gaps, String spec) {
+    this(size, names, gaps, spec, 32);
+  }
+
+  /**
+   * @param addressBits 32 or 64.
+   */
+  MemoryLayout(int size, String[] names, int[] gaps, String spec, int addressBits) {
+    int operands = names.length;
+    this.size = size;
+    this.base = new long[operands];
+    this.elementSize = new long[operands];
+    this.rowStride = new long[operands];
+    long limit = (1L << (addressBits - 1)) - 1;
+
+    long[] fixedBase = new long[operands];
+    long[] stride = new long[operands];
+    long[] pad = new long[operands];
+    Arrays.fill(fixedBase, -1);
+    Arrays.fill(elementSize, 4);
+    Arrays.fill(stride, -1);
+
+    if (spec != null && !spec.isEmpty()) {
+      for (String entry : spec.split(",")) {
+        String[] fields = entry.split(":");
+        int op = operand(names, fields[0]);
+        for (int f = 1; f < fields.length; f++) {
+          int eq = fields[f].indexOf('=');
+          if (eq < 0) {
+            throw new IllegalArgumentException("layout fields look like key=value, not " + fields[f]);
+          }
+          String key = fields[f].substring(0, eq);
+          long value = Long.parseLong(fields[f].substring(eq + 1));
+          if (value < 0 || value > limit) {
+            throw new IllegalArgumentException("layout value out of range: " + fields[f]);
+          }
+          if (key.equals("base")) {
+            fixedBase[op] = value;
+          }
+          else if (key.equals("elem")) {
+            if (value == 0 || value > Integer.MAX_VALUE) {
+              throw new IllegalArgumentException("element size out of range: " + value);
+            }
+            elementSize[op] = value;
+          }
+          else if (key.equals("stride")) {
+            stride[op] = value;
+          }
+          else if (key.equals("pad")) {
+            pad[op] = value;
+          }
+          else {
+            throw new IllegalArgumentException("unknown layout field " + key + ", expected base, elem, stride or pad");
+          }
+        }
+      }
+    }
+
+    long end = 0;
+    for (int op = 0; op < operands; op++) {
+      try {
+        long row = Math.multiplyExact(size, elementSize[op]);
+        long s = Math.addExact(stride[op] < 0 ? row : stride[op], pad[op]);
+        long b = fixedBase[op] < 0 ? Math.addExact(end, gaps[op]) : fixedBase[op];
+        long last = Math.addExact(b, Math.addExact(Math.multiplyExact(Math.max(size - 1, 0), s), row));
+        if (last > limit) {
+          throw new ArithmeticException();
+        }
+        base[op] = b;
+        rowStride[op] = s;
+        end = Math.addExact(b, Math.multiplyExact(size, s));
+        highest = Math.max(highest, last);
+      }
+      catch (ArithmeticException e) {
+        throw new IllegalArgumentException("operand " + names[op] + " does not fit in a " + addressBits + " bit address space");
+      }
+    }
+  }
+
+  private static int operand(String[] names, String name) {
+    for (int op = 0; op < names.length; op++) {
+      if (names[op].equals(name)) {
+        return op;
+      }
+    }
+    throw new IllegalArgumentException("unknown operand " + name + " in layout");
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return true if every address fits in an <code>int</code>.
+   */
+  boolean narrow() {
+    return highest <= Integer.MAX_VALUE;
+  }
+
+  long address(int operand, int i, int j) {
+    return base[operand] + i * rowStride[operand] + j * elementSize[operand];
+  }
+}
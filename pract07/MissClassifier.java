@@ -0,0 +1,335 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cache die de missers van een andere cache indeelt in de drie C's:
+ * <ul>
+ * <li>compulsory: het blok werd nooit eerder aangevraagd;</li>
+ * <li>capacity: het blok zou ook missen in een volledig associatieve
+ * LRU-cache met evenveel blokken;</li>
+ * <li>conflict: de overige missers, veroorzaakt door de plaatsing in sets
+ * of de vervangingsstrategie.</li>
+ * </ul>
+ *
+ * Naast de echte cache loopt een schaduwcache: een volledig associatieve
+ * LRU-cache als circulaire dubbel gelinkte lijst over arrays, met een vaste
+ * kop zodat verplaatsen geen sprongen kost en een aanvraag O(1) is. Een
+ * kleine hashtabel geeft de plaats van elk blok in de schaduwcache; die past
+ * in de processorcache. Een aanvraag voor het meest recente blok, zoals de
+ * volgende woorden van dezelfde lijn, slaat de hashtabel over. Welke
+ * blokken ooit gezien werden, staat in een bitmap per pagina van
+ * opeenvolgende blokken, zodat ook een groot werkgebied weinig geheugen kost
+ * en naburige blokken dicht bij elkaar liggen. Die bitmap is enkel nodig bij
+ * een misser.
+ */
+public class MissClassifier implements Cache {
+
+  // Aantal blokken per pagina van de bitmap met geziene blokken.
+  private static final int PAGE_BITS = 15;
+
+  private final Cache cache;
+  private final int offsetBits;
+
+  // Schaduwcache: blok per plaats en de LRU-lijst, meest recent vooraan.
+  // Plaats head is de kop van de lijst: next[head] is het meest recente blok
+  // en prev[head] het minst recente.
+  private final int head;
+  private final long[] blocks;
+  private final int[] prev;
+  private final int[] next;
+  private int used;
+  private long mru = -1;
+  // Blok naar plaats, enkel voor de blokken in de schaduwcache.
+  private LongIntMap resident;
+
+  // Geziene blokken: paginanummer naar index in pageBits, met de laatst
+  // gebruikte pagina apart omdat opeenvolgende missers meestal dezelfde raken.
+  private LongIntMap pages = new LongIntMap(64);
+  private long[] pageNumbers = new long[64];
+  private long[][] pageBits = new long[64][];
+  private long lastPage = -1;
+  private long[] lastBits;
+
+  private long compulsory;
+  private long capacity;
+  private long conflict;
+
+  private long[] scratch = new long[RequestBuffer.CHUNK / 64];
+
+  /**
+   * @param cache de cache waarvan de missers ingedeeld worden.
+   * @param blocks het aantal blokken van die cache.
+   * @param linesize de lijngrootte van die cache.
+   */
+  public MissClassifier(Cache cache, int blocks, int linesize) {
+    if (blocks < 1 || Integer.bitCount(linesize) != 1) {
+      throw new IllegalArgumentException("blocks must be positive and linesize a power of 2");
+    }
+    this.cache = cache;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.head = blocks;
+    this.blocks = new long[blocks + 1];
+    this.prev = new int[blocks + 1];
+    this.next = new int[blocks + 1];
+    prev[blocks] = blocks;
+    next[blocks] = blocks;
+    this.resident = new LongIntMap(blocks * 2);
+  }
+
+  public boolean request(int address) {
+    if (address == -1) {
+      cache.request(-1);
+      return false;
+    }
+    return request(address, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    boolean hit = cache.request(address, write);
+    classify((address & 0xffffffffL) >>> offsetBits, hit);
+    return hit;
+  }
+
+  public boolean request(long address, boolean write) {
+    boolean hit = cache.request(address, write);
+    classify(address >>> offsetBits, hit);
+    return hit;
+  }
+
+  public int requestBatch(int[] addresses, int from, int to, long[] hitBitmap) {
+    return requestBatch(addresses, null, from, to, hitBitmap);
+  }
+
+  // De echte cache verwerkt de hele reeks in zijn eigen lus; de schaduwcache
+  // volgt daarna aan de hand van de bitmap.
+  public int requestBatch(int[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    long[] bitmap = bitmap(hitBitmap, to - from);
+    int hits = cache.requestBatch(addresses, writes, from, to, bitmap);
+    for (int i = from; i < to; i++) {
+      int bit = i - from;
+      classify((addresses[i] & 0xffffffffL) >>> offsetBits, (bitmap[bit >>> 6] & (1L << bit)) != 0);
+    }
+    return hits;
+  }
+
+  public int requestBatch(long[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    long[] bitmap = bitmap(hitBitmap, to - from);
+    int hits = cache.requestBatch(addresses, writes, from, to, bitmap);
+    for (int i = from; i < to; i++) {
+      int bit = i - from;
+      classify(addresses[i] >>> offsetBits, (bitmap[bit >>> 6] & (1L << bit)) != 0);
+    }
+    return hits;
+  }
+
+  private long[] bitmap(long[] hitBitmap, int count) {
+    if (hitBitmap != null) {
+      return hitBitmap;
+    }
+    if (scratch.length < (count + 63) >>> 6) {
+      scratch = new long[(count + 63) >>> 6];
+    }
+    return scratch;
+  }
+
+  // Werkt de schaduwcache bij en deelt een misser van de echte cache in.
+  private void classify(long block, boolean hit) {
+    if (block == mru) {
+      if (!hit) {
+        conflict++;
+      }
+      return;
+    }
+    mru = block;
+    int slot = resident.get(block, -1);
+    if (slot >= 0) {
+      // Hit in de schaduwcache: een misser van de echte cache is een conflict.
+      if (!hit) {
+        conflict++;
+      }
+      unlink(slot);
+      pushFront(slot);
+      return;
+    }
+
+    // Een blok dat de echte cache raakt, werd al eerder gezien.
+    if (!hit) {
+      if (markSeen(block)) {
+        compulsory++;
+      }
+      else {
+        capacity++;
+      }
+    }
+    if (used < head) {
+      slot = used++;
+    }
+    else {
+      slot = prev[head];
+      unlink(slot);
+      resident.remove(blocks[slot]);
+    }
+    blocks[slot] = block;
+    pushFront(slot);
+    resident.put(block, slot);
+  }
+
+  // Markeert het blok als gezien; geeft true als dat de eerste keer is.
+  private boolean markSeen(long block) {
+    long page = block >>> PAGE_BITS;
+    if (page != lastPage) {
+      int i = pages.get(page, -1);
+      if (i < 0) {
+        i = pages.size();
+        if (i == pageBits.length) {
+          pageNumbers = Arrays.copyOf(pageNumbers, i * 2);
+          pageBits = Arrays.copyOf(pageBits, i * 2);
+        }
+        pageNumbers[i] = page;
+        pageBits[i] = new long[1 << (PAGE_BITS - 6)];
+        pages.put(page, i);
+      }
+      lastPage = page;
+      lastBits = pageBits[i];
+    }
+    int bit = (int) block & ((1 << PAGE_BITS) - 1);
+    long mask = 1L << bit;
+    if ((lastBits[bit >>> 6] & mask) != 0) {
+      return false;
+    }
+    lastBits[bit >>> 6] |= mask;
+    return true;
+  }
+
+  private void unlink(int slot) {
+    int p = prev[slot];
+    int n = next[slot];
+    next[p] = n;
+    prev[n] = p;
+  }
+
+  private void pushFront(int slot) {
+    int first = next[head];
+    prev[slot] = head;
+    next[slot] = first;
+    prev[first] = slot;
+    next[head] = slot;
+  }
+
+  long compulsoryMisses() {
+    return compulsory;
+  }
+
+  long capacityMisses() {
+    return capacity;
+  }
+
+  long conflictMisses() {
+    return conflict;
+  }
+
+  public boolean hasEvicted() {
+    return cache.hasEvicted();
+  }
+
+  public long evicted() {
+    return cache.evicted();
+  }
+
+  public boolean evictedDirty() {
+    return cache.evictedDirty();
+  }
+
+  public int evictions() {
+    return cache.evictions();
+  }
+
+  public long evicted(int i) {
+    return cache.evicted(i);
+  }
+
+  public boolean evictedDirty(int i) {
+    return cache.evictedDirty(i);
+  }
+
+  public boolean invalidate(long address) {
+    return cache.invalidate(address);
+  }
+
+  /**
+   * Een blok dat zonder aanvraag geladen wordt, zit niet in de schaduwcache
+   * en telt niet als gezien.
+   */
+  public boolean probe(long address) {
+    return cache.probe(address);
+  }
+
+  public void fill(long address, boolean dirty) {
+    cache.fill(address, dirty);
+  }
+
+  public long writebackBytes() {
+    return cache.writebackBytes();
+  }
+
+  public int snapshotSize() {
+    int lists = 8 * blocks.length + 4 * prev.length + 4 * next.length;
+    int seen = pages.size() * (8 + 8 * (1 << (PAGE_BITS - 6)));
+    return CacheSnapshot.sectionSize(this, 2) + 4 + 8 + lists + 4 + seen + cache.snapshotSize();
+  }
+
+  /**
+   * Schrijft de schaduwcache en de geziene blokken, en daarna de cache.
+   */
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, head, offsetBits);
+    out.putInt(used);
+    out.putLong(mru);
+    CacheSnapshot.putLongs(out, blocks);
+    CacheSnapshot.putInts(out, prev);
+    CacheSnapshot.putInts(out, next);
+    out.putInt(pages.size());
+    for (int i = 0; i < pages.size(); i++) {
+      out.putLong(pageNumbers[i]);
+      CacheSnapshot.putLongs(out, pageBits[i]);
+    }
+    cache.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, head, offsetBits);
+    used = in.getInt();
+    if (used < 0 || used > head) {
+      throw new IllegalArgumentException("bad number of shadow blocks " + used);
+    }
+    mru = in.getLong();
+    CacheSnapshot.getLongs(in, blocks);
+    CacheSnapshot.getInts(in, prev);
+    CacheSnapshot.getInts(in, next);
+    // De hashtabellen volgen uit de arrays.
+    resident = new LongIntMap(head * 2);
+    for (int slot = 0; slot < used; slot++) {
+      resident.put(blocks[slot], slot);
+    }
+    int count = in.getInt();
+    if (count < 0) {
+      throw new IllegalArgumentException("bad number of pages " + count);
+    }
+    pages = new LongIntMap(Math.max(64, count));
+    pageNumbers = new long[Math.max(64, count)];
+    pageBits = new long[pageNumbers.length][];
+    for (int i = 0; i < count; i++) {
+      pageNumbers[i] = in.getLong();
+      pageBits[i] = new long[1 << (PAGE_BITS - 6)];
+      CacheSnapshot.getLongs(in, pageBits[i]);
+      pages.put(pageNumbers[i], i);
+    }
+    lastPage = -1;
+    lastBits = null;
+    cache.restore(in);
+  }
+
+  public void dump() {
+    cache.dump();
+  }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the miss classification against a naive fully associative LRU list,
+ * one request at a time and in batches.
+ */
+class MissClassifierTest {
+
+  private static final int LINESIZE = 16;
+
+  public static void main(String[] args) {
+    compare(new Random(1), new DirectMappedCache(64, LINESIZE), 64, 100, false);
+    compare(new Random(2), new NWayAssociativeCache(16, LINESIZE, 4), 64, 200, true);
+    // Every block fits: the only misses are compulsory or conflicts.
+    compare(new Random(3), new DirectMappedCache(64, LINESIZE), 64, 64, true);
+    compare(new Random(4), new FullyAssociativeCache(1, LINESIZE), 1, 3, false);
+    // Writes that miss leave the block out, so the next request misses again.
+    for (boolean batch : new boolean[] { false, true }) {
+      NWayAssociativeCache cache = new NWayAssociativeCache(16, LINESIZE, 4);
+      cache.setWritePolicy(true, false);
+      compare(new Random(5), cache, 64, 100, batch);
+    }
+  }
+
+  private static void compare(Random random, Cache cache, int blocks, int lines, boolean batch) {
+    MissClassifier classifier = new MissClassifier(cache, blocks, LINESIZE);
+    // Most recently used line first.
+    List<Integer> stack = new ArrayList<>();
+    Set<Integer> seen = new HashSet<>();
+    long compulsory = 0;
+    long capacity = 0;
+    long conflict = 0;
+
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    boolean[] writes = new boolean[RequestBuffer.CHUNK];
+    long[] hits = new long[RequestBuffer.CHUNK / 64];
+    int line = 0;
+    for (int chunk = 0; chunk < 20; chunk++) {
+      for (int n = 0; n < addresses.length; n++) {
+        // Runs through one line, sequential lines and random jumps.
+        if (random.nextInt(3) != 0) {
+          line = random.nextInt(4) == 0 ? random.nextInt(lines) : (line + 1) % lines;
+        }
+        addresses[n] = line * LINESIZE + random.nextInt(LINESIZE);
+        writes[n] = random.nextInt(4) == 0;
+      }
+      if (batch) {
+        classifier.requestBatch(addresses, writes, 0, addresses.length, hits);
+      }
+      for (int n = 0; n < addresses.length; n++) {
+        boolean hit = batch ? (hits[n >>> 6] & (1L << n)) != 0 : classifier.request(addresses[n], writes[n]);
+        Integer block = addresses[n] / LINESIZE;
+        int distance = stack.indexOf(block);
+        if (!hit) {
+          if (seen.add(block)) {
+            compulsory++;
+          }
+          else if (distance < 0) {
+            capacity++;
+          }
+          else {
+            conflict++;
+          }
+        }
+        if (distance >= 0) {
+          stack.remove(distance);
+        }
+        else if (stack.size() == blocks) {
+          stack.remove(blocks - 1);
+        }
+        stack.add(0, block);
+      }
+    }
+
+    String name = cache.getClass().getSimpleName() + (batch ? " in batches" : "");
+    Check.equal(compulsory, classifier.compulsoryMisses(), name + ": compulsory misses");
+    Check.equal(capacity, classifier.capacityMisses(), name + ": capacity misses");
+    Check.equal(conflict, classifier.conflictMisses(), name + ": conflict misses");
+  }
+}
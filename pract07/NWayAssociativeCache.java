@@ -1,8 +1,115 @@
-import java.util.*;
+import java.nio.ByteBuffer;
 
+/**
+ * N-weg set-associatieve cache met een instelbare vervangingsstrategie (LRU
+ * als standaard) en schrijfstrategie (write-back met write-allocate als
+ * standaard).
+ *
+ * De tags van alle lijnen worden bijgehouden in een vlakke array die per set
+ * aaneensluitend ligt: lijn <code>set * associativity + way</code>. Een lijn
+ * bevat de tag, verschoven over twee posities, met het valid-bit in bit 0 en
+ * het dirty-bit in bit 1. Een lege lijn is dus 0 en kan nooit overeenkomen met
+ * een geldige tag.
+ *
+ * Adressen zijn standaard 32 bits breed, maar mogen tot 64 bits breed zijn.
+ * Er worden enkel zoveel bits per lijn bewaard als de tags nodig hebben: een
+ * woord van 32 bits als de tag met de twee vlaggen daarin past, anders nog een
+ * tweede woord met de hoge bits.
+ *
+ * Bij een grote associativiteit wordt een tag niet lineair gezocht maar via
+ * een hashtabel van bloknummer naar lijn.
+ *
+ * Op aanvraag worden per set hits, missers en vervangingen geteld, naast
+ * elkaar in een array zodat een aanvraag maar een cachelijn van de tellers
+ * raakt.
+ */
 public class NWayAssociativeCache implements Cache {
 
+  protected static final int VALID = 1;
+  protected static final int DIRTY = 2;
+  // Grootte van een write-through schrijfopdracht naar het geheugen.
+  protected static final int WORD = 4;
+
+  // Vanaf deze associativiteit wordt de hashtabel gebruikt.
+  private static final int INDEXED_WAYS = 32;
+
+  // Tellers per set: plaats binnen de strook van een set en breedte van de strook.
+  private static final int HITS = 0;
+  private static final int MISSES = 1;
+  private static final int EVICTIONS = 2;
+  private static final int COUNTERS = 4;
+
+  protected final int sets;
+  protected final int linesize;
+  protected final int associativity;
+
+  // Bitvelden van een adres, eenmalig berekend: | tag | set | offset |
+  protected final int offsetBits;
+  protected final int setMask;
+  protected final int tagShift;
+
+  // Laag woord van tag, dirty-bit en valid-bit per lijn.
+  protected final int[] lines;
+  // Hoog woord per lijn, of null als de tags in het lage woord passen.
+  protected final int[] linesHi;
+  // Aantal ooit gevulde ways per set; lege ways worden eerst gebruikt.
+  protected final int[] filled;
+  // Ways die ongeldig gemaakt werden, als stapel per set met lengte holes[set].
+  private final int[] freeWays;
+  private final int[] holes;
+  protected final ReplacementPolicy policy;
+  // Bloknummer (adres zonder offset) naar lijn, of null.
+  private final LongIntMap index;
+  // Tellers per set, of null als ze niet bijgehouden worden.
+  private long[] counters;
+
+  private final int setBits;
+  private long evicted;
+  private boolean hasEvicted;
+  private boolean evictedDirty;
+
+  private boolean writeBack = true;
+  private boolean writeAllocate = true;
+  private long writebacks;
+  private long writeThroughs;
+
   public NWayAssociativeCache(int sets, int linesize, int associativity) {
+    this(sets, linesize, associativity, new LruPolicy(sets, associativity));
+  }
+
+  public NWayAssociativeCache(int sets, int linesize, int associativity, ReplacementPolicy policy) {
+    this(sets, linesize, associativity, policy, 32);
+  }
+
+  /**
+   * @param addressBits breedte van de adressen, hoogstens 64.
+   */
+  public NWayAssociativeCache(int sets, int linesize, int associativity, ReplacementPolicy policy, int addressBits) {
+    if (Integer.bitCount(sets) != 1 || Integer.bitCount(linesize) != 1) {
+      throw new IllegalArgumentException("sets and linesize must be powers of 2");
+    }
+    if (associativity < 1) {
+      throw new IllegalArgumentException("associativity must be at least 1");
+    }
+    this.sets = sets;
+    this.linesize = linesize;
+    this.associativity = associativity;
+
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.setMask = sets - 1;
+    this.tagShift = offsetBits + Integer.numberOfTrailingZeros(sets);
+    if (addressBits > 64 || tagShift >= addressBits) {
+      throw new IllegalArgumentException("sets * linesize must fit in a " + addressBits + " bit address");
+    }
+
+    this.lines = new int[sets * associativity];
+    this.linesHi = addressBits - tagShift + 2 > 32 ? new int[sets * associativity] : null;
+    this.filled = new int[sets];
+    this.freeWays = new int[sets * associativity];
+    this.holes = new int[sets];
+    this.setBits = tagShift - offsetBits;
+    this.policy = policy;
+    this.index = associativity >= INDEXED_WAYS ? new LongIntMap(sets * associativity) : null;
   }
 
   /**
@@ -10,9 +117,358 @@ public class NWayAssociativeCache implements Cache {
    * @return true bij een cachehit, false bij een cachemis.
    */
   public boolean request(int address) {
+    if (address == -1) {
+      dump();
+      return false;
+    }
+    return lookup(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return lookup(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    return lookup(address, write);
+  }
+
+  public int requestBatch(int[] addresses, int from, int to, long[] hitBitmap) {
+    return requestBatch(addresses, null, from, to, hitBitmap);
+  }
+
+  public int requestBatch(int[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      // Verwerk de aanvragen per woord van 64 bits van de bitmap.
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i] & 0xffffffffL, writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  public int requestBatch(long[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i], writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  /**
+   * Kiest de schrijfstrategie: write-back of write-through, en of een
+   * schrijfmisser het blok laadt (write-allocate) of enkel naar het geheugen
+   * schrijft.
+   */
+  public void setWritePolicy(boolean writeBack, boolean writeAllocate) {
+    this.writeBack = writeBack;
+    this.writeAllocate = writeAllocate;
+  }
+
+  public long writebackBytes() {
+    return writebacks * linesize + writeThroughs * WORD;
+  }
+
+  private boolean lookup(long address, boolean write) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    int first = set * associativity;
+
+    int way = find(address, first, line);
+    if (way >= 0) {
+      if (counters != null) {
+        counters[set * COUNTERS + HITS]++;
+      }
+      policy.hit(set, way);
+      hasEvicted = false;
+      if (write) {
+        write(first + way);
+      }
+      return true;
+    }
+
+    if (counters != null) {
+      counters[set * COUNTERS + MISSES]++;
+    }
+    if (write && !writeAllocate) {
+      // Het blok wordt niet geladen; de data gaat rechtstreeks naar het geheugen.
+      writeThroughs++;
+      hasEvicted = false;
+      return false;
+    }
+
+    int i = install(address, set, line);
+    if (hasEvicted && counters != null) {
+      counters[set * COUNTERS + EVICTIONS]++;
+    }
+    if (write) {
+      write(i);
+    }
+    return false;
+  }
+
+  // Laadt een blok dat niet in de set zit, in een lege way of in plaats van
+  // het slachtoffer van de vervangingsstrategie. Geeft de lijn terug.
+  private int install(long address, int set, long line) {
+    int first = set * associativity;
+    int way;
+    if (holes[set] > 0) {
+      way = freeWays[first + --holes[set]];
+    }
+    else if (filled[set] < associativity) {
+      way = filled[set]++;
+    }
+    else {
+      way = policy.victim(set);
+    }
+
+    long old = line(first + way);
+    hasEvicted = old != 0;
+    evicted = block(old, set) << offsetBits;
+    evictedDirty = (old & DIRTY) != 0;
+    if (evictedDirty) {
+      writebacks++;
+    }
+    if (index != null) {
+      if (old != 0) {
+        index.remove(block(old, set));
+      }
+      index.put(address >>> offsetBits, first + way);
+    }
+    lines[first + way] = (int) line;
+    if (linesHi != null) {
+      linesHi[first + way] = (int) (line >>> 32);
+    }
+    policy.fill(set, way);
+    return first + way;
+  }
+
+  private void write(int i) {
+    if (writeBack) {
+      lines[i] |= DIRTY;
+    }
+    else {
+      writeThroughs++;
+    }
+  }
+
+  // Volledige lijn i, met de hoge bits als die bewaard worden.
+  private long line(int i) {
+    long low = lines[i] & 0xffffffffL;
+    return linesHi == null ? low : ((long) linesHi[i] << 32) | low;
+  }
+
+  // Bloknummer van een lijn in de set.
+  private long block(long line, int set) {
+    return ((line >>> 2) << setBits) | set;
+  }
+
+  public boolean hasEvicted() {
+    return hasEvicted;
+  }
+
+  public long evicted() {
+    return evicted;
+  }
+
+  public boolean evictedDirty() {
+    return evictedDirty;
+  }
+
+  public boolean probe(long address) {
+    int first = ((int) (address >>> offsetBits) & setMask) * associativity;
+    return find(address, first, ((address >>> tagShift) << 2) | VALID) >= 0;
+  }
+
+  /**
+   * Een vuil blok in een write-through cache gaat meteen naar het geheugen.
+   */
+  public void fill(long address, boolean dirty) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    int first = set * associativity;
+    int way = find(address, first, line);
+    int i;
+    if (way >= 0) {
+      hasEvicted = false;
+      i = first + way;
+    }
+    else {
+      i = install(address, set, line);
+    }
+    if (dirty) {
+      if (writeBack) {
+        lines[i] |= DIRTY;
+      }
+      else {
+        writebacks++;
+      }
+    }
+  }
+
+  public boolean invalidate(long address) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    int first = set * associativity;
+    int way = find(address, first, ((address >>> tagShift) << 2) | VALID);
+    if (way < 0) {
+      return false;
+    }
+    if ((lines[first + way] & DIRTY) != 0) {
+      writebacks++;
+    }
+    if (index != null) {
+      index.remove(address >>> offsetBits);
+    }
+    lines[first + way] = 0;
+    if (linesHi != null) {
+      linesHi[first + way] = 0;
+    }
+    freeWays[first + holes[set]++] = way;
     return true;
   }
 
+  /**
+   * Houdt vanaf nu per set hits, missers en vervangingen bij, zie
+   * {@link #hits(int)}, {@link #misses(int)} en {@link #evictions(int)}.
+   */
+  public void countPerSet() {
+    if (counters == null) {
+      counters = new long[sets * COUNTERS];
+    }
+  }
+
+  public int sets() {
+    return sets;
+  }
+
+  /**
+   * @return het aantal hits in de set.
+   */
+  public long hits(int set) {
+    return counters == null ? 0 : counters[set * COUNTERS + HITS];
+  }
+
+  /**
+   * @return het aantal missers in de set.
+   */
+  public long misses(int set) {
+    return counters == null ? 0 : counters[set * COUNTERS + MISSES];
+  }
+
+  /**
+   * @return het aantal geldige blokken dat uit de set werd gezet.
+   */
+  public long evictions(int set) {
+    return counters == null ? 0 : counters[set * COUNTERS + EVICTIONS];
+  }
+
+  public int snapshotSize() {
+    int words = lines.length * (linesHi == null ? 1 : 2) + filled.length + freeWays.length + holes.length;
+    return CacheSnapshot.sectionSize(this, 4) + 4 * words + policy.snapshotSize();
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, sets, linesize, associativity, linesHi == null ? 0 : 1);
+    CacheSnapshot.putInts(out, lines);
+    if (linesHi != null) {
+      CacheSnapshot.putInts(out, linesHi);
+    }
+    CacheSnapshot.putInts(out, filled);
+    CacheSnapshot.putInts(out, freeWays);
+    CacheSnapshot.putInts(out, holes);
+    policy.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, sets, linesize, associativity, linesHi == null ? 0 : 1);
+    // De hashtabel volgt uit de lijnen: haal de oude blokken eruit en zet
+    // de herstelde erin.
+    if (index != null) {
+      reindex(false);
+    }
+    CacheSnapshot.getInts(in, lines);
+    if (linesHi != null) {
+      CacheSnapshot.getInts(in, linesHi);
+    }
+    CacheSnapshot.getInts(in, filled);
+    CacheSnapshot.getInts(in, freeWays);
+    CacheSnapshot.getInts(in, holes);
+    policy.restore(in);
+    if (index != null) {
+      reindex(true);
+    }
+    hasEvicted = false;
+  }
+
+  // Zet alle geldige lijnen in de hashtabel, of haalt ze eruit.
+  private void reindex(boolean put) {
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i] != 0) {
+        long block = block(line(i), i / associativity);
+        if (put) {
+          index.put(block, i);
+        }
+        else {
+          index.remove(block);
+        }
+      }
+    }
+  }
+
+  // Geeft de way met de gegeven lijn in de set die begint op first, of -1.
+  private int find(long address, int first, long line) {
+    if (index != null) {
+      int i = index.get(address >>> offsetBits, -1);
+      return i < 0 ? -1 : i - first;
+    }
+    int low = (int) line;
+    if (linesHi == null) {
+      for (int i = first, end = first + associativity; i < end; i++) {
+        if ((lines[i] & ~DIRTY) == low) {
+          return i - first;
+        }
+      }
+      return -1;
+    }
+    int high = (int) (line >>> 32);
+    for (int i = first, end = first + associativity; i < end; i++) {
+      if ((lines[i] & ~DIRTY) == low && linesHi[i] == high) {
+        return i - first;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Print per set de tags van de geldige blokken, in volgorde van de ways.
+   */
   public void dump() {
+    for (int set = 0; set < sets; set++) {
+      System.out.print("Set " + set + ": ");
+      int first = set * associativity;
+      if (filled[set] == holes[set]) {
+        System.out.println("is leeg");
+        continue;
+      }
+      System.out.print("bevat deze blokken: ");
+      for (int way = 0; way < filled[set]; way++) {
+        if (lines[first + way] != 0) {
+          System.out.print((line(first + way) >>> 2) + ", ");
+        }
+      }
+      System.out.println();
+    }
   }
 }
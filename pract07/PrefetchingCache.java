@@ -0,0 +1,473 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cache die een hardware-prefetcher simuleert voor een andere cache. Drie
+ * soorten prefetchers worden ondersteund:
+ * <ul>
+ * <li>next-line: een misser, of de eerste hit op een geprefetcht blok, laadt
+ * de volgende <code>degree</code> blokken in de cache;</li>
+ * <li>stride: een tabel van stromen zonder programmateller. Een aanvraag die
+ * niet bij een gekende stroom past, begint een nieuwe stroom met als stride
+ * de afstand tot het dichtstbijzijnde vorige adres. Na twee bevestigingen
+ * laadt elke aanvraag van de stroom het blok <code>degree</code> strides
+ * verder;</li>
+ * <li>stream: streambuffers naar Jouppi. Een misser reserveert de minst
+ * recent gebruikte buffer voor de volgende <code>degree</code> blokken.
+ * Zolang de missers de kop van een buffer raken, komt het blok uit de buffer
+ * en telt de aanvraag als hit. Die blokken komen pas bij gebruik in de cache.</li>
+ * </ul>
+ *
+ * Naast het aantal prefetches worden bijgehouden:
+ * <ul>
+ * <li>accuracy: het deel van de geprefetchte blokken dat gebruikt werd voor
+ * het uit de cache ging;</li>
+ * <li>coverage: het deel van de missers zonder prefetcher dat de prefetcher
+ * wegwerkte;</li>
+ * <li>pollution: missers op blokken die een prefetch uit de cache zette.</li>
+ * </ul>
+ * Welke blokken geprefetcht of door een prefetch vervangen werden, staat in
+ * direct gemapte tabellen van vaste grootte. Een botsing overschrijft een
+ * oudere vermelding, zodat die metingen bij grote werkgebieden een benadering
+ * zijn.
+ *
+ * Een prefetch is geen aanvraag: hij kijkt met {@link Cache#probe} of het
+ * blok er al is en laadt het met {@link Cache#fill}, zodat de statistieken en
+ * de vervangingsstrategie van de cache enkel de aanvragen van het programma
+ * zien. De blokken die een aanvraag en haar prefetches uit de cache zetten,
+ * geeft {@link #evictions()} allemaal door, die van de aanvraag eerst.
+ */
+public class PrefetchingCache implements Cache {
+
+  enum Kind { NEXTLINE, STRIDE, STREAM }
+
+  // Grootte van de tabellen met geprefetchte en vervangen blokken.
+  private static final int TABLE = 1 << 12;
+  // Aantal stromen van de stride-prefetcher en grootste stride.
+  private static final int STREAMS = 16;
+  private static final long MAX_STRIDE = 1 << 20;
+  // Aantal bevestigingen voor de stride-prefetcher prefetcht.
+  private static final int CONFIDENT = 2;
+  private static final int INDEX_BITS = 6;
+  // Aantal streambuffers.
+  private static final int BUFFERS = 4;
+
+  private final Cache cache;
+  private final Kind kind;
+  private final int degree;
+  private final int offsetBits;
+
+  // Geprefetchte blokken die nog niet gebruikt werden.
+  private final BlockTable pending = new BlockTable(TABLE);
+  // Blokken die een prefetch uit de cache zette.
+  private final BlockTable displaced = new BlockTable(TABLE);
+
+  // Stride-prefetcher: laatste adres, stride, bevestigingen en laatst
+  // geprefetcht blok per stroom.
+  private final long[] last = new long[STREAMS];
+  private final long[] stride = new long[STREAMS];
+  private final int[] confidence = new int[STREAMS];
+  private final long[] lastTarget = new long[STREAMS];
+  private int streams;
+  private int nextStream;
+  // Index van adressen naar stromen, direct gemapt; een vermelding geldt
+  // enkel als de stroom dat adres nog als laatste of volgende adres heeft.
+  private final long[] indexAddress = new long[1 << INDEX_BITS];
+  private final int[] indexStream = new int[1 << INDEX_BITS];
+
+  // Streambuffers: volgend blok en tijdstip van het laatste gebruik per buffer.
+  private final long[] head = new long[BUFFERS];
+  private final long[] used = new long[BUFFERS];
+  private long clock;
+
+  // Blokken die de laatste aanvraag en haar prefetches uit de cache zetten.
+  private final Evictions evictedBlocks = new Evictions();
+
+  private long issued;
+  private long useful;
+  private long pollution;
+  private long misses;
+
+  /**
+   * @param cache de cache waarvoor geprefetcht wordt.
+   * @param linesize de lijngrootte van die cache.
+   * @param kind de soort prefetcher.
+   * @param degree het aantal blokken dat vooruit geprefetcht wordt.
+   */
+  public PrefetchingCache(Cache cache, int linesize, Kind kind, int degree) {
+    if (Integer.bitCount(linesize) != 1 || degree < 1) {
+      throw new IllegalArgumentException("linesize must be a power of 2 and degree positive");
+    }
+    this.cache = cache;
+    this.kind = kind;
+    this.degree = degree;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    Arrays.fill(head, -1);
+    Arrays.fill(indexAddress, -1);
+  }
+
+  /**
+   * Maakt een prefetcher uit een specificatie <code>soort[:degree]</code>,
+   * bv. <code>stride:2</code>. De standaard degree is 1, en 4 voor stream.
+   */
+  static PrefetchingCache create(String spec, Cache cache, int linesize) {
+    String[] parts = spec.split(":");
+    int degree;
+    Kind kind;
+    switch (parts[0]) {
+      case "nextline":
+        kind = Kind.NEXTLINE;
+        degree = 1;
+        break;
+      case "stride":
+        kind = Kind.STRIDE;
+        degree = 1;
+        break;
+      case "stream":
+        kind = Kind.STREAM;
+        degree = 4;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown prefetcher " + parts[0]);
+    }
+    if (parts.length > 2) {
+      throw new IllegalArgumentException("prefetcher looks like kind[:degree], not " + spec);
+    }
+    if (parts.length == 2) {
+      degree = Integer.parseInt(parts[1]);
+    }
+    return new PrefetchingCache(cache, linesize, kind, degree);
+  }
+
+  public boolean request(int address) {
+    if (address == -1) {
+      cache.request(-1);
+      return false;
+    }
+    return access(address & 0xffffffffL, false, 0xffffffffL);
+  }
+
+  public boolean request(int address, boolean write) {
+    return access(address & 0xffffffffL, write, 0xffffffffL);
+  }
+
+  public boolean request(long address, boolean write) {
+    return access(address, write, Long.MAX_VALUE);
+  }
+
+  // Een aanvraag van het programma; prefetches blijven onder limit.
+  private boolean access(long address, boolean write, long limit) {
+    long block = address >>> offsetBits;
+    boolean hit = cache.request(address, write);
+    evictedBlocks.clear();
+    evicted(false);
+
+    boolean first = false;
+    if (hit) {
+      first = pending.remove(block);
+      if (first) {
+        useful++;
+      }
+    }
+    else if (displaced.remove(block)) {
+      pollution++;
+    }
+
+    switch (kind) {
+      case NEXTLINE:
+        if (!hit || first) {
+          for (int k = 1; k <= degree; k++) {
+            prefetch(block + k, limit);
+          }
+        }
+        break;
+      case STRIDE:
+        train(address, block, limit);
+        break;
+      case STREAM:
+        if (!hit && buffer(block)) {
+          useful++;
+          hit = true;
+        }
+        break;
+    }
+    if (!hit) {
+      misses++;
+    }
+    return hit;
+  }
+
+  // Laadt een blok in de cache, tenzij het er al in zit.
+  private void prefetch(long block, long limit) {
+    if (block < 0 || block > limit >>> offsetBits) {
+      return;
+    }
+    long address = block << offsetBits;
+    if (cache.probe(address)) {
+      return;
+    }
+    cache.fill(address, false);
+    issued++;
+    pending.add(block);
+    evicted(true);
+  }
+
+  // Onthoudt de blokken die de cache zonet verliet; die van een prefetch
+  // komen in de tabel met vervangen blokken.
+  private void evicted(boolean prefetch) {
+    for (int i = 0, n = cache.evictions(); i < n; i++) {
+      long victim = cache.evicted(i);
+      evictedBlocks.add(victim, cache.evictedDirty(i));
+      pending.remove(victim >>> offsetBits);
+      if (prefetch) {
+        displaced.add(victim >>> offsetBits);
+      }
+    }
+  }
+
+  private void train(long address, long block, long limit) {
+    // Gewoonlijk vindt de index de stroom waarvan dit het laatste of het
+    // verwachte volgende adres is.
+    int slot = indexSlot(address);
+    if (indexAddress[slot] == address) {
+      int i = indexStream[slot];
+      if (address == last[i]) {
+        // Herhaalde aanvraag van dezelfde stroom.
+        return;
+      }
+      if (address - last[i] == stride[i]) {
+        last[i] = address;
+        index(i);
+        if (confidence[i] < CONFIDENT) {
+          confidence[i]++;
+        }
+        if (confidence[i] == CONFIDENT) {
+          long target = (address + stride[i] * degree) >>> offsetBits;
+          if (target != block && target != lastTarget[i]) {
+            lastTarget[i] = target;
+            prefetch(target, limit);
+          }
+        }
+        return;
+      }
+    }
+
+    // Anders het dichtste laatste adres, zonder sprongen in de lus omdat die
+    // niet te voorspellen zijn.
+    int nearest = -1;
+    long distance = MAX_STRIDE + 1;
+    for (int i = 0; i < streams; i++) {
+      long d = Math.abs(address - last[i]);
+      boolean closer = d < distance;
+      distance = closer ? d : distance;
+      nearest = closer ? i : nearest;
+    }
+    if (distance == 0) {
+      return;
+    }
+
+    // Een nieuwe stroom, met de afstand tot het dichtste adres als stride.
+    int i = streams < STREAMS ? streams++ : nextStream++ & (STREAMS - 1);
+    stride[i] = nearest < 0 ? 0 : address - last[nearest];
+    last[i] = address;
+    confidence[i] = 0;
+    lastTarget[i] = -1;
+    index(i);
+  }
+
+  // Neemt het laatste en het verwachte volgende adres van stroom i op in de index.
+  private void index(int i) {
+    int slot = indexSlot(last[i]);
+    indexAddress[slot] = last[i];
+    indexStream[slot] = i;
+    slot = indexSlot(last[i] + stride[i]);
+    indexAddress[slot] = last[i] + stride[i];
+    indexStream[slot] = i;
+  }
+
+  private static int indexSlot(long address) {
+    return (int) ((address * 0x9E3779B97F4A7C15L) >>> (64 - INDEX_BITS));
+  }
+
+  // Zoekt het blok aan de kop van een streambuffer, of reserveert een buffer.
+  private boolean buffer(long block) {
+    clock++;
+    int lru = 0;
+    for (int i = 0; i < BUFFERS; i++) {
+      if (head[i] == block) {
+        // Het blok gaat naar de cache; de buffer haalt een volgend blok op.
+        head[i]++;
+        used[i] = clock;
+        issued++;
+        return true;
+      }
+      if (used[i] < used[lru]) {
+        lru = i;
+      }
+    }
+    head[lru] = block + 1;
+    used[lru] = clock;
+    issued += degree;
+    return false;
+  }
+
+  /**
+   * @return het aantal geprefetchte blokken.
+   */
+  long prefetches() {
+    return issued;
+  }
+
+  /**
+   * @return het deel van de prefetches dat gebruikt werd.
+   */
+  double accuracy() {
+    return issued == 0 ? 0 : (double) useful / issued;
+  }
+
+  /**
+   * @return het deel van de missers dat de prefetcher wegwerkte.
+   */
+  double coverage() {
+    return useful + misses == 0 ? 0 : (double) useful / (useful + misses);
+  }
+
+  /**
+   * @return het aantal missers op blokken die door een prefetch vervangen werden.
+   */
+  long pollution() {
+    return pollution;
+  }
+
+  public boolean hasEvicted() {
+    return evictedBlocks.count() > 0;
+  }
+
+  public long evicted() {
+    return evictedBlocks.address(0);
+  }
+
+  public boolean evictedDirty() {
+    return evictedBlocks.dirty(0);
+  }
+
+  public int evictions() {
+    return evictedBlocks.count();
+  }
+
+  public long evicted(int i) {
+    return evictedBlocks.address(i);
+  }
+
+  public boolean evictedDirty(int i) {
+    return evictedBlocks.dirty(i);
+  }
+
+  public boolean invalidate(long address) {
+    return cache.invalidate(address);
+  }
+
+  public boolean probe(long address) {
+    return cache.probe(address);
+  }
+
+  /**
+   * Een blok dat zonder aanvraag geladen wordt, traint de prefetcher niet.
+   */
+  public void fill(long address, boolean dirty) {
+    cache.fill(address, dirty);
+    evictedBlocks.clear();
+    evicted(false);
+  }
+
+  public long writebackBytes() {
+    return cache.writebackBytes();
+  }
+
+  public int snapshotSize() {
+    int tables = 8 * 2 * TABLE;
+    int trainer = 8 * 3 * STREAMS + 4 * STREAMS + 4 + 4 + (8 + 4) * indexAddress.length;
+    int buffers = 8 * 2 * BUFFERS + 8;
+    return CacheSnapshot.sectionSize(this, 3) + tables + trainer + buffers + cache.snapshotSize();
+  }
+
+  /**
+   * Schrijft de tabellen en de toestand van alle soorten prefetchers, en
+   * daarna de cache.
+   */
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, kind.ordinal(), degree, 1 << offsetBits);
+    CacheSnapshot.putLongs(out, pending.blocks);
+    CacheSnapshot.putLongs(out, displaced.blocks);
+    CacheSnapshot.putLongs(out, last);
+    CacheSnapshot.putLongs(out, stride);
+    CacheSnapshot.putInts(out, confidence);
+    CacheSnapshot.putLongs(out, lastTarget);
+    out.putInt(streams);
+    out.putInt(nextStream);
+    CacheSnapshot.putLongs(out, indexAddress);
+    CacheSnapshot.putInts(out, indexStream);
+    CacheSnapshot.putLongs(out, head);
+    CacheSnapshot.putLongs(out, used);
+    out.putLong(clock);
+    cache.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, kind.ordinal(), degree, 1 << offsetBits);
+    CacheSnapshot.getLongs(in, pending.blocks);
+    CacheSnapshot.getLongs(in, displaced.blocks);
+    CacheSnapshot.getLongs(in, last);
+    CacheSnapshot.getLongs(in, stride);
+    CacheSnapshot.getInts(in, confidence);
+    CacheSnapshot.getLongs(in, lastTarget);
+    streams = in.getInt();
+    nextStream = in.getInt();
+    if (streams < 0 || streams > STREAMS) {
+      throw new IllegalArgumentException("bad number of streams " + streams);
+    }
+    CacheSnapshot.getLongs(in, indexAddress);
+    CacheSnapshot.getInts(in, indexStream);
+    CacheSnapshot.getLongs(in, head);
+    CacheSnapshot.getLongs(in, used);
+    clock = in.getLong();
+    cache.restore(in);
+    evictedBlocks.clear();
+  }
+
+  public void dump() {
+    cache.dump();
+  }
+
+  /**
+   * Direct gemapte verzameling van bloknummers van vaste grootte.
+   */
+  private static final class BlockTable {
+    private final long[] blocks;
+    private final int mask;
+
+    BlockTable(int size) {
+      blocks = new long[size];
+      mask = size - 1;
+      Arrays.fill(blocks, -1);
+    }
+
+    private int slot(long block) {
+      long h = block * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 40) & mask;
+    }
+
+    void add(long block) {
+      blocks[slot(block)] = block;
+    }
+
+    boolean remove(long block) {
+      int i = slot(block);
+      if (blocks[i] != block) {
+        return false;
+      }
+      blocks[i] = -1;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Checks that probe() and fill() load and look up blocks without counting
+ * requests or changing which block is replaced next, and that a prefetcher
+ * only reaches the cache through them.
+ */
+class ProbeFillTest {
+
+  private static final int LINE = 16;
+  private static final long A = 0;
+  private static final long B = 1 << 20;
+  private static final long C = 2 << 20;
+
+  public static void main(String[] args) {
+    // Caches with one set of two lines, so A, B and C compete for it.
+    recency(new NWayAssociativeCache(1, LINE, 2));
+    recency(new FullyAssociativeCache(2, LINE));
+    recency(new VWayCache(1, LINE, 2, 1));
+    for (CacheHierarchy.Inclusion inclusion : CacheHierarchy.Inclusion.values()) {
+      recency(new CacheHierarchy(new Cache[] { new NWayAssociativeCache(1, LINE, 2) }, inclusion));
+    }
+
+    dirty(new DirectMappedCache(1, LINE));
+    dirty(new NWayAssociativeCache(1, LINE, 1));
+    writeThroughDirty();
+    exclusiveFill();
+    victimFill();
+    prefetchIsNotARequest();
+  }
+
+  // A probe or a fill of a cached block must not make it recently used.
+  private static void recency(Cache cache) {
+    String name = cache.getClass().getSimpleName();
+    Check.that(!cache.probe(A), name + ": probe of an empty cache");
+    cache.fill(A, false);
+    Check.that(!cache.hasEvicted(), name + ": fill of an empty cache replaces nothing");
+    Check.that(cache.probe(A), name + ": probe after fill");
+    cache.request(B, false);
+    Check.that(cache.probe(A), name + ": probe of the least recently used block");
+    cache.fill(A, false);
+    Check.that(!cache.hasEvicted(), name + ": fill of a cached block replaces nothing");
+    cache.fill(C, false);
+    Check.that(!cache.probe(A), name + ": A was still least recently used");
+    Check.that(cache.probe(B), name + ": B stays");
+    Check.that(cache.probe(C), name + ": C was filled");
+    Check.that(cache.request(C, false), name + ": a filled block hits");
+  }
+
+  // A dirty fill is written back when the block leaves the cache.
+  private static void dirty(Cache cache) {
+    String name = cache.getClass().getSimpleName();
+    cache.fill(A, true);
+    Check.equal(0, cache.writebackBytes(), name + ": no traffic while the block stays");
+    cache.fill(A, false);
+    cache.request(B, false);
+    Check.that(cache.hasEvicted(), name + ": dirty block replaced");
+    Check.equal(LINE, cache.writebackBytes(), name + ": dirty fill written back once");
+  }
+
+  private static void writeThroughDirty() {
+    NWayAssociativeCache cache = new NWayAssociativeCache(1, LINE, 1);
+    cache.setWritePolicy(false, true);
+    cache.fill(A, true);
+    Check.equal(LINE, cache.writebackBytes(), "write-through: dirty fill goes to memory at once");
+    cache.request(B, false);
+    Check.equal(LINE, cache.writebackBytes(), "write-through: the block stays clean");
+  }
+
+  // An exclusive fill moves the block to L1 and the L1 victim down.
+  private static void exclusiveFill() {
+    Cache l1 = new NWayAssociativeCache(1, LINE, 1);
+    Cache l2 = new NWayAssociativeCache(1, LINE, 2);
+    CacheHierarchy cache = new CacheHierarchy(new Cache[] { l1, l2 }, CacheHierarchy.Inclusion.EXCLUSIVE);
+    cache.request(A, false);
+    cache.request(B, false);
+    Check.that(l2.probe(A) && l1.probe(B), "exclusive: A moved down to L2");
+    cache.fill(A, false);
+    Check.that(l1.probe(A) && !l2.probe(A), "exclusive: fill moves A back to L1");
+    Check.that(l2.probe(B), "exclusive: B moved down to L2");
+    Check.equal(2, cache.requests(0), "exclusive: fills are not requests");
+  }
+
+  // A fill takes a block back from the victim cache without a victim hit.
+  private static void victimFill() {
+    Cache inner = new NWayAssociativeCache(1, LINE, 1);
+    VictimCache cache = new VictimCache(inner, LINE, 1);
+    cache.request(A, false);
+    cache.request(B, false);
+    Check.that(cache.probe(A) && !inner.probe(A), "victim: A only in the victim cache");
+    cache.fill(A, false);
+    Check.that(inner.probe(A), "victim: fill moves A back to the cache");
+    Check.that(cache.probe(B) && !inner.probe(B), "victim: B moved to the victim cache");
+    Check.that(!cache.hasEvicted(), "victim: nothing left both");
+    Check.equal(0, cache.victimHits(), "victim: a fill is no victim hit");
+  }
+
+  private static void prefetchIsNotARequest() {
+    NWayAssociativeCache inner = new NWayAssociativeCache(4, LINE, 2);
+    inner.countPerSet();
+    PrefetchingCache cache = new PrefetchingCache(inner, LINE, PrefetchingCache.Kind.NEXTLINE, 2);
+    Check.that(!cache.request(0, false), "demand miss");
+    Check.equal(2, cache.prefetches(), "two blocks prefetched");
+    long requests = 0;
+    for (int set = 0; set < inner.sets(); set++) {
+      requests += inner.hits(set) + inner.misses(set);
+    }
+    Check.equal(1, requests, "the cache saw only the demand request");
+    Check.that(cache.request(LINE, false), "prefetched block hits");
+    // The first hit on block 1 prefetches block 3; block 2 is already there.
+    Check.equal(3, cache.prefetches(), "one more block prefetched");
+    Check.that(cache.accuracy() == 1.0 / 3, "accuracy after one useful prefetch of three");
+  }
+}
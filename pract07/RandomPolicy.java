@@ -0,0 +1,45 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Willekeurige vervanging met een xorshift-generator en een vaste seed, zodat
+ * een simulatie herhaalbaar is.
+ */
+class RandomPolicy implements ReplacementPolicy {
+
+  private final int ways;
+  private long state;
+
+  RandomPolicy(int ways, long seed) {
+    this.ways = ways;
+    this.state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+  }
+
+  public void hit(int set, int way) {
+  }
+
+  public int victim(int set) {
+    state ^= state << 13;
+    state ^= state >>> 7;
+    state ^= state << 17;
+    return (int) ((state >>> 1) % ways);
+  }
+
+  public void fill(int set, int way) {
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 1) + 8;
+  }
+
+  // De toestand van de generator hoort erbij, zodat een herstelde run
+  // dezelfde slachtoffers kiest als een doorlopende.
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, ways);
+    out.putLong(state);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, ways);
+    state = in.getLong();
+  }
+}
@@ -0,0 +1,67 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Vervangingsstrategie van een set-associatieve cache.
+ *
+ * De cache vult eerst de lege lijnen van een set, in volgorde van way 0 tot
+ * de laatste way. Pas als een set vol is, wordt {@link #victim} gevraagd
+ * welke lijn vervangen wordt. Alle implementaties houden hun toestand bij in
+ * vaste primitieve arrays en alloceren niets per aanvraag.
+ */
+interface ReplacementPolicy {
+
+  /**
+   * De lijn <code>way</code> van <code>set</code> werd opnieuw gebruikt.
+   */
+  void hit(int set, int way);
+
+  /**
+   * @return de way die vervangen moet worden in een volle set.
+   */
+  int victim(int set);
+
+  /**
+   * Er werd een nieuw blok geladen in <code>way</code> van <code>set</code>.
+   */
+  void fill(int set, int way);
+
+  /**
+   * @return het aantal bytes dat {@link #save} schrijft.
+   */
+  int snapshotSize();
+
+  /**
+   * Schrijft de toestand van de strategie, zie {@link Cache#save}.
+   */
+  void save(ByteBuffer out);
+
+  /**
+   * Herstelt de toestand die {@link #save} schreef.
+   */
+  void restore(ByteBuffer in);
+
+  /**
+   * Maakt de strategie met de gegeven naam: lru, treeplru, bitplru, fifo,
+   * random, srrip of brrip.
+   */
+  static ReplacementPolicy create(String name, int sets, int ways) {
+    switch (name) {
+      case "lru":
+        return new LruPolicy(sets, ways);
+      case "treeplru":
+        return new TreePlruPolicy(sets, ways);
+      case "bitplru":
+        return new BitPlruPolicy(sets, ways);
+      case "fifo":
+        return new FifoPolicy(sets, ways);
+      case "random":
+        return new RandomPolicy(ways, 1);
+      case "srrip":
+        return new RripPolicy(sets, ways, false);
+      case "brrip":
+        return new RripPolicy(sets, ways, true);
+      default:
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+  }
+}
@@ -0,0 +1,270 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks every replacement policy against a straightforward model of it, and
+ * that a saved and restored policy picks the same victims as the original.
+ */
+class ReplacementPolicyTest {
+
+  private static final int SETS = 4;
+
+  /**
+   * Naive version of a policy for one set, driven through the same calls.
+   */
+  interface Model {
+    void hit(int way);
+    int victim();
+    void fill(int way);
+  }
+
+  public static void main(String[] args) {
+    for (int ways : new int[] { 1, 2, 4, 16, 64 }) {
+      compare("lru", ways, LruModel::new);
+      compare("bitplru", ways, BitPlruModel::new);
+      compare("fifo", ways, FifoModel::new);
+      compare("srrip", ways, w -> new RripModel(w, false, new int[1]));
+      // The bimodal fill counter is shared by all sets.
+      int[] fills = new int[1];
+      compare("brrip", ways, w -> new RripModel(w, true, fills));
+      if (Integer.bitCount(ways) == 1 && ways > 1) {
+        compare("treeplru", ways, null);
+      }
+    }
+    // With two ways tree PLRU is exact LRU.
+    compare("treeplru", 2, LruModel::new);
+    treePlruSequence();
+    random();
+    for (String name : new String[] { "lru", "treeplru", "bitplru", "fifo", "random", "srrip", "brrip" }) {
+      snapshot(name, 8);
+    }
+    Check.fails(IllegalArgumentException.class, () -> ReplacementPolicy.create("mru", 1, 4), "unknown policy");
+    Check.fails(IllegalArgumentException.class, () -> ReplacementPolicy.create("treeplru", 1, 6), "tree PLRU with 6 ways");
+  }
+
+  interface ModelFactory {
+    Model create(int ways);
+  }
+
+  // Runs random hits and misses on every set, with the first misses filling
+  // the ways in order as the caches do, and compares the victims.
+  private static void compare(String name, int ways, ModelFactory factory) {
+    Random random = new Random(ways * 31 + name.hashCode());
+    ReplacementPolicy policy = ReplacementPolicy.create(name, SETS, ways);
+    Model[] models = new Model[SETS];
+    for (int set = 0; set < SETS; set++) {
+      models[set] = factory == null ? null : factory.create(ways);
+      for (int way = 0; way < ways; way++) {
+        policy.fill(set, way);
+        if (models[set] != null) {
+          models[set].fill(way);
+        }
+      }
+    }
+    for (int op = 0; op < 100000; op++) {
+      int set = random.nextInt(SETS);
+      Model model = models[set];
+      if (random.nextBoolean()) {
+        int way = random.nextInt(ways);
+        policy.hit(set, way);
+        if (model != null) {
+          model.hit(way);
+        }
+      }
+      else {
+        int victim = policy.victim(set);
+        Check.that(victim >= 0 && victim < ways, name + " victim " + victim + " out of range");
+        if (model != null) {
+          Check.equal(model.victim(), victim, name + " victim with " + ways + " ways, operation " + op);
+          model.fill(victim);
+        }
+        policy.fill(set, victim);
+      }
+    }
+  }
+
+  private static void treePlruSequence() {
+    ReplacementPolicy policy = ReplacementPolicy.create("treeplru", 1, 4);
+    for (int way = 0; way < 4; way++) {
+      policy.fill(0, way);
+    }
+    Check.equal(0, policy.victim(0), "tree PLRU after filling 0..3");
+    policy.hit(0, 0);
+    Check.equal(2, policy.victim(0), "tree PLRU after hitting 0");
+    policy.hit(0, 2);
+    Check.equal(1, policy.victim(0), "tree PLRU after hitting 2");
+    policy.hit(0, 1);
+    Check.equal(3, policy.victim(0), "tree PLRU after hitting 1");
+  }
+
+  private static void random() {
+    ReplacementPolicy a = new RandomPolicy(8, 5);
+    ReplacementPolicy b = new RandomPolicy(8, 5);
+    boolean[] seen = new boolean[8];
+    for (int i = 0; i < 1000; i++) {
+      int victim = a.victim(0);
+      Check.equal(victim, b.victim(0), "random victims with the same seed");
+      seen[victim] = true;
+    }
+    for (int way = 0; way < 8; way++) {
+      Check.that(seen[way], "random never picked way " + way);
+    }
+  }
+
+  private static void snapshot(String name, int ways) {
+    Random random = new Random(7);
+    ReplacementPolicy policy = ReplacementPolicy.create(name, SETS, ways);
+    for (int op = 0; op < 5000; op++) {
+      exercise(policy, random, ways, null);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(policy.snapshotSize());
+    policy.save(buffer);
+    Check.equal(policy.snapshotSize(), buffer.position(), name + " snapshot size");
+
+    long seed = random.nextLong();
+    List<Integer> expected = new ArrayList<>();
+    Random replay = new Random(seed);
+    for (int op = 0; op < 5000; op++) {
+      exercise(policy, replay, ways, expected);
+    }
+
+    ReplacementPolicy restored = ReplacementPolicy.create(name, SETS, ways);
+    buffer.flip();
+    restored.restore(buffer);
+    List<Integer> actual = new ArrayList<>();
+    replay = new Random(seed);
+    for (int op = 0; op < 5000; op++) {
+      exercise(restored, replay, ways, actual);
+    }
+    Check.equal(expected, actual, name + " victims after restore");
+  }
+
+  private static void exercise(ReplacementPolicy policy, Random random, int ways, List<Integer> victims) {
+    int set = random.nextInt(SETS);
+    if (random.nextBoolean()) {
+      policy.hit(set, random.nextInt(ways));
+      return;
+    }
+    int victim = policy.victim(set);
+    policy.fill(set, victim);
+    if (victims != null) {
+      victims.add(victim);
+    }
+  }
+
+  // Exact LRU as a list, most recently used first.
+  private static final class LruModel implements Model {
+    private final List<Integer> order = new ArrayList<>();
+
+    LruModel(int ways) {
+    }
+
+    public void hit(int way) {
+      order.remove(Integer.valueOf(way));
+      order.add(0, way);
+    }
+
+    public int victim() {
+      return order.get(order.size() - 1);
+    }
+
+    public void fill(int way) {
+      hit(way);
+    }
+  }
+
+  // One used bit per way; the lowest way without it is replaced, and the bits
+  // start over when the last one would be set, keeping only the touched way
+  // unless it is the only one.
+  private static final class BitPlruModel implements Model {
+    private final boolean[] used;
+
+    BitPlruModel(int ways) {
+      used = new boolean[ways];
+    }
+
+    public void hit(int way) {
+      used[way] = true;
+      for (boolean u : used) {
+        if (!u) {
+          return;
+        }
+      }
+      Arrays.fill(used, false);
+      used[way] = used.length > 1;
+    }
+
+    public int victim() {
+      for (int way = 0; way < used.length; way++) {
+        if (!used[way]) {
+          return way;
+        }
+      }
+      throw new AssertionError("all used bits set");
+    }
+
+    public void fill(int way) {
+      hit(way);
+    }
+  }
+
+  // Ways are replaced in the order they were filled; hits change nothing.
+  private static final class FifoModel implements Model {
+    private final List<Integer> queue = new ArrayList<>();
+
+    FifoModel(int ways) {
+    }
+
+    public void hit(int way) {
+    }
+
+    public int victim() {
+      return queue.get(0);
+    }
+
+    public void fill(int way) {
+      queue.remove(Integer.valueOf(way));
+      queue.add(way);
+    }
+  }
+
+  // A 2 bit re-reference prediction per way: 0 on a hit, 2 on a fill (or 3
+  // for 31 of every 32 fills when bimodal). The lowest way predicted 3 is
+  // replaced, after ageing all ways until one is.
+  private static final class RripModel implements Model {
+    private final int[] prediction;
+    private final boolean bimodal;
+    private final int[] fills;
+
+    RripModel(int ways, boolean bimodal, int[] fills) {
+      this.prediction = new int[ways];
+      this.bimodal = bimodal;
+      this.fills = fills;
+      Arrays.fill(prediction, 3);
+    }
+
+    public void hit(int way) {
+      prediction[way] = 0;
+    }
+
+    public int victim() {
+      while (true) {
+        for (int way = 0; way < prediction.length; way++) {
+          if (prediction[way] == 3) {
+            return way;
+          }
+        }
+        for (int way = 0; way < prediction.length; way++) {
+          prediction[way]++;
+        }
+      }
+    }
+
+    public void fill(int way) {
+      prediction[way] = bimodal && (++fills[0] % 32) != 0 ? 3 : 2;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Pulls the addresses of an access pattern from an {@link AddressSource} and
+ * submits them to the cache in chunks through {@link Cache#requestBatch}, so
+ * the cache model runs in a tight loop instead of one virtual call per access.
+ * The accesses can optionally be recorded to a trace file as well.
+ */
+class RequestBuffer {
+
+  static final int CHUNK = 4096;
+
+  private final Cache cache;
+  private final TraceRecorder recorder;
+  private final int[] addresses = new int[CHUNK];
+  private final byte[] operands = new byte[CHUNK];
+  private final boolean[] writes = new boolean[CHUNK];
+  private final long[] hitBitmap = new long[CHUNK / 64];
+  private long[] wide;
+
+  // Statistics
+  long requests;
+  long hits;
+
+  RequestBuffer(Cache cache) {
+    this(cache, null);
+  }
+
+  RequestBuffer(Cache cache, TraceRecorder recorder) {
+    this.cache = cache;
+    this.recorder = recorder;
+  }
+
+  /**
+   * Simulates every access of the source.
+   */
+  void run(AddressSource source) {
+    int count;
+    while ((count = source.fill(addresses, operands, 0, CHUNK)) > 0) {
+      for (int i = 0; i < count; i++) {
+        writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+      }
+      if (recorder != null) {
+        try {
+          recorder.write(addresses, operands, 0, count);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      hits += cache.requestBatch(addresses, writes, 0, count, hitBitmap);
+      requests += count;
+    }
+  }
+
+  /**
+   * Simulates every access of the source with 64 bit addresses.
+   */
+  void runWide(AddressSource source) {
+    if (wide == null) {
+      wide = new long[CHUNK];
+    }
+    int count;
+    while ((count = source.fill(wide, operands, 0, CHUNK)) > 0) {
+      for (int i = 0; i < count; i++) {
+        writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+      }
+      if (recorder != null) {
+        try {
+          recorder.write(wide, operands, 0, count);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      hits += cache.requestBatch(wide, writes, 0, count, hitBitmap);
+      requests += count;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/**
+ * Data1 access pattern (patroon2): B[i][j] is the sum of row i and column j
+ * of A. Each innermost iteration reads column j, then row i, then writes
+ * B[i][j].
+ */
+class RowColumnSumSource extends MatrixSource {
+
+  private int i;
+  private int j;
+
+  RowColumnSumSource(MemoryLayout layout) {
+    super(layout, 2 * layout.size() + 1);
+  }
+
+  protected void emit(int step, int at) {
+    if (step < size) {
+      put(at, A, step, j);
+    }
+    else if (step < 2 * size) {
+      put(at, A, i, step - size);
+    }
+    else {
+      putWrite(at, B, i, j);
+    }
+  }
+
+  protected boolean advance() {
+    if (++j == size) {
+      j = 0;
+      return ++i < size;
+    }
+    return true;
+  }
+}
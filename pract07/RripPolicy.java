@@ -0,0 +1,82 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Re-reference interval prediction (SRRIP en BRRIP) met een voorspelling van
+ * 2 bits per lijn. Een hit zet de voorspelling op 0; het slachtoffer is een
+ * lijn met voorspelling 3, nadat zo nodig alle lijnen van de set ouder zijn
+ * gemaakt. SRRIP laadt nieuwe blokken met 2, BRRIP met 3 en slechts een keer
+ * op 32 met 2.
+ *
+ * Per set wordt voor elke waarde een bitmasker van de ways bijgehouden, zodat
+ * het slachtoffer zoeken en het ouder maken O(1) zijn. Hoogstens 64 ways.
+ */
+class RripPolicy implements ReplacementPolicy {
+
+  private static final int MAX = 3;
+
+  private final boolean bimodal;
+  // masks[set * 4 + v]: ways met voorspelling v.
+  private final long[] masks;
+  private int fills;
+
+  RripPolicy(int sets, int ways, boolean bimodal) {
+    if (ways > 64) {
+      throw new IllegalArgumentException("RRIP supports at most 64 ways");
+    }
+    this.bimodal = bimodal;
+    this.masks = new long[sets * 4];
+    // Lege lijnen worden toch eerst gevuld; begin met alles op MAX.
+    long all = ways == 64 ? -1L : (1L << ways) - 1;
+    for (int set = 0; set < sets; set++) {
+      masks[set * 4 + MAX] = all;
+    }
+  }
+
+  public void hit(int set, int way) {
+    set(set, way, 0);
+  }
+
+  public int victim(int set) {
+    int m = set * 4;
+    if (masks[m + MAX] == 0) {
+      // Maak alle lijnen even veel ouder tot de oudste MAX bereikt.
+      int top = masks[m + 2] != 0 ? 2 : masks[m + 1] != 0 ? 1 : 0;
+      int age = MAX - top;
+      for (int v = MAX; v >= 0; v--) {
+        masks[m + v] = v - age >= 0 ? masks[m + v - age] : 0;
+      }
+    }
+    return Long.numberOfTrailingZeros(masks[m + MAX]);
+  }
+
+  public void fill(int set, int way) {
+    boolean distant = bimodal && (++fills & 31) != 0;
+    set(set, way, distant ? MAX : MAX - 1);
+  }
+
+  private void set(int set, int way, int value) {
+    int m = set * 4;
+    long bit = 1L << way;
+    masks[m] &= ~bit;
+    masks[m + 1] &= ~bit;
+    masks[m + 2] &= ~bit;
+    masks[m + 3] &= ~bit;
+    masks[m + value] |= bit;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + 8 * masks.length + 4;
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, masks.length / 4, bimodal ? 1 : 0);
+    CacheSnapshot.putLongs(out, masks);
+    out.putInt(fills);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, masks.length / 4, bimodal ? 1 : 0);
+    CacheSnapshot.getLongs(in, masks);
+    fills = in.getInt();
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Estimates the hit rate of a large set associative cache by simulating only
+ * 1 / k of its sets. Sets behave independently, so a random subset of them
+ * sees the same hit rate as the whole cache, give or take the variation
+ * between sets.
+ *
+ * The set index goes through a bijective hash on its bits; a set is sampled
+ * when the high bits of the hash are zero, which is one mask test per access.
+ * All other accesses are dropped there. The low bits of the hash are the
+ * index of the set in a cache with sets / k sets, so the sampled sets are
+ * packed without a table: the tag moves down next to that index. The offset
+ * within the line is dropped, since the cache only looks at the block.
+ *
+ * The hit rate is the ratio of the hits and the accesses of the sampled sets.
+ * Its 95% confidence interval follows from the variation of that ratio
+ * between the sets (normal approximation, corrected for sampling sets without
+ * replacement), so it needs a few dozen sampled sets. The write traffic is
+ * scaled by k.
+ *
+ * For validation a reference cache with all sets can run on the same chunks.
+ */
+class SetSampler {
+
+  // Quantile of the normal distribution for a 95% confidence interval.
+  private static final double Z = 1.96;
+
+  private final Cache sampled;
+  private final Cache reference;
+  private final int sampling;
+  private final int offsetBits;
+  private final int setBits;
+  private final int sampledBits;
+  private final int setMask;
+
+  // Accesses and hits per sampled set.
+  private final long[] setRequests;
+  private final long[] setHits;
+
+  long requests;
+  long sampledRequests;
+  long sampledHits;
+  long referenceHits;
+
+  /**
+   * @param sampled a cache with <code>sets / sampling</code> sets and the
+   *        line size and associativity of the cache to estimate.
+   * @param reference the full cache to compare with, or null.
+   * @param sets number of sets of the full cache.
+   * @param linesize line size of the caches.
+   * @param sampling k: one in k sets is simulated.
+   */
+  SetSampler(Cache sampled, Cache reference, int sets, int linesize, int sampling) {
+    if (Integer.bitCount(sets) != 1 || Integer.bitCount(linesize) != 1 || Integer.bitCount(sampling) != 1 || sampling > sets) {
+      throw new IllegalArgumentException("sets, linesize and sampling must be powers of 2, sampling no larger than the number of sets");
+    }
+    this.sampled = sampled;
+    this.reference = reference;
+    this.sampling = sampling;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.setBits = Integer.numberOfTrailingZeros(sets);
+    this.sampledBits = setBits - Integer.numberOfTrailingZeros(sampling);
+    this.setMask = sets - 1;
+    this.setRequests = new long[sets / sampling];
+    this.setHits = new long[sets / sampling];
+  }
+
+  // A bijection on the set bits: multiplying by an odd constant and a right
+  // xorshift can both be undone modulo 2^setBits.
+  private int hash(int set) {
+    int h = (set * 0x9E3779B1) & setMask;
+    h ^= h >>> ((setBits + 1) / 2);
+    return (h * 0x85EBCA6B) & setMask;
+  }
+
+  /**
+   * Simulates the sampled sets, and the reference cache if there is one.
+   */
+  void run(AddressSource source) {
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    boolean[] writes = new boolean[RequestBuffer.CHUNK];
+    int[] packed = new int[RequestBuffer.CHUNK];
+    boolean[] packedWrites = new boolean[RequestBuffer.CHUNK];
+    int[] packedSets = new int[RequestBuffer.CHUNK];
+    long[] hitBitmap = new long[RequestBuffer.CHUNK / 64];
+    int count;
+    while ((count = source.fill(addresses, operands, 0, RequestBuffer.CHUNK)) > 0) {
+      int kept = 0;
+      for (int i = 0; i < count; i++) {
+        long block = (addresses[i] & 0xffffffffL) >>> offsetBits;
+        int h = hash((int) block & setMask);
+        if (h >>> sampledBits != 0) {
+          continue;
+        }
+        packed[kept] = (int) (((block >>> setBits << sampledBits) | h) << offsetBits);
+        packedWrites[kept] = (operands[i] & AddressSource.WRITE) != 0;
+        packedSets[kept] = h;
+        kept++;
+      }
+      account(sampled.requestBatch(packed, packedWrites, 0, kept, hitBitmap), packedSets, kept, hitBitmap);
+      if (reference != null) {
+        for (int i = 0; i < count; i++) {
+          writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+        }
+        referenceHits += reference.requestBatch(addresses, writes, 0, count, null);
+      }
+      requests += count;
+    }
+  }
+
+  /**
+   * As {@link #run}, with 64 bit addresses.
+   */
+  void runWide(AddressSource source) {
+    long[] addresses = new long[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    boolean[] writes = new boolean[RequestBuffer.CHUNK];
+    long[] packed = new long[RequestBuffer.CHUNK];
+    boolean[] packedWrites = new boolean[RequestBuffer.CHUNK];
+    int[] packedSets = new int[RequestBuffer.CHUNK];
+    long[] hitBitmap = new long[RequestBuffer.CHUNK / 64];
+    int count;
+    while ((count = source.fill(addresses, operands, 0, RequestBuffer.CHUNK)) > 0) {
+      int kept = 0;
+      for (int i = 0; i < count; i++) {
+        long block = addresses[i] >>> offsetBits;
+        int h = hash((int) block & setMask);
+        if (h >>> sampledBits != 0) {
+          continue;
+        }
+        packed[kept] = ((block >>> setBits << sampledBits) | h) << offsetBits;
+        packedWrites[kept] = (operands[i] & AddressSource.WRITE) != 0;
+        packedSets[kept] = h;
+        kept++;
+      }
+      account(sampled.requestBatch(packed, packedWrites, 0, kept, hitBitmap), packedSets, kept, hitBitmap);
+      if (reference != null) {
+        for (int i = 0; i < count; i++) {
+          writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+        }
+        referenceHits += reference.requestBatch(addresses, writes, 0, count, null);
+      }
+      requests += count;
+    }
+  }
+
+  private void account(int hits, int[] sets, int kept, long[] hitBitmap) {
+    for (int i = 0; i < kept; i++) {
+      setRequests[sets[i]]++;
+      setHits[sets[i]] += (hitBitmap[i >>> 6] >>> i) & 1;
+    }
+    sampledRequests += kept;
+    sampledHits += hits;
+  }
+
+  /**
+   * @return the estimated hit rate of the full cache.
+   */
+  double hitRate() {
+    return sampledRequests == 0 ? 0 : (double) sampledHits / sampledRequests;
+  }
+
+  /**
+   * @return half the width of the 95% confidence interval of the hit rate,
+   *         or NaN with fewer than two sampled sets.
+   */
+  double confidence() {
+    int n = setRequests.length;
+    if (n < 2 || sampledRequests == 0) {
+      return Double.NaN;
+    }
+    double rate = hitRate();
+    double mean = (double) sampledRequests / n;
+    double sum = 0;
+    for (int s = 0; s < n; s++) {
+      double residual = setHits[s] - rate * setRequests[s];
+      sum += residual * residual;
+    }
+    double variance = sum / (n - 1) / (n * mean * mean) * (1 - 1.0 / sampling);
+    return Z * Math.sqrt(variance);
+  }
+
+  /**
+   * @return the estimated hits of the full cache.
+   */
+  long hits() {
+    return Math.round(hitRate() * requests);
+  }
+
+  /**
+   * @return the estimated write traffic of the full cache in bytes.
+   */
+  long writebackBytes() {
+    return sampled.writebackBytes() * sampling;
+  }
+}
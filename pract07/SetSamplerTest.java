@@ -0,0 +1,71 @@
+import java.util.Random;
+
+/**
+ * Checks that the 95% confidence interval of set sampling covers the hit
+ * rate of the full cache in about 95% of the runs, over random workloads
+ * whose sets differ in load and hit rate.
+ */
+class SetSamplerTest {
+
+  private static final int SETS = 1024;
+  private static final int LINESIZE = 32;
+  private static final int ASSOC = 4;
+  private static final int SAMPLING = 8;
+  private static final int RUNS = 60;
+
+  public static void main(String[] args) {
+    int covered = 0;
+    for (int run = 0; run < RUNS; run++) {
+      Cache sampled = new NWayAssociativeCache(SETS / SAMPLING, LINESIZE, ASSOC);
+      Cache reference = new NWayAssociativeCache(SETS, LINESIZE, ASSOC);
+      SetSampler sampler = new SetSampler(sampled, reference, SETS, LINESIZE, SAMPLING);
+      sampler.run(workload(new Random(run), 100000));
+      Check.equal(100000, sampler.requests, "requests");
+      double full = (double) sampler.referenceHits / sampler.requests;
+      double error = Math.abs(sampler.hitRate() - full);
+      Check.that(error < 0.05, "run " + run + ": estimate " + sampler.hitRate() + " far from " + full);
+      if (error <= sampler.confidence()) {
+        covered++;
+      }
+    }
+    // Binomial(60, 0.95): at most 50 covered runs has a probability below
+    // 0.1%, so a failure means the interval is too narrow.
+    Check.that(covered > 50, "the interval covered the full hit rate in " + covered + " of " + RUNS + " runs");
+  }
+
+  // Random accesses over twice the capacity of the cache, half of them to an
+  // eighth of the lines, with the hot lines spread over the sets by a random
+  // permutation.
+  private static AddressSource workload(Random random, int accesses) {
+    int lines = 2 * SETS * ASSOC;
+    int[] permutation = new int[lines];
+    for (int i = 0; i < lines; i++) {
+      int j = random.nextInt(i + 1);
+      permutation[i] = permutation[j];
+      permutation[j] = i;
+    }
+    return new AddressSource() {
+      int left = accesses;
+
+      public int fill(int[] addresses, byte[] operands, int off, int len) {
+        int n = Math.min(len, left);
+        for (int i = 0; i < n; i++) {
+          int line = permutation[random.nextInt(random.nextBoolean() ? lines / 8 : lines)];
+          addresses[off + i] = line * LINESIZE + 4 * random.nextInt(LINESIZE / 4);
+          operands[off + i] = random.nextInt(8) == 0 ? AddressSource.WRITE : 0;
+        }
+        left -= n;
+        return n;
+      }
+
+      public int fill(long[] addresses, byte[] operands, int off, int len) {
+        int[] narrow = new int[off + len];
+        int n = fill(narrow, operands, off, len);
+        for (int i = off; i < off + n; i++) {
+          addresses[i] = narrow[i];
+        }
+        return n;
+      }
+    };
+  }
+}
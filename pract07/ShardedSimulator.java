@@ -0,0 +1,128 @@
+/**
+ * Simulates one large N-way set associative cache on several threads. Sets
+ * are independent, so the low bits of the set index select one of K shards,
+ * each an NWayAssociativeCache with sets / K sets owned by a worker thread.
+ * The calling thread routes every address to its shard; addresses travel in
+ * chunks over a pair of lock-free SPSC queues per shard (full chunks to the
+ * worker, empty ones back). Because every set sees its accesses in the
+ * original order, the hit counts and the write traffic equal those of the
+ * sequential simulator.
+ */
+class ShardedSimulator {
+
+  private static final int CHUNKS_PER_SHARD = 8;
+
+  // A chunk of accesses for one shard; count -1 tells the worker to stop.
+  private static final class Chunk {
+    final int[] addresses = new int[RequestBuffer.CHUNK];
+    final boolean[] writes = new boolean[RequestBuffer.CHUNK];
+    int count;
+  }
+
+  private final class Shard extends Thread {
+    final NWayAssociativeCache cache;
+    final SpscQueue<Chunk> full = new SpscQueue<Chunk>(CHUNKS_PER_SHARD);
+    final SpscQueue<Chunk> free = new SpscQueue<Chunk>(CHUNKS_PER_SHARD);
+    Chunk current;
+    long requests;
+    long hits;
+
+    Shard(int index) {
+      super("shard-" + index);
+      setDaemon(true);
+      cache = new NWayAssociativeCache(sets >>> shardBits, linesize, associativity, ReplacementPolicy.create(policy, sets >>> shardBits, associativity));
+      cache.setWritePolicy(writeBack, writeAllocate);
+      for (int i = 0; i < CHUNKS_PER_SHARD - 1; i++) {
+        free.offer(new Chunk());
+      }
+      current = new Chunk();
+    }
+
+    public void run() {
+      Chunk chunk;
+      while ((chunk = full.take()).count >= 0) {
+        hits += cache.requestBatch(chunk.addresses, chunk.writes, 0, chunk.count, null);
+        requests += chunk.count;
+        free.put(chunk);
+      }
+    }
+  }
+
+  private final int sets;
+  private final int linesize;
+  private final int associativity;
+  private final String policy;
+  private final boolean writeBack;
+  private final boolean writeAllocate;
+  private final int shardBits;
+  private final int offsetBits;
+  private final int offsetMask;
+
+  long requests;
+  long hits;
+  long writebackBytes;
+
+  ShardedSimulator(int sets, int linesize, int associativity, String policy, boolean writeBack, boolean writeAllocate, int shards) {
+    if (Integer.bitCount(shards) != 1 || shards > sets) {
+      throw new IllegalArgumentException("shards must be a power of 2 no larger than the number of sets");
+    }
+    this.sets = sets;
+    this.linesize = linesize;
+    this.associativity = associativity;
+    this.policy = policy;
+    this.writeBack = writeBack;
+    this.writeAllocate = writeAllocate;
+    this.shardBits = Integer.numberOfTrailingZeros(shards);
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.offsetMask = linesize - 1;
+  }
+
+  void run(AddressSource source) {
+    Shard[] shards = new Shard[1 << shardBits];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(i);
+      shards[i].start();
+    }
+
+    int shardMask = shards.length - 1;
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    int count;
+    while ((count = source.fill(addresses, operands, 0, addresses.length)) > 0) {
+      for (int i = 0; i < count; i++) {
+        int address = addresses[i];
+        Shard shard = shards[(address >>> offsetBits) & shardMask];
+        // Drop the shard bits from the set index: the rest of the set index
+        // and the tag move down, the offset stays.
+        Chunk chunk = shard.current;
+        chunk.writes[chunk.count] = (operands[i] & AddressSource.WRITE) != 0;
+        chunk.addresses[chunk.count++] = ((address >>> (offsetBits + shardBits)) << offsetBits) | (address & offsetMask);
+        if (chunk.count == chunk.addresses.length) {
+          shard.full.put(chunk);
+          chunk = shard.free.take();
+          chunk.count = 0;
+          shard.current = chunk;
+        }
+      }
+    }
+
+    for (Shard shard : shards) {
+      shard.full.put(shard.current);
+      Chunk stop = new Chunk();
+      stop.count = -1;
+      shard.full.put(stop);
+    }
+    for (Shard shard : shards) {
+      try {
+        shard.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      requests += shard.requests;
+      hits += shard.hits;
+      writebackBytes += shard.cache.writebackBytes();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Checks that a restored cache, with every layer that can be put in front of
+ * it, continues exactly like the cache that was saved.
+ */
+class SnapshotTest {
+
+  private static final int LINE = 16;
+
+  public static void main(String[] args) {
+    roundTrip("direct mapped", () -> new DirectMappedCache(64, LINE));
+    roundTrip("fully associative", () -> new FullyAssociativeCache(64, LINE));
+    roundTrip("v-way", () -> new VWayCache(16, LINE, 4, 2));
+    roundTrip("hierarchy", () -> new CacheHierarchy(new Cache[] { new NWayAssociativeCache(8, LINE, 2), new NWayAssociativeCache(32, LINE, 4) }, CacheHierarchy.Inclusion.INCLUSIVE));
+    roundTrip("victim", () -> new VictimCache(nway(), LINE, 4));
+    roundTrip("timing", () -> new TimingCache(nway(), LINE, new int[] { 4, 200 }, null, 4));
+    for (PrefetchingCache.Kind kind : PrefetchingCache.Kind.values()) {
+      roundTrip("prefetch " + kind, () -> new PrefetchingCache(nway(), LINE, kind, 2));
+    }
+    roundTrip("classifier", () -> new MissClassifier(new VictimCache(nway(), LINE, 4), 64 + 4, LINE));
+
+    ByteBuffer buffer = save(new VictimCache(nway(), LINE, 4));
+    Check.fails(IllegalArgumentException.class, () -> new VictimCache(nway(), LINE, 8).restore(buffer), "victim cache of another size");
+    buffer.rewind();
+    Check.fails(IllegalArgumentException.class, () -> nway().restore(buffer), "a cache without the victim cache");
+  }
+
+  private static NWayAssociativeCache nway() {
+    return new NWayAssociativeCache(16, LINE, 4);
+  }
+
+  private static void roundTrip(String name, Supplier<Cache> factory) {
+    Random random = new Random(name.hashCode());
+    Cache original = factory.get();
+    run(original, random, 20000);
+    ByteBuffer buffer = save(original);
+
+    long seed = random.nextLong();
+    List<Long> expected = run(original, new Random(seed), 20000);
+    Cache restored = factory.get();
+    restored.restore(buffer);
+    Check.that(!buffer.hasRemaining(), name + ": restore read the whole snapshot");
+    List<Long> actual = run(restored, new Random(seed), 20000);
+    Check.equal(expected, actual, name + ": results after restore");
+  }
+
+  private static ByteBuffer save(Cache cache) {
+    ByteBuffer buffer = ByteBuffer.allocate(cache.snapshotSize()).order(CacheSnapshot.ORDER);
+    cache.save(buffer);
+    Check.equal(cache.snapshotSize(), buffer.position(), cache.getClass().getSimpleName() + ": snapshot size");
+    buffer.flip();
+    return buffer;
+  }
+
+  // Runs a mix of sequential, strided and random accesses and returns what
+  // the cache reported: per access the hit and the replaced block, and how
+  // much the statistics of every layer grew.
+  private static List<Long> run(Cache cache, Random random, int accesses) {
+    List<Long> results = new ArrayList<>();
+    List<Long> before = statistics(cache);
+    long address = 0;
+    for (int i = 0; i < accesses; i++) {
+      int kind = random.nextInt(8);
+      if (kind < 4) {
+        address += 4;
+      }
+      else if (kind < 6) {
+        address += 4 * LINE;
+      }
+      else {
+        address = random.nextInt(1 << 14);
+      }
+      boolean hit = cache.request(address, random.nextInt(4) == 0);
+      results.add(hit ? 1L : 0L);
+      results.add(cache.hasEvicted() ? cache.evicted() : -1);
+    }
+    List<Long> after = statistics(cache);
+    for (int i = 0; i < after.size(); i++) {
+      results.add(after.get(i) - before.get(i));
+    }
+    return results;
+  }
+
+  private static List<Long> statistics(Cache cache) {
+    List<Long> counts = new ArrayList<>();
+    if (cache instanceof MissClassifier) {
+      MissClassifier c = (MissClassifier) cache;
+      counts.add(c.compulsoryMisses());
+      counts.add(c.capacityMisses());
+      counts.add(c.conflictMisses());
+    }
+    else if (cache instanceof VictimCache) {
+      VictimCache c = (VictimCache) cache;
+      counts.add(c.victimHits());
+      counts.add(c.swaps());
+    }
+    else if (cache instanceof TimingCache) {
+      TimingCache c = (TimingCache) cache;
+      counts.add(c.stallCycles());
+      counts.add(c.secondaryMisses());
+    }
+    else if (cache instanceof PrefetchingCache) {
+      PrefetchingCache c = (PrefetchingCache) cache;
+      counts.add(c.prefetches());
+      counts.add(c.pollution());
+    }
+    counts.add(cache.writebackBytes());
+    return counts;
+  }
+}
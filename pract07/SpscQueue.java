@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. The producer only writes <code>tail</code> and the consumer only
+ * writes <code>head</code>; ordered stores publish the slots.
+ */
+class SpscQueue<E> {
+
+  private final Object[] slots;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  SpscQueue(int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of 2");
+    }
+    slots = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * @return false if the queue is full.
+   */
+  boolean offer(E e) {
+    long t = tail.get();
+    if (t - head.get() == slots.length) {
+      return false;
+    }
+    slots[(int) t & mask] = e;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * @return the oldest element, or null if the queue is empty.
+   */
+  @SuppressWarnings("unchecked")
+  E poll() {
+    long h = head.get();
+    if (h == tail.get()) {
+      return null;
+    }
+    int i = (int) h & mask;
+    E e = (E) slots[i];
+    slots[i] = null;
+    head.lazySet(h + 1);
+    return e;
+  }
+
+  /**
+   * Spins until the element is accepted.
+   */
+  void put(E e) {
+    while (!offer(e)) {
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Spins until an element is available.
+   */
+  E take() {
+    E e;
+    while ((e = poll()) == null) {
+      Thread.yield();
+    }
+    return e;
+  }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Mattson stack distance engine for fully associative LRU caches.
+ *
+ * The LRU stack distance of an access is the number of distinct lines
+ * referenced since the previous access to the same line. An access hits in an
+ * LRU cache of C lines exactly when its distance is smaller than C, so one pass
+ * over a workload gives the hit count of every capacity at once.
+ *
+ * Every line keeps a mark at the time of its most recent access in a Fenwick
+ * tree; the distance is the number of marks between the previous and the
+ * current access, found in O(log N). Times are renumbered when the tree is
+ * full, so its size stays proportional to the number of distinct lines.
+ */
+class StackDistance {
+
+  private final int offsetBits;
+
+  // Time of the last access per line.
+  private final LongIntMap last = new LongIntMap(1 << 16);
+  // Fenwick tree over times 1..tree.length-1 with one mark per line.
+  private int[] tree = new int[1 << 16];
+  private int now;
+
+  // histogram[b]: accesses that hit in a cache of 2^b lines but not 2^(b-1).
+  private final long[] histogram = new long[33];
+  private long coldMisses;
+  private long accesses;
+
+  StackDistance(int linesize) {
+    if (Integer.bitCount(linesize) != 1) {
+      throw new IllegalArgumentException("linesize must be a power of 2");
+    }
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+  }
+
+  void run(AddressSource source) {
+    int[] addresses = new int[RequestBuffer.CHUNK];
+    byte[] operands = new byte[RequestBuffer.CHUNK];
+    int count;
+    while ((count = source.fill(addresses, operands, 0, addresses.length)) > 0) {
+      for (int i = 0; i < count; i++) {
+        access(addresses[i]);
+      }
+    }
+  }
+
+  void access(int address) {
+    long line = address >>> offsetBits;
+    if (now + 1 == tree.length) {
+      compact();
+    }
+    now++;
+    accesses++;
+
+    int previous = last.get(line, 0);
+    if (previous == 0) {
+      coldMisses++;
+    }
+    else {
+      int distance = prefix(now - 1) - prefix(previous);
+      histogram[32 - Integer.numberOfLeadingZeros(distance)]++;
+      add(previous, -1);
+    }
+    add(now, 1);
+    last.put(line, now);
+  }
+
+  long accesses() {
+    return accesses;
+  }
+
+  long coldMisses() {
+    return coldMisses;
+  }
+
+  long distinctLines() {
+    return last.size();
+  }
+
+  /**
+   * @return the number of hits in a fully associative LRU cache of
+   *         <code>2^log2Lines</code> lines.
+   */
+  long hits(int log2Lines) {
+    long hits = 0;
+    for (int b = 0; b <= log2Lines && b < histogram.length; b++) {
+      hits += histogram[b];
+    }
+    return hits;
+  }
+
+  private int prefix(int time) {
+    int sum = 0;
+    for (int i = time; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  private void add(int time, int delta) {
+    for (int i = time; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  // Renumbers the live marks to 1..lines, keeping their order, and rebuilds
+  // the tree with room for at least as many new accesses.
+  private void compact() {
+    int lines = last.size();
+    int[] times = new int[lines];
+    last.values(times);
+    Arrays.sort(times);
+
+    int[] rank = new int[now + 1];
+    for (int r = 0; r < lines; r++) {
+      rank[times[r]] = r + 1;
+    }
+    last.remapValues(rank);
+
+    int size = tree.length;
+    while (size < 2 * (lines + 1)) {
+      size *= 2;
+    }
+    tree = new int[size];
+    for (int t = 1; t <= lines; t++) {
+      add(t, 1);
+    }
+    now = lines;
+  }
+}
@@ -0,0 +1,54 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the distance histogram of StackDistance against a naive LRU stack,
+ * over streams long enough to renumber the Fenwick tree several times.
+ */
+class StackDistanceTest {
+
+  private static final int LINESIZE = 32;
+
+  public static void main(String[] args) {
+    // Mostly sequential sweeps with random jumps: small and large distances.
+    compare(new Random(1), 1500, 150000);
+    // Few lines, so the tree is renumbered to a small size over and over.
+    compare(new Random(2), 3, 200000);
+    compare(new Random(3), 1, 1000);
+  }
+
+  private static void compare(Random random, int lines, int accesses) {
+    StackDistance engine = new StackDistance(LINESIZE);
+    // Most recently used line first.
+    List<Integer> stack = new ArrayList<>();
+    long[] histogram = new long[33];
+    long cold = 0;
+
+    int line = 0;
+    for (int n = 0; n < accesses; n++) {
+      line = random.nextInt(4) == 0 ? random.nextInt(lines) : (line + 1) % lines;
+      int address = line * LINESIZE + random.nextInt(LINESIZE);
+      engine.access(address);
+
+      int distance = stack.indexOf(line);
+      if (distance < 0) {
+        cold++;
+      }
+      else {
+        stack.remove(distance);
+        histogram[32 - Integer.numberOfLeadingZeros(distance)]++;
+      }
+      stack.add(0, line);
+    }
+
+    Check.equal(accesses, engine.accesses(), "accesses");
+    Check.equal(cold, engine.coldMisses(), "cold misses");
+    Check.equal(stack.size(), engine.distinctLines(), "distinct lines");
+    long hits = 0;
+    for (int b = 0; b <= 32; b++) {
+      hits += histogram[b];
+      Check.equal(hits, engine.hits(b), "hits in a cache of 2^" + b + " lines, " + lines + " lines");
+    }
+  }
+}
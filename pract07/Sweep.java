@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates many cache configurations over the same address stream. The
+ * stream is generated or decoded once, a block at a time, and every block is
+ * fed to all configurations in parallel on a fork/join pool, one task per
+ * configuration, so memory stays bounded for traces of any length. Writes
+ * in the stream are writes for every configuration, which all share one
+ * write policy.
+ */
+class Sweep {
+
+  // Accesses handed to the configurations per round.
+  private static final int BLOCK = RequestBuffer.CHUNK * 16;
+
+  /**
+   * One simulated configuration and its outcome.
+   */
+  static final class Result {
+    final String workload;
+    final int blocks;
+    final int linesize;
+    final int assoc;
+    long requests;
+    long hits;
+    long writebackBytes;
+
+    Result(String workload, int blocks, int linesize, int assoc) {
+      this.workload = workload;
+      this.blocks = blocks;
+      this.linesize = linesize;
+      this.assoc = assoc;
+    }
+  }
+
+  private final String policy;
+  private final boolean writeBack;
+  private final boolean writeAllocate;
+  private final int threads;
+
+  // The configurations of the workload being simulated and the current block.
+  private final List<Result> results = new ArrayList<Result>();
+  private final List<Cache> caches = new ArrayList<Cache>();
+  private final int[] addresses = new int[BLOCK];
+  private final boolean[] writes = new boolean[BLOCK];
+  private int count;
+
+  /**
+   * @param policy name of the replacement policy of every cache.
+   * @param writeBack write-back rather than write-through.
+   * @param writeAllocate whether a write miss loads the block.
+   * @param threads number of workers.
+   */
+  Sweep(String policy, boolean writeBack, boolean writeAllocate, int threads) {
+    this.policy = policy;
+    this.writeBack = writeBack;
+    this.writeAllocate = writeAllocate;
+    this.threads = threads;
+  }
+
+  /**
+   * Simulates every combination of the given sizes for one workload and
+   * returns the results in order. Combinations with an associativity larger
+   * than the number of blocks are skipped.
+   */
+  List<Result> run(String workload, AddressSource source, int[] blocks, int[] linesizes, int[] assocs) {
+    results.clear();
+    caches.clear();
+    for (int b : blocks) {
+      for (int l : linesizes) {
+        for (int a : assocs) {
+          if (a <= b) {
+            int sets = b / a;
+            NWayAssociativeCache cache = new NWayAssociativeCache(sets, l, a, ReplacementPolicy.create(policy, sets, a));
+            cache.setWritePolicy(writeBack, writeAllocate);
+            results.add(new Result(workload, b, l, a));
+            caches.add(cache);
+          }
+        }
+      }
+    }
+
+    byte[] operands = new byte[BLOCK];
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      while ((count = source.fill(addresses, operands, 0, BLOCK)) > 0) {
+        for (int i = 0; i < count; i++) {
+          writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+        }
+        pool.invoke(new Task(0, results.size()));
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+    for (int i = 0; i < results.size(); i++) {
+      results.get(i).writebackBytes = caches.get(i).writebackBytes();
+    }
+    return new ArrayList<Result>(results);
+  }
+
+  // Feeds the current block to one configuration.
+  private void simulate(int index) {
+    Result result = results.get(index);
+    Cache cache = caches.get(index);
+    for (int from = 0; from < count; from += RequestBuffer.CHUNK) {
+      result.hits += cache.requestBatch(addresses, writes, from, Math.min(count, from + RequestBuffer.CHUNK), null);
+    }
+    result.requests += count;
+  }
+
+  // Splits the range of configurations until a single one is left.
+  private final class Task extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    Task(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from == 1) {
+        simulate(from);
+      }
+      else if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Task(from, mid), new Task(mid, to));
+      }
+    }
+  }
+}
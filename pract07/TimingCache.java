@@ -0,0 +1,291 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * Cache die de tijd simuleert van de aanvragen aan een andere cache. De
+ * processor stuurt elke cyclus een aanvraag; hij wacht niet op een hit of een
+ * misser, maar een misser bezet een MSHR tot het blok er is. Zijn alle MSHR's
+ * bezet, dan wacht de processor tot de eerste vrijkomt. Een aanvraag voor een
+ * blok waarvoor al een misser onderweg is (een secundaire misser), krijgt geen
+ * eigen MSHR maar wacht op dat blok.
+ *
+ * Een latentie is de tijd van aanvraag tot antwoord, per niveau dat de
+ * aanvraag beantwoordt: L1, eventueel L2, ..., en als laatste het geheugen.
+ * Voor een enkele cache zijn dat de latentie van een hit en van een misser.
+ *
+ * De simulatie is gebeurtenisgestuurd: ze rekent per aanvraag met
+ * tijdstippen in plaats van cyclus per cyclus. Een hit kost een opzoeking in
+ * een kleine direct gemapte tabel van blokken die onderweg zijn; enkel een
+ * misser overloopt de MSHR's. Een botsing in die tabel vergeet een blok dat
+ * onderweg is, zodat een secundaire misser zelden als gewone hit telt.
+ *
+ * Naast het totaal aantal cycli worden bijgehouden:
+ * <ul>
+ * <li>AMAT: de gemiddelde tijd van aanvraag tot antwoord, inclusief het
+ * wachten op een vrije MSHR;</li>
+ * <li>MLP: het gemiddeld aantal missers onderweg, over de cycli waarin er
+ * minstens een onderweg is.</li>
+ * </ul>
+ *
+ * Een snapshot bewaart de missers die nog onderweg zijn, met hun tijdstippen
+ * ten opzichte van de volgende aanvraag: een herstelde simulatie begint bij
+ * cyclus 0 en wacht nog op die missers.
+ */
+public class TimingCache implements Cache {
+
+  private final Cache cache;
+  private final IntSupplier servedBy;
+  private final int[] latencies;
+  private final int offsetBits;
+
+  // Tijdstip waarop elke MSHR vrijkomt, en het laatste daarvan.
+  private final long[] mshrs;
+  private long busyUntil;
+  // Blokken onderweg, direct gemapt, met het tijdstip waarop ze er zijn.
+  private final long[] pendingBlock;
+  private final long[] pendingReady;
+  private final int pendingMask;
+
+  // Tijdstip waarop de volgende aanvraag vertrekt, en het laatste antwoord.
+  private long now;
+  private long end;
+
+  private long requests;
+  private long latency;
+  private long stalls;
+  private long primary;
+  private long secondary;
+  // Som van de tijd onderweg van alle missers, en het aantal cycli waarin
+  // minstens een misser onderweg was.
+  private long missCycles;
+  private long busyCycles;
+
+  /**
+   * @param cache de cache waarvan de aanvragen getimed worden.
+   * @param linesize de lijngrootte van (het eerste niveau van) die cache.
+   * @param latencies de latentie per niveau, met het geheugen als laatste.
+   * @param servedBy geeft na een aanvraag het niveau dat ze beantwoordde, met
+   *     <code>latencies.length - 1</code> voor het geheugen; null voor een
+   *     enkele cache.
+   * @param mshrs het aantal MSHR's.
+   */
+  public TimingCache(Cache cache, int linesize, int[] latencies, IntSupplier servedBy, int mshrs) {
+    if (Integer.bitCount(linesize) != 1 || mshrs < 1 || latencies.length < 2 || (servedBy == null && latencies.length != 2)) {
+      throw new IllegalArgumentException("linesize must be a power of 2, mshrs positive, and a single cache needs 2 latencies");
+    }
+    for (int l : latencies) {
+      if (l < 1) {
+        throw new IllegalArgumentException("latencies must be positive");
+      }
+    }
+    this.cache = cache;
+    this.servedBy = servedBy;
+    this.latencies = latencies.clone();
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.mshrs = new long[mshrs];
+    int table = Integer.highestOneBit(mshrs * 4 - 1) << 1;
+    this.pendingBlock = new long[table];
+    this.pendingReady = new long[table];
+    this.pendingMask = table - 1;
+    Arrays.fill(pendingBlock, -1);
+  }
+
+  /**
+   * Maakt de latenties uit een specificatie zoals <code>4,12,200</code>.
+   */
+  static int[] latencies(String spec) {
+    String[] parts = spec.split(",");
+    int[] latencies = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      latencies[i] = Integer.parseInt(parts[i].trim());
+    }
+    return latencies;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 3) + 8 * mshrs.length + 8 + 8 * pendingBlock.length + 8 * pendingReady.length + 8 + cache.snapshotSize();
+  }
+
+  /**
+   * Schrijft de MSHR's en de blokken onderweg, en daarna de cache.
+   */
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, mshrs.length, pendingBlock.length, 1 << offsetBits);
+    for (long t : mshrs) {
+      out.putLong(Math.max(0, t - now));
+    }
+    out.putLong(Math.max(0, busyUntil - now));
+    CacheSnapshot.putLongs(out, pendingBlock);
+    for (long t : pendingReady) {
+      out.putLong(Math.max(0, t - now));
+    }
+    out.putLong(Math.max(0, end - now));
+    cache.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, mshrs.length, pendingBlock.length, 1 << offsetBits);
+    CacheSnapshot.getLongs(in, mshrs);
+    busyUntil = in.getLong();
+    CacheSnapshot.getLongs(in, pendingBlock);
+    CacheSnapshot.getLongs(in, pendingReady);
+    end = in.getLong();
+    now = 0;
+    cache.restore(in);
+  }
+
+  public boolean request(int address) {
+    if (address == -1) {
+      cache.request(-1);
+      return false;
+    }
+    return access(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return access(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    return access(address, write);
+  }
+
+  private boolean access(long address, boolean write) {
+    boolean hit = cache.request(address, write);
+    int memory = latencies.length - 1;
+    int level;
+    if (servedBy == null) {
+      level = hit ? 0 : memory;
+    }
+    else {
+      // Een hit die geen niveau van de hierarchie beantwoordde (bv. in een
+      // victim cache) krijgt de latentie van het laatste niveau.
+      level = hit ? Math.min(servedBy.getAsInt(), memory - 1) : memory;
+    }
+
+    long issue = now;
+    long ready;
+    long block = address >>> offsetBits;
+    int slot = (int) ((block * 0x9E3779B97F4A7C15L) >>> 40) & pendingMask;
+    if (busyUntil > now && pendingBlock[slot] == block && pendingReady[slot] > now) {
+      // Secundaire misser: wacht op het blok dat al onderweg is.
+      secondary++;
+      ready = Math.max(pendingReady[slot], now + latencies[0]);
+    }
+    else if (level == 0) {
+      ready = now + latencies[0];
+    }
+    else {
+      // Primaire misser: neem de MSHR die eerst vrij is, zo nodig na wachten.
+      primary++;
+      int free = 0;
+      for (int i = 1; i < mshrs.length; i++) {
+        free = mshrs[i] < mshrs[free] ? i : free;
+      }
+      if (mshrs[free] > now) {
+        stalls += mshrs[free] - now;
+        now = mshrs[free];
+      }
+      ready = now + latencies[level];
+      mshrs[free] = ready;
+      pendingBlock[slot] = block;
+      pendingReady[slot] = ready;
+
+      // De missers vertrekken in volgorde, dus de cycli met een misser
+      // onderweg groeien enkel aan het einde.
+      missCycles += ready - now;
+      busyCycles += Math.max(0, ready - Math.max(now, busyUntil));
+      busyUntil = Math.max(busyUntil, ready);
+    }
+
+    requests++;
+    latency += ready - issue;
+    end = Math.max(end, ready);
+    now++;
+    return hit;
+  }
+
+  /**
+   * @return het aantal cycli tot het antwoord op de laatste aanvraag.
+   */
+  long cycles() {
+    return Math.max(now, end);
+  }
+
+  /**
+   * @return de gemiddelde tijd van aanvraag tot antwoord in cycli.
+   */
+  double amat() {
+    return requests == 0 ? 0 : (double) latency / requests;
+  }
+
+  /**
+   * @return het gemiddeld aantal missers onderweg wanneer er een onderweg is.
+   */
+  double mlp() {
+    return busyCycles == 0 ? 0 : (double) missCycles / busyCycles;
+  }
+
+  /**
+   * @return het aantal cycli dat de processor op een vrije MSHR wachtte.
+   */
+  long stallCycles() {
+    return stalls;
+  }
+
+  long primaryMisses() {
+    return primary;
+  }
+
+  long secondaryMisses() {
+    return secondary;
+  }
+
+  public boolean hasEvicted() {
+    return cache.hasEvicted();
+  }
+
+  public long evicted() {
+    return cache.evicted();
+  }
+
+  public boolean evictedDirty() {
+    return cache.evictedDirty();
+  }
+
+  public int evictions() {
+    return cache.evictions();
+  }
+
+  public long evicted(int i) {
+    return cache.evicted(i);
+  }
+
+  public boolean evictedDirty(int i) {
+    return cache.evictedDirty(i);
+  }
+
+  public boolean invalidate(long address) {
+    return cache.invalidate(address);
+  }
+
+  public boolean probe(long address) {
+    return cache.probe(address);
+  }
+
+  /**
+   * Het laden kost geen tijd: het is geen aanvraag van het programma.
+   */
+  public void fill(long address, boolean dirty) {
+    cache.fill(address, dirty);
+  }
+
+  public long writebackBytes() {
+    return cache.writebackBytes();
+  }
+
+  public void dump() {
+    cache.dump();
+  }
+}
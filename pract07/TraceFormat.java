@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary address trace format.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "CTRC"
+ *      4     2  version (1)
+ *      6     2  address width in bits (32 or 64)
+ *      8     8  number of records
+ *     16        records
+ * </pre>
+ *
+ * All values are little endian. A record is one 32 or 64 bit word holding the
+ * byte address, with the most significant bit set for a write. Addresses are
+ * therefore limited to 31 or 63 bits.
+ *
+ * Readers hand out records in the 32 or 64 bit form (see {@link #address} and
+ * {@link #isWrite}) so callers can strip the flag in place before passing
+ * the addresses on to {@link Cache#requestBatch}.
+ */
+final class TraceFormat {
+
+  static final int MAGIC = 0x43525443; // "CTRC" read little endian
+  static final short VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  static final int WRITE_FLAG = 0x80000000;
+  static final int ADDRESS_MASK = 0x7fffffff;
+  static final long WRITE_FLAG_64 = 0x8000000000000000L;
+
+  private TraceFormat() {
+  }
+
+  static int address(int record) {
+    return record & ADDRESS_MASK;
+  }
+
+  static boolean isWrite(int record) {
+    return (record & WRITE_FLAG) != 0;
+  }
+
+  static int record(int address, boolean write) {
+    return write ? address | WRITE_FLAG : address;
+  }
+
+  static long address(long record) {
+    return record & ~WRITE_FLAG_64;
+  }
+
+  static boolean isWrite(long record) {
+    return record < 0;
+  }
+
+  static long record(long address, boolean write) {
+    return write ? address | WRITE_FLAG_64 : address;
+  }
+
+  static void writeHeader(ByteBuffer header, int addressBits, long records) {
+    header.order(ORDER);
+    header.putInt(MAGIC);
+    header.putShort(VERSION);
+    header.putShort((short) addressBits);
+    header.putLong(records);
+  }
+
+  /**
+   * Checks the header at the current position of the buffer.
+   *
+   * @return the address width in bits.
+   */
+  static int readHeader(ByteBuffer header) throws IOException {
+    header.order(ORDER);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a trace file: bad magic");
+    }
+    short version = header.getShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+    int addressBits = header.getShort();
+    if (addressBits != 32 && addressBits != 64) {
+      throw new IOException("Unsupported address width " + addressBits);
+    }
+    return addressBits;
+  }
+}
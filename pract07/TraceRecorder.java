@@ -0,0 +1,21 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the accesses recorded while they are simulated, in one of
+ * the trace formats.
+ */
+interface TraceRecorder extends Closeable {
+
+  /**
+   * Appends the accesses, with the operand bytes of {@link AddressSource}.
+   */
+  void write(int[] addresses, byte[] operands, int from, int to) throws IOException;
+
+  /**
+   * Appends 64 bit accesses.
+   *
+   * @throws IOException if an address does not fit in the trace.
+   */
+  void write(long[] addresses, byte[] operands, int from, int to) throws IOException;
+}
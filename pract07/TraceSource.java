@@ -0,0 +1,85 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Replays a binary trace (see {@link TraceFormat}) or a delta trace (see
+ * {@link DeltaTraceFormat}) as an {@link AddressSource}, whichever the file
+ * holds. A binary trace reports all accesses as operand 0, with
+ * {@link AddressSource#WRITE} set for the write records; a delta trace keeps
+ * the operands it was recorded with.
+ */
+class TraceSource implements AddressSource, Closeable {
+
+  // Exactly one of the readers is set.
+  private final MappedTraceReader reader;
+  private final DeltaTraceReader delta;
+
+  TraceSource(String file) throws IOException {
+    if (DeltaTraceFormat.isDelta(file)) {
+      reader = null;
+      delta = new DeltaTraceReader(file);
+    }
+    else {
+      reader = new MappedTraceReader(file);
+      delta = null;
+    }
+  }
+
+  public int fill(int[] addresses, byte[] operands, int off, int len) {
+    int count;
+    try {
+      if (delta != null) {
+        return delta.read(addresses, operands, off, len);
+      }
+      count = reader.read(addresses, off, len);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    for (int i = off; i < off + count; i++) {
+      operands[i] = TraceFormat.isWrite(addresses[i]) ? WRITE : 0;
+      addresses[i] = TraceFormat.address(addresses[i]);
+    }
+    return count;
+  }
+
+  public int fill(long[] addresses, byte[] operands, int off, int len) {
+    int count;
+    try {
+      if (delta != null) {
+        return delta.read(addresses, operands, off, len);
+      }
+      count = reader.read(addresses, off, len);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    for (int i = off; i < off + count; i++) {
+      operands[i] = TraceFormat.isWrite(addresses[i]) ? WRITE : 0;
+      addresses[i] = TraceFormat.address(addresses[i]);
+    }
+    return count;
+  }
+
+  public long skip(long n) {
+    if (delta != null) {
+      try {
+        return delta.skip(n);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return reader.skip(n);
+  }
+
+  public void close() throws IOException {
+    if (delta != null) {
+      delta.close();
+    }
+    else {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a 32 or 64 bit {@link TraceFormat} file. The record count in the
+ * header is filled in by {@link #close()}.
+ */
+class TraceWriter implements TraceRecorder {
+
+  private final FileChannel channel;
+  private final int addressBits;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(TraceFormat.ORDER);
+  private long records;
+
+  TraceWriter(String file) throws IOException {
+    this(file, 32);
+  }
+
+  /**
+   * @param addressBits 32 or 64.
+   */
+  TraceWriter(String file, int addressBits) throws IOException {
+    if (addressBits != 32 && addressBits != 64) {
+      throw new IllegalArgumentException("Unsupported address width " + addressBits);
+    }
+    this.addressBits = addressBits;
+    channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    buffer.position(TraceFormat.HEADER_SIZE);
+  }
+
+  /**
+   * Appends the accesses; the trace keeps only the write flag of the
+   * operands.
+   */
+  public void write(int[] addresses, byte[] operands, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      put(addresses[i], (operands[i] & AddressSource.WRITE) != 0);
+    }
+    records += to - from;
+  }
+
+  private void put(int address, boolean write) throws IOException {
+    if (buffer.remaining() < 8) {
+      drain();
+    }
+    if (addressBits == 32) {
+      buffer.putInt(TraceFormat.record(address, write));
+    }
+    else {
+      buffer.putLong(TraceFormat.record(address & 0xffffffffL, write));
+    }
+  }
+
+  /**
+   * Appends 64 bit accesses; the trace keeps only the write flag of the
+   * operands.
+   *
+   * @throws IOException if an address does not fit in the trace.
+   */
+  public void write(long[] addresses, byte[] operands, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      put(addresses[i], (operands[i] & AddressSource.WRITE) != 0);
+    }
+    records += to - from;
+  }
+
+  private void put(long address, boolean write) throws IOException {
+    long mask = addressBits == 32 ? TraceFormat.ADDRESS_MASK : ~TraceFormat.WRITE_FLAG_64;
+    if ((address & ~mask) != 0) {
+      throw new IOException("Address " + address + " does not fit in a " + addressBits + " bit trace");
+    }
+    if (buffer.remaining() < 8) {
+      drain();
+    }
+    if (addressBits == 32) {
+      buffer.putInt(TraceFormat.record((int) address, write));
+    }
+    else {
+      buffer.putLong(TraceFormat.record(address, write));
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  public void close() throws IOException {
+    drain();
+    ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE);
+    TraceFormat.writeHeader(header, addressBits, records);
+    header.flip();
+    channel.write(header, 0);
+    channel.close();
+  }
+}
@@ -0,0 +1,29 @@
+/**
+ * Transpose access pattern (patroon1): B[i][j] = A[j][i].
+ */
+class TransposeSource extends MatrixSource {
+
+  private int i;
+  private int j;
+
+  TransposeSource(MemoryLayout layout) {
+    super(layout, 2);
+  }
+
+  protected void emit(int step, int at) {
+    if (step == 0) {
+      put(at, A, j, i);
+    }
+    else {
+      putWrite(at, B, i, j);
+    }
+  }
+
+  protected boolean advance() {
+    if (++j == size) {
+      j = 0;
+      return ++i < size;
+    }
+    return true;
+  }
+}
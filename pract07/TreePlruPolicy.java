@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tree-PLRU: per set een binaire boom van ways - 1 bits. Elke knoop wijst naar
+ * de helft die het langst niet gebruikt werd. Vereist een macht van 2 als
+ * associativiteit; elke operatie is O(log ways).
+ */
+class TreePlruPolicy implements ReplacementPolicy {
+
+  private final int ways;
+  private final int levels;
+  // Knopen per set in heapvolgorde (wortel op index 1), 1 = rechts.
+  private final byte[] nodes;
+
+  TreePlruPolicy(int sets, int ways) {
+    if (Integer.bitCount(ways) != 1) {
+      throw new IllegalArgumentException("tree PLRU needs a power of 2 associativity");
+    }
+    this.ways = ways;
+    this.levels = Integer.numberOfTrailingZeros(ways);
+    this.nodes = new byte[sets * ways];
+  }
+
+  public void hit(int set, int way) {
+    touch(set, way);
+  }
+
+  public int victim(int set) {
+    int first = set * ways;
+    int node = 1;
+    for (int level = 0; level < levels; level++) {
+      node = 2 * node + nodes[first + node];
+    }
+    return node - ways;
+  }
+
+  public void fill(int set, int way) {
+    touch(set, way);
+  }
+
+  // Laat elke knoop op het pad naar de way wegwijzen van die way.
+  private void touch(int set, int way) {
+    int first = set * ways;
+    int node = 1;
+    for (int level = levels - 1; level >= 0; level--) {
+      int right = (way >>> level) & 1;
+      nodes[first + node] = (byte) (right ^ 1);
+      node = 2 * node + right;
+    }
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + nodes.length;
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, nodes.length / ways, ways);
+    out.put(nodes);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, nodes.length / ways, ways);
+    in.get(nodes);
+  }
+}
@@ -0,0 +1,385 @@
+import java.nio.ByteBuffer;
+
+/**
+ * V-Way cache (Qureshi, Thompson en Patt, ISCA 2005; zie V-way_Cache.pdf).
+ *
+ * De tag store heeft per set <code>tdr</code> keer meer tags dan een gewone
+ * cache met dezelfde associativiteit, maar er zijn slechts
+ * <code>sets * associativity</code> datalijnen. Elke geldige tag wijst naar
+ * een datalijn en elke datalijn terug naar zijn tag, zodat sets die veel
+ * gebruikt worden meer datalijnen kunnen krijgen dan andere.
+ *
+ * Bij een misser in een set met een ongeldige tag wordt een datalijn globaal
+ * vervangen op basis van hergebruik: een wijzer overloopt de datalijnen en
+ * verlaagt hun 2-bit hergebruikteller tot hij een lijn met teller 0 vindt; de
+ * tag van die lijn wordt ongeldig. Zijn alle tags van de set geldig, dan wordt
+ * lokaal de LRU-tag van de set vervangen samen met zijn datalijn.
+ *
+ * Zoals de andere caches kent de V-Way cache write-back en write-through, met
+ * of zonder write-allocate; het dirty-bit staat bij de tag.
+ */
+public class VWayCache implements Cache {
+
+  private static final long VALID = 1L;
+  private static final long DIRTY = 2L;
+  // Grootte van een write-through schrijfopdracht naar het geheugen.
+  private static final int WORD = 4;
+  private static final int MAX_REUSE = 3;
+
+  private final int sets;
+  private final int tagWays;
+  private final int dataLines;
+
+  private final int linesize;
+  private final int offsetBits;
+  private final int setMask;
+  private final int tagShift;
+
+  // Tag store: tag met valid-bit in bit 0 en dirty-bit in bit 1 per tag
+  // (set * tagWays + way) en de datalijn waar hij naar wijst.
+  private final long[] tags;
+  private final int[] forward;
+  // Bitmasker van de geldige tags per set.
+  private final long[] valid;
+  private final LruPolicy tagPolicy;
+
+  // Data store: tag van elke datalijn en zijn hergebruikteller.
+  private final int[] reverse;
+  private final byte[] reuse;
+  private int unused;   // datalijnen vanaf hier zijn nog nooit gebruikt
+  private int hand;     // wijzer van de globale vervanging
+  private long evicted;
+  private boolean hasEvicted;
+  private boolean evictedDirty;
+
+  private boolean writeBack = true;
+  private boolean writeAllocate = true;
+  private long writebacks;
+  private long writeThroughs;
+
+  public VWayCache(int sets, int linesize, int associativity, int tdr) {
+    this(sets, linesize, associativity, tdr, 32);
+  }
+
+  /**
+   * @param addressBits breedte van de adressen, hoogstens 64.
+   */
+  public VWayCache(int sets, int linesize, int associativity, int tdr, int addressBits) {
+    if (Integer.bitCount(sets) != 1 || Integer.bitCount(linesize) != 1) {
+      throw new IllegalArgumentException("sets and linesize must be powers of 2");
+    }
+    if (associativity < 1 || tdr < 1 || associativity * tdr > 64) {
+      throw new IllegalArgumentException("associativity * tdr must be between 1 and 64");
+    }
+    this.sets = sets;
+    this.tagWays = associativity * tdr;
+    this.dataLines = sets * associativity;
+
+    this.linesize = linesize;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.setMask = sets - 1;
+    this.tagShift = offsetBits + Integer.numberOfTrailingZeros(sets);
+    if (addressBits > 64 || tagShift >= addressBits) {
+      throw new IllegalArgumentException("sets * linesize must fit in a " + addressBits + " bit address");
+    }
+    // De tag moet met het valid- en dirty-bit in een long passen.
+    if (addressBits - tagShift > 62) {
+      throw new IllegalArgumentException("sets * linesize must be at least 4 with " + addressBits + " bit addresses");
+    }
+
+    this.tags = new long[sets * tagWays];
+    this.forward = new int[sets * tagWays];
+    this.valid = new long[sets];
+    this.tagPolicy = new LruPolicy(sets, tagWays);
+    this.reverse = new int[dataLines];
+    this.reuse = new byte[dataLines];
+  }
+
+  /**
+   * @param address het adres van de aanvraag.
+   * @return true bij een cachehit, false bij een cachemis.
+   */
+  public boolean request(int address) {
+    if (address == -1) {
+      dump();
+      return false;
+    }
+    return lookup(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return lookup(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    return lookup(address, write);
+  }
+
+  public int requestBatch(int[] addresses, int from, int to, long[] hitBitmap) {
+    return requestBatch(addresses, null, from, to, hitBitmap);
+  }
+
+  public int requestBatch(int[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i] & 0xffffffffL, writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  public int requestBatch(long[] addresses, boolean[] writes, int from, int to, long[] hitBitmap) {
+    int hits = 0;
+    for (int i = from; i < to; ) {
+      int end = Math.min(to, i + 64);
+      long word = 0;
+      for (int bit = 0; i < end; i++, bit++) {
+        if (lookup(addresses[i], writes != null && writes[i])) {
+          word |= 1L << bit;
+        }
+      }
+      hits += Cache.putHits(hitBitmap, from, end, word);
+    }
+    return hits;
+  }
+
+  /**
+   * Kiest write-back of write-through, en of een schrijfmisser het blok laadt.
+   */
+  public void setWritePolicy(boolean writeBack, boolean writeAllocate) {
+    this.writeBack = writeBack;
+    this.writeAllocate = writeAllocate;
+  }
+
+  public long writebackBytes() {
+    return writebacks * linesize + writeThroughs * WORD;
+  }
+
+  private boolean lookup(long address, boolean write) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    int first = set * tagWays;
+
+    hasEvicted = false;
+    int i = find(first, line);
+    if (i >= 0) {
+      int data = forward[i];
+      if (reuse[data] < MAX_REUSE) {
+        reuse[data]++;
+      }
+      tagPolicy.hit(set, i - first);
+      if (write) {
+        write(i);
+      }
+      return true;
+    }
+    if (write && !writeAllocate) {
+      // Het blok wordt niet geladen; de data gaat rechtstreeks naar het geheugen.
+      writeThroughs++;
+      return false;
+    }
+    i = install(set, line);
+    if (write) {
+      write(i);
+    }
+    return false;
+  }
+
+  private void write(int entry) {
+    if (writeBack) {
+      tags[entry] |= DIRTY;
+    }
+    else {
+      writeThroughs++;
+    }
+  }
+
+  // Geeft de tag-entry met de gegeven lijn in de set die begint op first, of -1.
+  private int find(int first, long line) {
+    for (int i = first, end = first + tagWays; i < end; i++) {
+      if ((tags[i] & ~DIRTY) == line) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Laadt een blok dat niet in de set zit en geeft zijn tag-entry terug.
+  private int install(int set, long line) {
+    int first = set * tagWays;
+    int way;
+    int data;
+    long free = ~valid[set] & (tagWays == 64 ? -1L : (1L << tagWays) - 1);
+    if (free != 0) {
+      // Ongeldige tag: neem er een datalijn bij uit de globale pool.
+      way = Long.numberOfTrailingZeros(free);
+      data = allocate();
+      valid[set] |= 1L << way;
+      reverse[data] = first + way;
+      forward[first + way] = data;
+    }
+    else {
+      // Volle set: vervang de LRU-tag en hergebruik zijn datalijn.
+      way = tagPolicy.victim(set);
+      data = forward[first + way];
+      evict(first + way);
+    }
+    tags[first + way] = line;
+    reuse[data] = 0;
+    tagPolicy.fill(set, way);
+    return first + way;
+  }
+
+  // Onthoudt het blok van een tag die vervangen wordt; een vuil blok wordt
+  // teruggeschreven.
+  private void evict(int entry) {
+    evicted = address(tags[entry], entry / tagWays);
+    hasEvicted = true;
+    evictedDirty = (tags[entry] & DIRTY) != 0;
+    if (evictedDirty) {
+      writebacks++;
+    }
+  }
+
+  public boolean probe(long address) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    return find(set * tagWays, ((address >>> tagShift) << 2) | VALID) >= 0;
+  }
+
+  /**
+   * Een vuil blok in een write-through cache gaat meteen naar het geheugen.
+   */
+  public void fill(long address, boolean dirty) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    long line = ((address >>> tagShift) << 2) | VALID;
+    hasEvicted = false;
+    int i = find(set * tagWays, line);
+    if (i < 0) {
+      i = install(set, line);
+    }
+    if (dirty) {
+      if (writeBack) {
+        tags[i] |= DIRTY;
+      }
+      else {
+        writebacks++;
+      }
+    }
+  }
+
+  // Geeft een vrije datalijn, of vervangt er een op basis van hergebruik en
+  // maakt de tag die ernaar wees ongeldig.
+  private int allocate() {
+    if (unused < dataLines) {
+      return unused++;
+    }
+    while (reuse[hand] > 0) {
+      reuse[hand]--;
+      hand = hand + 1 == dataLines ? 0 : hand + 1;
+    }
+    int data = hand;
+    hand = hand + 1 == dataLines ? 0 : hand + 1;
+
+    // Een datalijn waarvan de tag ongeldig gemaakt werd, wijst nergens heen.
+    int entry = reverse[data];
+    if (entry >= 0) {
+      evict(entry);
+      release(entry);
+    }
+    return data;
+  }
+
+  private void release(int entry) {
+    tags[entry] = 0;
+    valid[entry / tagWays] &= ~(1L << (entry % tagWays));
+  }
+
+  private long address(long tag, int set) {
+    return ((tag >>> 2) << tagShift) | ((long) set << offsetBits);
+  }
+
+  public boolean hasEvicted() {
+    return hasEvicted;
+  }
+
+  public long evicted() {
+    return evicted;
+  }
+
+  public boolean evictedDirty() {
+    return evictedDirty;
+  }
+
+  public boolean invalidate(long address) {
+    int set = (int) (address >>> offsetBits) & setMask;
+    int i = find(set * tagWays, ((address >>> tagShift) << 2) | VALID);
+    if (i < 0) {
+      return false;
+    }
+    if ((tags[i] & DIRTY) != 0) {
+      writebacks++;
+    }
+    int data = forward[i];
+    reverse[data] = -1;
+    reuse[data] = 0;
+    release(i);
+    return true;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 4) + 8 * (tags.length + valid.length) + 4 * (forward.length + reverse.length) + reuse.length + 8
+        + tagPolicy.snapshotSize();
+  }
+
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, sets, 1 << offsetBits, tagWays, dataLines);
+    CacheSnapshot.putLongs(out, tags);
+    CacheSnapshot.putInts(out, forward);
+    CacheSnapshot.putLongs(out, valid);
+    CacheSnapshot.putInts(out, reverse);
+    out.put(reuse);
+    out.putInt(unused);
+    out.putInt(hand);
+    tagPolicy.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, sets, 1 << offsetBits, tagWays, dataLines);
+    CacheSnapshot.getLongs(in, tags);
+    CacheSnapshot.getInts(in, forward);
+    CacheSnapshot.getLongs(in, valid);
+    CacheSnapshot.getInts(in, reverse);
+    in.get(reuse);
+    unused = in.getInt();
+    hand = in.getInt();
+    tagPolicy.restore(in);
+    hasEvicted = false;
+  }
+
+  /**
+   * Print per set de geldige tags met de datalijn waar ze naar wijzen.
+   */
+  public void dump() {
+    for (int set = 0; set < sets; set++) {
+      System.out.print("Set " + set + ": ");
+      if (valid[set] == 0) {
+        System.out.println("is leeg");
+        continue;
+      }
+      System.out.print("bevat deze blokken: ");
+      int first = set * tagWays;
+      for (int way = 0; way < tagWays; way++) {
+        if ((tags[first + way] & VALID) != 0) {
+          System.out.print((tags[first + way] >>> 2) + " -> " + forward[first + way] + ", ");
+        }
+      }
+      System.out.println();
+    }
+  }
+}
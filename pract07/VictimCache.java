@@ -0,0 +1,347 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Kleine volledig associatieve victim cache naar Jouppi achter een andere
+ * cache. Een blok dat uit de cache gaat, komt in de victim cache in de plaats
+ * van het minst recent gebruikte blok daar. Een misser die de victim cache
+ * raakt, telt als hit: het blok gaat terug naar de cache en het blok dat
+ * daarvoor uit de cache gaat, neemt zijn plaats in (swap).
+ *
+ * De victim cache bestaat uit twee vaste arrays, zodat een misser enkel een
+ * lineaire zoektocht over enkele blokken kost en een hit niets extra.
+ *
+ * Een vuil blok blijft vuil in de victim cache en wordt pas teruggeschreven
+ * wanneer het ook daar vervangen of ongeldig gemaakt wordt; gaat het terug
+ * naar de cache, dan is het daar weer vuil. De cache telt het blok al bij
+ * het verlaten mee in zijn schrijfverkeer; de victim cache trekt dat weer af.
+ * Bij write-no-allocate blijft een blok dat een schrijfmisser raakt in de
+ * victim cache.
+ *
+ * Verliest de cache bij een aanvraag meer dan een blok, zoals een
+ * hierarchie, dan komen ze allemaal in de victim cache; enkel het eerste kan
+ * een swap zijn. Zo kan ook de victim cache bij een aanvraag meer dan een
+ * blok verliezen.
+ */
+public class VictimCache implements Cache {
+
+  private final Cache cache;
+  private final int linesize;
+  private final int offsetBits;
+
+  // Bloknummer per plaats, of -1, vuil-bit en tijdstip van het laatste gebruik.
+  private final long[] blocks;
+  private final boolean[] dirty;
+  private final long[] used;
+  private long clock;
+
+  // Blokken die de cache bij de laatste aanvraag verliet en die nog in de
+  // victim cache moeten, en blokken die de cache en de victim cache samen
+  // verlieten.
+  private final Evictions left = new Evictions();
+  private final Evictions evictedBlocks = new Evictions();
+
+  // Bytes van vuile blokken die de cache als teruggeschreven telde maar die
+  // in de victim cache terechtkwamen, en vuile blokken die de victim cache
+  // zelf terugschreef.
+  private long absorbed;
+  private long writebacks;
+
+  private long victimHits;
+  private long swaps;
+
+  /**
+   * @param cache de cache waarachter de victim cache staat.
+   * @param linesize de lijngrootte van die cache.
+   * @param entries het aantal blokken van de victim cache.
+   */
+  public VictimCache(Cache cache, int linesize, int entries) {
+    if (Integer.bitCount(linesize) != 1 || entries < 1) {
+      throw new IllegalArgumentException("linesize must be a power of 2 and entries positive");
+    }
+    this.cache = cache;
+    this.linesize = linesize;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.blocks = new long[entries];
+    this.dirty = new boolean[entries];
+    this.used = new long[entries];
+    Arrays.fill(blocks, -1);
+  }
+
+  public boolean request(int address) {
+    if (address == -1) {
+      dump();
+      return false;
+    }
+    return access(address & 0xffffffffL, false);
+  }
+
+  public boolean request(int address, boolean write) {
+    return access(address & 0xffffffffL, write);
+  }
+
+  public boolean request(long address, boolean write) {
+    return access(address, write);
+  }
+
+  private boolean access(long address, boolean write) {
+    boolean hit = cache.request(address, write);
+    evictedBlocks.clear();
+    if (hit && !cache.hasEvicted()) {
+      return true;
+    }
+    return afterRequest(address, write, hit);
+  }
+
+  // Vangt de blokken op die de cache bij de aanvraag verloor, en zoekt het
+  // blok van een misser in de victim cache.
+  private boolean afterRequest(long address, boolean write, boolean hit) {
+    int n = cache.evictions();
+    // Een hierarchie kan meer dan een blok verliezen, ook bij een hit. Enkel
+    // het eerste blok van een misser kan een swap zijn; de andere komen
+    // erna in de victim cache.
+    left.clear();
+    for (int i = hit ? 0 : 1; i < n; i++) {
+      left.add(cache.evicted(i), cache.evictedDirty(i));
+    }
+    if (!hit) {
+      hit = miss(address, write, n > 0);
+    }
+    for (int i = 0; i < left.count(); i++) {
+      absorb(left.address(i), left.dirty(i));
+    }
+    return hit;
+  }
+
+  // Een misser van de cache, die eventueel een blok verving.
+  private boolean miss(long address, boolean write, boolean replaced) {
+    // Zoek het blok, het vervangen blok en de minst recent gebruikte plaats
+    // in een lus zonder sprongen.
+    long block = address >>> offsetBits;
+    long victimBlock = replaced ? cache.evicted() >>> offsetBits : -1;
+    boolean victimDirty = replaced && cache.evictedDirty();
+    if (victimDirty) {
+      absorbed += linesize;
+    }
+    int found = -1;
+    int present = -1;
+    int lru = 0;
+    for (int i = 0; i < blocks.length; i++) {
+      found = blocks[i] == block ? i : found;
+      present = blocks[i] == victimBlock ? i : present;
+      lru = used[i] < used[lru] ? i : lru;
+    }
+    clock++;
+    // Een blok dat al in de victim cache zat (zie write-no-allocate hieronder)
+    // komt er geen tweede keer in.
+    if (replaced && present >= 0) {
+      victimDirty |= dirty[present];
+      clear(present);
+      lru = present;
+    }
+
+    if (found >= 0) {
+      victimHits++;
+      // Ook een misser die een lege plaats vult, bv. na een invalidatie,
+      // vervangt niets; enkel de cache zelf weet of het blok er nu in zit.
+      if (!replaced && write && !cache.probe(address)) {
+        // Write-no-allocate: het blok blijft in de victim cache.
+        used[found] = clock;
+        return true;
+      }
+      // Het blok zit nu in de cache, en is daar vuil als het hier vuil was.
+      if (dirty[found]) {
+        cache.fill(address, true);
+      }
+      if (replaced) {
+        // Swap: het vervangen blok neemt de plaats van het gevonden blok in.
+        swaps++;
+        blocks[found] = victimBlock;
+        dirty[found] = victimDirty;
+        used[found] = clock;
+      }
+      else {
+        clear(found);
+      }
+      return true;
+    }
+
+    if (replaced) {
+      put(lru, victimBlock, victimDirty);
+    }
+    return false;
+  }
+
+  // Zet een blok op een plaats en laat het blok dat daar stond de victim
+  // cache verlaten, met een writeback als het vuil was.
+  private void put(int i, long block, boolean blockDirty) {
+    if (blocks[i] != -1) {
+      evictedBlocks.add(blocks[i] << offsetBits, dirty[i]);
+      if (dirty[i]) {
+        writebacks++;
+      }
+    }
+    blocks[i] = block;
+    dirty[i] = blockDirty;
+    used[i] = clock;
+  }
+
+  private void clear(int i) {
+    blocks[i] = -1;
+    dirty[i] = false;
+    used[i] = 0;
+  }
+
+  public boolean probe(long address) {
+    if (cache.probe(address)) {
+      return true;
+    }
+    long block = address >>> offsetBits;
+    for (long b : blocks) {
+      if (b == block) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Een blok uit de victim cache gaat terug naar de cache, zonder victim hit
+   * te tellen; het blok dat de cache daarvoor vervangt, gaat naar de victim
+   * cache.
+   */
+  public void fill(long address, boolean dirty) {
+    evictedBlocks.clear();
+    if (!cache.probe(address)) {
+      long block = address >>> offsetBits;
+      for (int i = 0; i < blocks.length; i++) {
+        if (blocks[i] == block) {
+          dirty |= this.dirty[i];
+          clear(i);
+        }
+      }
+    }
+    cache.fill(address, dirty);
+    for (int i = 0, n = cache.evictions(); i < n; i++) {
+      absorb(cache.evicted(i), cache.evictedDirty(i));
+    }
+  }
+
+  // Zet een blok dat uit de cache ging in de plaats van het minst recent
+  // gebruikte blok van de victim cache.
+  private void absorb(long victim, boolean victimDirty) {
+    if (victimDirty) {
+      absorbed += linesize;
+    }
+    long victimBlock = victim >>> offsetBits;
+    clock++;
+    int lru = 0;
+    for (int i = 0; i < blocks.length; i++) {
+      if (blocks[i] == victimBlock) {
+        dirty[i] |= victimDirty;
+        used[i] = clock;
+        return;
+      }
+      lru = used[i] < used[lru] ? i : lru;
+    }
+    put(lru, victimBlock, victimDirty);
+  }
+
+  /**
+   * @return het aantal missers van de cache dat de victim cache opving.
+   */
+  long victimHits() {
+    return victimHits;
+  }
+
+  /**
+   * @return het aantal victim hits waarbij een blok uit de cache de plaats
+   *     van het gevonden blok innam.
+   */
+  long swaps() {
+    return swaps;
+  }
+
+  /**
+   * Het blok dat de cache en de victim cache samen verlaten heeft.
+   */
+  public boolean hasEvicted() {
+    return evictedBlocks.count() > 0;
+  }
+
+  public long evicted() {
+    return evictedBlocks.address(0);
+  }
+
+  public boolean evictedDirty() {
+    return evictedBlocks.dirty(0);
+  }
+
+  public int evictions() {
+    return evictedBlocks.count();
+  }
+
+  public long evicted(int i) {
+    return evictedBlocks.address(i);
+  }
+
+  public boolean evictedDirty(int i) {
+    return evictedBlocks.dirty(i);
+  }
+
+  /**
+   * Een vuil blok in de victim cache wordt teruggeschreven, zoals in de
+   * cache zelf.
+   */
+  public boolean invalidate(long address) {
+    long block = address >>> offsetBits;
+    boolean found = false;
+    for (int i = 0; i < blocks.length; i++) {
+      if (blocks[i] == block) {
+        if (dirty[i]) {
+          writebacks++;
+        }
+        clear(i);
+        found = true;
+      }
+    }
+    return cache.invalidate(address) | found;
+  }
+
+  public long writebackBytes() {
+    return cache.writebackBytes() - absorbed + writebacks * linesize;
+  }
+
+  public int snapshotSize() {
+    return CacheSnapshot.sectionSize(this, 2) + 8 * blocks.length + dirty.length + 8 * used.length + 8 + cache.snapshotSize();
+  }
+
+  /**
+   * Schrijft de blokken van de victim cache, en daarna de cache.
+   */
+  public void save(ByteBuffer out) {
+    CacheSnapshot.putSection(out, this, blocks.length, linesize);
+    CacheSnapshot.putLongs(out, blocks);
+    CacheSnapshot.putBooleans(out, dirty);
+    CacheSnapshot.putLongs(out, used);
+    out.putLong(clock);
+    cache.save(out);
+  }
+
+  public void restore(ByteBuffer in) {
+    CacheSnapshot.checkSection(in, this, blocks.length, linesize);
+    CacheSnapshot.getLongs(in, blocks);
+    CacheSnapshot.getBooleans(in, dirty);
+    CacheSnapshot.getLongs(in, used);
+    clock = in.getLong();
+    cache.restore(in);
+    evictedBlocks.clear();
+  }
+
+  public void dump() {
+    cache.dump();
+    for (int i = 0; i < blocks.length; i++) {
+      System.out.println("Victim " + i + ": " + (blocks[i] != -1) + " " + (blocks[i] == -1 ? 0 : blocks[i]));
+    }
+  }
+}
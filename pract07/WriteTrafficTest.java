@@ -0,0 +1,171 @@
+import java.util.List;
+
+/**
+ * Checks the write traffic to memory of hierarchies, which only counts what
+ * leaves the last level, of the v-way cache, and of the sweep and sharded
+ * simulators against the sequential simulator.
+ */
+class WriteTrafficTest {
+
+  private static final int LINE = 16;
+  private static final long A = 0;
+  private static final long B = 1 << 20;
+  private static final long C = 2 << 20;
+  private static final long D = 3 << 20;
+  private static final long E = 4 << 20;
+
+  public static void main(String[] args) {
+    dirtyVictimMovesDown();
+    inclusiveBackInvalidation();
+    writeThrough();
+    exclusive();
+    vway();
+    victim();
+    sweepAndShards();
+  }
+
+  // A dirty L1 victim is written into L2 and reaches memory only when L2
+  // replaces it.
+  private static void dirtyVictimMovesDown() {
+    Cache l2 = new NWayAssociativeCache(1, LINE, 4);
+    CacheHierarchy cache = new CacheHierarchy(new Cache[] { new DirectMappedCache(1, LINE), l2 }, CacheHierarchy.Inclusion.NINE);
+    cache.request(A, true);
+    cache.request(B, false);
+    Check.that(l2.probe(A), "nine: L2 holds the dirty victim");
+    Check.equal(0, cache.writebackBytes(), "nine: nothing left L2 yet");
+    cache.request(C, false);
+    cache.request(D, false);
+    cache.request(E, false);
+    Check.that(cache.hasEvicted() && cache.evicted() == A, "nine: L2 replaced A");
+    Check.that(cache.evictedDirty(), "nine: A was dirty in L2");
+    Check.equal(LINE, cache.writebackBytes(), "nine: A written back once");
+  }
+
+  // A block that L2 replaces while L1 has it dirty goes to memory.
+  private static void inclusiveBackInvalidation() {
+    Cache l1 = new NWayAssociativeCache(1, LINE, 2);
+    CacheHierarchy cache = new CacheHierarchy(new Cache[] { l1, new NWayAssociativeCache(1, LINE, 2) }, CacheHierarchy.Inclusion.INCLUSIVE);
+    cache.request(A, true);
+    cache.request(B, false);
+    // A hit in L1 leaves A least recently used in L2.
+    cache.request(A, false);
+    cache.request(C, false);
+    Check.that(!l1.probe(A), "inclusive: A left L1 with L2");
+    Check.equal(LINE, cache.writebackBytes(), "inclusive: dirty L1 copy written back");
+  }
+
+  private static void writeThrough() {
+    for (CacheHierarchy.Inclusion inclusion : new CacheHierarchy.Inclusion[] { CacheHierarchy.Inclusion.NINE, CacheHierarchy.Inclusion.INCLUSIVE }) {
+      NWayAssociativeCache l1 = new NWayAssociativeCache(1, LINE, 1);
+      NWayAssociativeCache l2 = new NWayAssociativeCache(1, LINE, 2);
+      l1.setWritePolicy(false, true);
+      l2.setWritePolicy(false, true);
+      CacheHierarchy cache = new CacheHierarchy(new Cache[] { l1, l2 }, inclusion);
+      cache.request(A, true);
+      cache.request(A, true);
+      cache.request(B, true);
+      Check.equal(3 * 4, cache.writebackBytes(), inclusion + ": every write goes through both levels once");
+
+      // A write-back L2 keeps the writes of a write-through L1.
+      l1 = new NWayAssociativeCache(1, LINE, 1);
+      l1.setWritePolicy(false, true);
+      cache = new CacheHierarchy(new Cache[] { l1, new NWayAssociativeCache(1, LINE, 2) }, inclusion);
+      cache.request(A, true);
+      cache.request(B, true);
+      Check.equal(0, cache.writebackBytes(), inclusion + ": L2 holds the written blocks");
+      cache.request(C, false);
+      Check.equal(LINE, cache.writebackBytes(), inclusion + ": L2 writes back the oldest");
+    }
+  }
+
+  // Dirty blocks keep their data when they move between exclusive levels.
+  private static void exclusive() {
+    CacheHierarchy cache = new CacheHierarchy(new Cache[] { new DirectMappedCache(1, LINE), new NWayAssociativeCache(1, LINE, 2) }, CacheHierarchy.Inclusion.EXCLUSIVE);
+    cache.request(A, true);
+    cache.request(B, false);
+    // A moves back up dirty, not through memory.
+    Check.that(cache.request(A, false), "exclusive: A hits in L2");
+    Check.equal(0, cache.writebackBytes(), "exclusive: moving up writes nothing");
+    cache.request(C, false);
+    cache.request(D, false);
+    Check.equal(0, cache.writebackBytes(), "exclusive: L2 replaced the clean B");
+    cache.request(E, false);
+    Check.that(cache.hasEvicted() && cache.evicted() == A && cache.evictedDirty(), "exclusive: L2 replaced the dirty A");
+    Check.equal(LINE, cache.writebackBytes(), "exclusive: A written back once");
+  }
+
+  private static void vway() {
+    VWayCache cache = new VWayCache(1, LINE, 1, 1);
+    cache.request(A, true);
+    cache.request(B, false);
+    Check.that(cache.evictedDirty(), "vway: dirty block replaced");
+    Check.equal(LINE, cache.writebackBytes(), "vway: write-back");
+
+    cache = new VWayCache(1, LINE, 1, 1);
+    cache.setWritePolicy(false, false);
+    Check.that(!cache.request(A, true), "vway: write miss");
+    Check.that(!cache.probe(A), "vway: write-no-allocate leaves the block out");
+    cache.request(A, false);
+    cache.request(A, true);
+    Check.equal(2 * 4, cache.writebackBytes(), "vway: write-through words");
+  }
+
+  // A dirty block is written back when it leaves the victim cache, not when
+  // it enters it, and is dirty again when it moves back to the cache.
+  private static void victim() {
+    VictimCache cache = new VictimCache(new NWayAssociativeCache(1, LINE, 1), LINE, 1);
+    cache.request(A, true);
+    cache.request(B, false);
+    Check.equal(0, cache.writebackBytes(), "victim: A kept dirty");
+    Check.that(cache.request(A, false), "victim: A hits in the victim cache");
+    cache.request(C, false);
+    Check.that(cache.hasEvicted() && cache.evicted() == B && !cache.evictedDirty(), "victim: the clean B left");
+    Check.equal(0, cache.writebackBytes(), "victim: A still dirty after the swap");
+    cache.request(D, false);
+    Check.that(cache.hasEvicted() && cache.evicted() == A && cache.evictedDirty(), "victim: the dirty A left");
+    Check.equal(LINE, cache.writebackBytes(), "victim: A written back once");
+
+    cache = new VictimCache(new NWayAssociativeCache(1, LINE, 1), LINE, 2);
+    cache.request(A, true);
+    cache.request(B, false);
+    Check.that(cache.invalidate(A), "victim: invalidating A");
+    Check.equal(LINE, cache.writebackBytes(), "victim: invalidated dirty block written back");
+
+    // A write that moves A back into the hole an invalidation left replaces
+    // nothing, but still takes A out of the victim cache.
+    Cache inner = new NWayAssociativeCache(1, LINE, 2);
+    cache = new VictimCache(inner, LINE, 2);
+    cache.request(A, true);
+    cache.request(B, false);
+    cache.request(C, false);
+    cache.invalidate(B);
+    Check.that(cache.request(A, true), "victim: A hits in the victim cache");
+    Check.that(inner.probe(A), "victim: A moved back to the cache");
+    inner.invalidate(A);
+    Check.that(!cache.probe(A), "victim: no copy of A left in the victim cache");
+    Check.equal(LINE, cache.writebackBytes(), "victim: A written back once");
+  }
+
+  // Both parallel simulators see the writes of the stream.
+  private static void sweepAndShards() {
+    int sets = 16;
+    int assoc = 4;
+    NWayAssociativeCache reference = new NWayAssociativeCache(sets, LINE, assoc);
+    RequestBuffer buffer = new RequestBuffer(reference);
+    buffer.run(source());
+    Check.that(reference.writebackBytes() > 0, "the transpose writes");
+
+    ShardedSimulator sharded = new ShardedSimulator(sets, LINE, assoc, "lru", true, true, 4);
+    sharded.run(source());
+    Check.equal(buffer.hits, sharded.hits, "shards: hits");
+    Check.equal(reference.writebackBytes(), sharded.writebackBytes, "shards: write traffic");
+
+    List<Sweep.Result> results = new Sweep("lru", true, true, 2).run("transpose", source(), new int[] { sets * assoc }, new int[] { LINE }, new int[] { assoc });
+    Check.equal(buffer.hits, results.get(0).hits, "sweep: hits");
+    Check.equal(reference.writebackBytes(), results.get(0).writebackBytes, "sweep: write traffic");
+  }
+
+  private static AddressSource source() {
+    return new TransposeSource(new MemoryLayout(64, MatrixSource.NAMES, new int[] { 0, 64, 32 }, null));
+  }
+}
@@ -0,0 +1,11 @@
+#!/bin/bash
+
+# Compiles the simulator and runs the throughput benchmarks of CacheBench.
+# Arguments are passed on, e.g. ./bench.sh nway -iterations 10 -time 2000
+
+cd `dirname $0`
+out=`mktemp -d`
+javac -cp commons-cli-1.2.jar -d $out *.java && java -Xms1g -Xmx1g -cp $out:commons-cli-1.2.jar CacheBench "$@"
+status=$?
+rm -rf $out
+exit $status
@@ -0,0 +1,28 @@
+#!/bin/bash
+
+# Compiles the simulator and runs every test program (the *Test classes).
+# Arguments select tests by class name, e.g. ./test.sh LongIntMapTest
+
+cd `dirname $0`
+out=`mktemp -d`
+trap 'rm -rf $out' EXIT
+cp=$out
+if [ -f commons-cli-1.2.jar ]; then
+  cp=$out:commons-cli-1.2.jar
+fi
+javac -cp $cp -d $out *.java || exit 1
+
+tests="$@"
+if [ -z "$tests" ]; then
+  tests=`ls *Test.java | sed 's/\.java$//'`
+fi
+failed=0
+for test in $tests; do
+  if java -ea -cp $cp $test; then
+    echo "$test OK"
+  else
+    echo "$test FAILED"
+    failed=1
+  fi
+done
+exit $failed
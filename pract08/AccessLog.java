@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the simulated accesses to a stream on a background thread, so the
+ * simulation does not wait for the terminal or the disk. Accesses are copied
+ * into a preallocated ring buffer by the simulating thread (the only
+ * producer) and formatted and written by the writer thread (the only
+ * consumer); nothing is allocated per access.
+ *
+ * Two formats are supported:
+ * <ul>
+ * <li>text: one line per access, <code>A: 1234</code>, with an <code>r</code>
+ * after the operand name of a write (<code>Cr: 1234</code>).</li>
+ * <li>binary: five bytes per access, the operand byte of
+ * {@link AddressSource} (operand id, {@link AddressSource#WRITE} for a
+ * write) followed by the address as a little endian 32 bit word.</li>
+ * </ul>
+ */
+class AccessLog implements AutoCloseable {
+
+  private static final int CAPACITY = 1 << 16;
+  private static final int OUT_BUFFER = 1 << 16;
+  // Longest text line: operand name, "r: ", an int and a line separator.
+  private static final int MAX_LINE = 32;
+
+  private final OutputStream out;
+  private final boolean binary;
+
+  private final int[] addresses = new int[CAPACITY];
+  private final byte[] operands = new byte[CAPACITY];
+  // Number of accesses appended by the producer, taken out of the ring by the
+  // consumer, and flushed to the stream.
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong flushed = new AtomicLong();
+
+  private final byte[] outBuffer = new byte[OUT_BUFFER];
+  private final byte[] digits = new byte[11];
+  private final byte[] lineSeparator = System.lineSeparator().getBytes();
+  private int outCount;
+
+  private final Thread writer;
+  private volatile boolean closed;
+  private volatile IOException failure;
+
+  AccessLog(OutputStream out, boolean binary) {
+    this.out = out;
+    this.binary = binary;
+    this.writer = new Thread(this::drain, "access-log");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Appends <code>addresses[0..count)</code> with their operand bytes. Blocks
+   * while the ring buffer is full.
+   */
+  void append(int[] addressesIn, byte[] operandsIn, int count) {
+    long head = appended.get();
+    int i = 0;
+    while (i < count) {
+      long free = CAPACITY - (head - written.get());
+      if (free == 0) {
+        checkFailure();
+        Thread.yield();
+        continue;
+      }
+      // Copy as much as fits before the end of the ring.
+      int at = (int) head & (CAPACITY - 1);
+      int n = (int) Math.min(Math.min(free, count - i), CAPACITY - at);
+      System.arraycopy(addressesIn, i, addresses, at, n);
+      System.arraycopy(operandsIn, i, operands, at, n);
+      i += n;
+      head += n;
+      appended.lazySet(head);
+    }
+  }
+
+  /**
+   * Waits until every appended access has been written and flushed, e.g.
+   * before printing something else to the same stream.
+   */
+  void flush() {
+    long target = appended.get();
+    while (flushed.get() < target) {
+      checkFailure();
+      LockSupport.unpark(writer);
+      Thread.yield();
+    }
+    checkFailure();
+  }
+
+  /**
+   * Writes the remaining accesses and stops the writer thread. The stream is
+   * flushed but not closed.
+   */
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new UncheckedIOException(failure);
+    }
+  }
+
+  // Body of the writer thread.
+  private void drain() {
+    try {
+      long tail = written.get();
+      while (true) {
+        long head = appended.get();
+        if (head == tail) {
+          flushOut();
+          flushed.lazySet(tail);
+          if (closed && appended.get() == tail) {
+            return;
+          }
+          LockSupport.parkNanos(100_000);
+          continue;
+        }
+        for (; tail < head; tail++) {
+          int at = (int) tail & (CAPACITY - 1);
+          if (outCount + MAX_LINE > OUT_BUFFER) {
+            flushOut();
+          }
+          format(operands[at], addresses[at]);
+          // Hand slots back to the producer every 1024 accesses.
+          if ((tail & 1023) == 1023) {
+            written.lazySet(tail + 1);
+          }
+        }
+        written.lazySet(tail);
+      }
+    }
+    catch (IOException e) {
+      failure = e;
+      // Keep consuming so the producer does not block forever.
+      while (!closed || written.get() != appended.get()) {
+        written.lazySet(appended.get());
+        flushed.lazySet(appended.get());
+        LockSupport.parkNanos(100_000);
+      }
+    }
+  }
+
+  private void format(byte operand, int address) {
+    byte[] b = outBuffer;
+    if (binary) {
+      b[outCount++] = operand;
+      b[outCount++] = (byte) address;
+      b[outCount++] = (byte) (address >>> 8);
+      b[outCount++] = (byte) (address >>> 16);
+      b[outCount++] = (byte) (address >>> 24);
+      return;
+    }
+
+    String name = MatrixSource.NAMES[operand & AddressSource.OPERAND];
+    for (int i = 0; i < name.length(); i++) {
+      b[outCount++] = (byte) name.charAt(i);
+    }
+    if ((operand & AddressSource.WRITE) != 0) {
+      b[outCount++] = 'r';
+    }
+    b[outCount++] = ':';
+    b[outCount++] = ' ';
+
+    // Decimal digits of the address, written back to front.
+    long value = address;
+    if (value < 0) {
+      b[outCount++] = '-';
+      value = -value;
+    }
+    int n = digits.length;
+    do {
+      digits[--n] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    System.arraycopy(digits, n, b, outCount, digits.length - n);
+    outCount += digits.length - n;
+
+    System.arraycopy(lineSeparator, 0, b, outCount, lineSeparator.length);
+    outCount += lineSeparator.length;
+  }
+
+  private void flushOut() throws IOException {
+    if (outCount > 0) {
+      out.write(outBuffer, 0, outCount);
+      outCount = 0;
+    }
+    out.flush();
+  }
+}
@@ -0,0 +1,198 @@
+import java.io.PrintStream;
+
+/**
+ * Detailed statistics of a simulation, gathered per access by a
+ * {@link RequestBuffer}: hits, misses and evictions per operand and per set,
+ * and a histogram of reuse intervals. An access counts in the set of its
+ * address and an eviction in the set of the evicted line. Everything is
+ * counted at the outermost cache, so with a victim cache or a prefetcher the
+ * per set counts add up to the totals.
+ *
+ * The reuse interval of an access is the number of accesses since the
+ * previous access to the same cache line. The histogram has a bucket per
+ * power of two: bucket k counts the intervals in [2^k, 2^(k+1)). The first
+ * access to a line has no interval and is counted as cold.
+ *
+ * {@link #write} exports everything as JSON or as CSV with one row per
+ * counted entity:
+ * <pre>
+ * scope,key,requests,hits,misses,evictions
+ * total,all,...
+ * operand,A,...
+ * set,0,...
+ * miss,compulsory,count,,,
+ * reuse,cold,count,,,
+ * reuse,1,count,,,
+ * </pre>
+ */
+class AccessStatistics {
+
+  private static final int BUCKETS = 32;
+  // Counters per operand: offsets within the stripe of an operand and its width.
+  private static final int HITS = 0;
+  private static final int MISSES = 1;
+  private static final int EVICTIONS = 2;
+  private static final int COUNTERS = 4;
+
+  private final String[] names;
+  private final int offsetBits;
+  private final int setMask;
+  private final long[] counters;
+  // The same counters per set.
+  private final long[] setCounters;
+
+  // Line number to the index of its last access.
+  private final LongIntMap lastAccess = new LongIntMap(1 << 12);
+  private final long[] reuse = new long[BUCKETS];
+  private long cold;
+  private int clock;
+
+  /**
+   * @param names operand names, indexed by operand id.
+   * @param linesize line size of the cache, in bytes.
+   * @param sets number of sets of the cache, a power of 2.
+   */
+  AccessStatistics(String[] names, int linesize, int sets) {
+    this.names = names;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.setMask = sets - 1;
+    this.counters = new long[names.length * COUNTERS];
+    this.setCounters = new long[sets * COUNTERS];
+  }
+
+  /**
+   * Counts one access.
+   *
+   * @param operand the operand byte of {@link AddressSource}.
+   * @param cache the cache that just served the access, for the lines it
+   *        evicted.
+   */
+  void record(int address, byte operand, boolean hit, Cache cache) {
+    int stripe = (operand & AddressSource.OPERAND) * COUNTERS;
+    int set = (int) ((address & 0xffffffffL) >>> offsetBits) & setMask;
+    counters[stripe + (hit ? HITS : MISSES)]++;
+    setCounters[set * COUNTERS + (hit ? HITS : MISSES)]++;
+    for (int i = 0, n = cache.evictions(); i < n; i++) {
+      counters[stripe + EVICTIONS]++;
+      setCounters[((int) (cache.evicted(i) >>> offsetBits) & setMask) * COUNTERS + EVICTIONS]++;
+    }
+
+    // The clock wraps, but differences stay correct for intervals below 2^31.
+    // It skips 0, which stands for a line that was never accessed.
+    if (++clock == 0) {
+      clock = 1;
+    }
+    int last = lastAccess.replace((address & 0xffffffffL) >>> offsetBits, clock, 0);
+    if (last == 0) {
+      cold++;
+    }
+    else {
+      reuse[31 - Integer.numberOfLeadingZeros(clock - last)]++;
+    }
+  }
+
+  /**
+   * Writes the statistics in JSON, or in CSV if <code>csv</code> is true.
+   *
+   * @param cache the outermost simulated cache, for the write traffic.
+   * @param classifier the miss classification of the same run, or null.
+   */
+  void write(PrintStream out, boolean csv, Cache cache, MissClassifier classifier) {
+    if (csv) {
+      writeCsv(out, cache, classifier);
+    }
+    else {
+      writeJson(out, cache, classifier);
+    }
+    out.flush();
+  }
+
+  private void writeCsv(PrintStream out, Cache cache, MissClassifier classifier) {
+    out.println("scope,key,requests,hits,misses,evictions");
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    for (int op = 0; op < names.length; op++) {
+      hits += counters[op * COUNTERS + HITS];
+      misses += counters[op * COUNTERS + MISSES];
+      evictions += counters[op * COUNTERS + EVICTIONS];
+    }
+    out.println(csvRow("total", "all", hits, misses, evictions));
+    for (int op = 0; op < names.length; op++) {
+      int stripe = op * COUNTERS;
+      out.println(csvRow("operand", names[op], counters[stripe + HITS], counters[stripe + MISSES], counters[stripe + EVICTIONS]));
+    }
+    for (int set = 0; set <= setMask; set++) {
+      int stripe = set * COUNTERS;
+      out.println(csvRow("set", Integer.toString(set), setCounters[stripe + HITS], setCounters[stripe + MISSES], setCounters[stripe + EVICTIONS]));
+    }
+    if (classifier != null) {
+      out.println("miss,compulsory," + classifier.compulsoryMisses() + ",,,");
+      out.println("miss,capacity," + classifier.capacityMisses() + ",,,");
+      out.println("miss,conflict," + classifier.conflictMisses() + ",,,");
+    }
+    out.println("reuse,cold," + cold + ",,,");
+    for (int k = 0; k < BUCKETS; k++) {
+      if (reuse[k] != 0) {
+        out.println("reuse," + (1L << k) + "," + reuse[k] + ",,,");
+      }
+    }
+  }
+
+  private static String csvRow(String scope, String key, long hits, long misses, long evictions) {
+    return scope + "," + key + "," + (hits + misses) + "," + hits + "," + misses + "," + evictions;
+  }
+
+  private void writeJson(PrintStream out, Cache cache, MissClassifier classifier) {
+    long hits = 0;
+    long misses = 0;
+    for (int op = 0; op < names.length; op++) {
+      hits += counters[op * COUNTERS + HITS];
+      misses += counters[op * COUNTERS + MISSES];
+    }
+    out.println("{");
+    out.println("  \"requests\": " + (hits + misses) + ",");
+    out.println("  \"hits\": " + hits + ",");
+    out.println("  \"misses\": " + misses + ",");
+    if (classifier != null) {
+      out.println("  \"compulsoryMisses\": " + classifier.compulsoryMisses() + ",");
+      out.println("  \"capacityMisses\": " + classifier.capacityMisses() + ",");
+      out.println("  \"conflictMisses\": " + classifier.conflictMisses() + ",");
+    }
+    out.println("  \"writeTrafficBytes\": " + cache.writebackBytes() + ",");
+
+    out.println("  \"operands\": {");
+    for (int op = 0; op < names.length; op++) {
+      int stripe = op * COUNTERS;
+      out.println("    \"" + names[op] + "\": " + jsonCounts(counters[stripe + HITS], counters[stripe + MISSES], counters[stripe + EVICTIONS])
+          + (op < names.length - 1 ? "," : ""));
+    }
+    out.println("  },");
+
+    out.println("  \"sets\": [");
+    for (int set = 0; set <= setMask; set++) {
+      int stripe = set * COUNTERS;
+      out.println("    " + jsonCounts(setCounters[stripe + HITS], setCounters[stripe + MISSES], setCounters[stripe + EVICTIONS])
+          + (set < setMask ? "," : ""));
+    }
+    out.println("  ],");
+
+    out.println("  \"reuse\": {");
+    out.println("    \"cold\": " + cold + ",");
+    out.print("    \"buckets\": [");
+    String separator = "";
+    for (int k = 0; k < BUCKETS; k++) {
+      if (reuse[k] != 0) {
+        out.print(separator + "{ \"min\": " + (1L << k) + ", \"max\": " + ((1L << (k + 1)) - 1) + ", \"count\": " + reuse[k] + " }");
+        separator = ", ";
+      }
+    }
+    out.println("]");
+    out.println("  }");
+    out.println("}");
+  }
+
+  private static String jsonCounts(long hits, long misses, long evictions) {
+    return "{ \"requests\": " + (hits + misses) + ", \"hits\": " + hits + ", \"misses\": " + misses + ", \"evictions\": " + evictions + " }";
+  }
+}
@@ -0,0 +1,21 @@
+/**
+ * Produces the address stream of a workload on demand, a chunk at a time,
+ * instead of materialising the data structures it walks over.
+ */
+interface AddressSource {
+
+  /** Flag in the operand byte of an access that writes. */
+  byte WRITE = (byte) 0x80;
+  /** Mask for the operand id in the operand byte. */
+  byte OPERAND = 0x7f;
+
+  /**
+   * Writes up to <code>len</code> next accesses of the workload to
+   * <code>addresses[off..]</code>, with the operand each access belongs to at
+   * the same position in <code>operands</code>. A write access has
+   * {@link #WRITE} set in its operand byte.
+   *
+   * @return the number of accesses written, 0 once the workload is done.
+   */
+  int fill(int[] addresses, byte[] operands, int off, int len);
+}
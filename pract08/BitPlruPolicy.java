@@ -0,0 +1 @@
+../pract07/BitPlruPolicy.java
\ No newline at end of file
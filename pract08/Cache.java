@@ -0,0 +1 @@
+../pract07/Cache.java
\ No newline at end of file
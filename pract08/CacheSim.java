@@ -1,10 +1,18 @@
 
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.function.LongBinaryOperator;
 
 public class CacheSim {
 
+  // Larger matrices are not printed: printing them takes longer than the simulation.
+  private static final int MAX_PRINTED_SIZE = 16;
+
   public static boolean isPowerOf2(int n) {
     if (n == 1) {
       return true;
@@ -21,6 +29,93 @@ public class CacheSim {
 
 	public static void main(String[] args) {
 
+		// Optional "-size <n>", "-write <wb|wt>" and "-allocate <yes|no>" in
+		// front of the other arguments set the matrix size (default 8) and the
+		// write policy of the cache (default write-back with write-allocate).
+		// "-log <file>" writes every access to a file ("-" for the console),
+		// in the format chosen with "-logformat <text|binary>". "-layout <spec>"
+		// places the matrices in memory (see MemoryLayout). "-stats <file>"
+		// exports detailed statistics instead of printing the summary, as CSV if
+		// the file name ends in .csv and as JSON otherwise ("-" for the console).
+		// "-prefetch <kind[:degree]>" puts a prefetcher in front of the cache.
+		// "-victim <entries>" puts a small fully associative victim cache
+		// behind it. "-timing <hit,miss>" times the accesses with these
+		// latencies in cycles and "-mshrs <n>" outstanding misses (default 8).
+		// "-cores <n>" runs matrixMultiply on n cores with private caches kept
+		// coherent with MESI, splitting the rows of C; "-quantum <n>" sets the
+		// number of accesses a core runs ahead before the coherence events of
+		// all cores are applied (default 1024). "-policy <name>" picks the
+		// replacement policy of the cache (default lru). "-classify" divides the
+		// misses into compulsory, capacity and conflict misses.
+		int matrixSize = 8;
+		String layoutSpec = null;
+		boolean writeBack = true;
+		boolean writeAllocate = true;
+		String logFile = null;
+		boolean binaryLog = false;
+		String statsFile = null;
+		String prefetch = null;
+		int victimEntries = 0;
+		String timingSpec = null;
+		int mshrs = 8;
+		int cores = 0;
+		int quantum = 1024;
+		String policy = "lru";
+		boolean classify = false;
+		while (args.length >= 2 && args[0].startsWith("-")) {
+			if (args[0].equals("-classify")) {
+				classify = true;
+				args = Arrays.copyOfRange(args, 1, args.length);
+				continue;
+			}
+			if (args[0].equals("-size")) {
+				matrixSize = Integer.parseInt(args[1]);
+			}
+			else if (args[0].equals("-write") && (args[1].equals("wb") || args[1].equals("wt"))) {
+				writeBack = args[1].equals("wb");
+			}
+			else if (args[0].equals("-allocate") && (args[1].equals("yes") || args[1].equals("no"))) {
+				writeAllocate = args[1].equals("yes");
+			}
+			else if (args[0].equals("-layout")) {
+				layoutSpec = args[1];
+			}
+			else if (args[0].equals("-log")) {
+				logFile = args[1];
+			}
+			else if (args[0].equals("-logformat") && (args[1].equals("text") || args[1].equals("binary"))) {
+				binaryLog = args[1].equals("binary");
+			}
+			else if (args[0].equals("-stats")) {
+				statsFile = args[1];
+			}
+			else if (args[0].equals("-prefetch")) {
+				prefetch = args[1];
+			}
+			else if (args[0].equals("-victim")) {
+				victimEntries = Integer.parseInt(args[1]);
+			}
+			else if (args[0].equals("-timing")) {
+				timingSpec = args[1];
+			}
+			else if (args[0].equals("-mshrs")) {
+				mshrs = Integer.parseInt(args[1]);
+			}
+			else if (args[0].equals("-cores")) {
+				cores = Integer.parseInt(args[1]);
+			}
+			else if (args[0].equals("-quantum")) {
+				quantum = Integer.parseInt(args[1]);
+			}
+			else if (args[0].equals("-policy")) {
+				policy = args[1];
+			}
+			else {
+				break;
+			}
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+
 		// If the number of command line arguments is not right
 		// print out usage instructions and bail out.
 		if (args.length != 3 && args.length != 4 && args.length != 5) {
@@ -64,37 +159,140 @@ public class CacheSim {
 
 
 			// Create the appropriate type of cache.
-			Cache cache;
-			if (!assoc) {
-				cache = new NWayAssociativeCache(blocks, size, 1);
+			NWayAssociativeCache cache = null;
+			try {
+				cache = createCache(blocks, size, assoc, nway, ways, policy, writeBack, writeAllocate);
 			}
-			else {
-				if (nway) {
-					cache = new NWayAssociativeCache(blocks, size, ways);
-				} else {
-					cache = new NWayAssociativeCache(1, size, blocks);
+			catch (IllegalArgumentException e) {
+				System.err.println("Error: " + e.getMessage());
+				System.err.println();
+				printUsage();
+			}
+
+			MemoryLayout layout = null;
+			try {
+				layout = layout(matrixSize, layoutSpec);
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Error: bad layout: " + e.getMessage());
+				System.err.println();
+				printUsage();
+			}
+
+			// Several cores each get a cache like the one above.
+			if (cores != 0) {
+				if (cores < 1 || cores > 64 || cores > matrixSize || quantum < 1 || victimEntries < 0) {
+					System.err.println("Error: <cores> must be between 1 and 64 and at most the matrix size, and <quantum> positive.");
+					System.err.println();
+					printUsage();
+				}
+				if (logFile != null || statsFile != null || prefetch != null || timingSpec != null || classify || input.compareTo("matrixMultiply") != 0) {
+					System.err.println("Error: -cores only runs matrixMultiply, without -log, -stats, -prefetch, -timing or -classify.");
+					System.err.println();
+					printUsage();
+				}
+				Cache[] caches = new Cache[cores];
+				for (int c = 0; c < cores; c++) {
+					NWayAssociativeCache own = c == 0 ? cache : createCache(blocks, size, assoc, nway, ways, policy, writeBack, writeAllocate);
+					caches[c] = victimEntries > 0 ? new VictimCache(own, size, victimEntries) : own;
 				}
+				System.out.println("matrix mulitply configuration, " + cores + " cores");
+				matrixMultiply(caches, layout, size, writeAllocate, quantum);
+				return;
 			}
 
+			// An optional victim cache sits right behind the cache and an optional
+			// prefetcher between them and the classifier, so the misses they hide
+			// are not classified.
+			Cache simulated = cache;
+			VictimCache victim = null;
+			if (victimEntries != 0) {
+				if (victimEntries < 0) {
+					System.err.println("Error: <entries> must be positive.");
+					System.err.println();
+					printUsage();
+				}
+				victim = new VictimCache(cache, size, victimEntries);
+				simulated = victim;
+			}
+			// Prefetches would take MSHRs and issue slots from the demand
+			// accesses, so the timing model runs without a prefetcher.
+			TimingCache timing = null;
+			if (timingSpec != null) {
+				if (prefetch != null) {
+					System.err.println("Error: -timing cannot be combined with -prefetch.");
+					System.err.println();
+					printUsage();
+				}
+				try {
+					timing = new TimingCache(simulated, size, TimingCache.latencies(timingSpec), null, mshrs);
+				}
+				catch (IllegalArgumentException e) {
+					System.err.println("Error: bad timing: " + e.getMessage());
+					System.err.println();
+					printUsage();
+				}
+				simulated = timing;
+			}
+			PrefetchingCache prefetcher = null;
+			if (prefetch != null) {
+				try {
+					prefetcher = PrefetchingCache.create(prefetch, simulated, size);
+				}
+				catch (IllegalArgumentException e) {
+					System.err.println("Error: bad prefetcher: " + e.getMessage());
+					System.err.println();
+					printUsage();
+				}
+				simulated = prefetcher;
+			}
+
+			// Every miss is classified as compulsory, capacity or conflict, if asked.
+			// A victim cache adds to the capacity of the fully associative reference.
+			MissClassifier classifier = null;
+			if (classify) {
+				classifier = new MissClassifier(simulated, (nway ? blocks * ways : blocks) + victimEntries, size);
+				simulated = classifier;
+			}
+
+			// The accesses are logged on a background thread, if at all.
+			AccessLog log = null;
+			OutputStream logStream = null;
+			if (logFile != null) {
+				try {
+					logStream = logFile.equals("-") ? System.out : new FileOutputStream(logFile);
+				}
+				catch (IOException e) {
+					System.err.println("Error: cannot write " + logFile + ": " + e.getMessage());
+					System.exit(-1);
+				}
+				log = new AccessLog(logStream, binaryLog);
+			}
+
+			// Accesses are submitted to the cache in chunks, or one by one when
+			// they are counted in detail.
+			AccessStatistics statistics = statsFile == null ? null : new AccessStatistics(MatrixSource.NAMES, size, cache.sets());
+			RequestBuffer buffer = new RequestBuffer(simulated, log, statistics);
+
 			if (input.compareTo("rowMajor")==0)
 			{
 				System.out.println("rowMajor configuration");
-				rowMajor(cache, 8);
+				rowMajor(buffer, layout);
 			}
 			else if (input.compareTo("columnMajor")==0)
 			{
 				System.out.println("columnMajor configuration");
-				columnMajor(cache, 8);
+				columnMajor(buffer, layout);
 			}
 			else if (input.compareTo("matrixMultiply")==0)
 			{
 				System.out.println("matrix mulitply configuration");
-				matrixMultiply(cache, 8);
+				matrixMultiply(buffer, layout);
 			}
 			else if (input.compareTo("matrixTiledMultiply")==0)
 			{
 				System.out.println("matrix tiled mulitply configuration");
-				matrixTiledMultiply(cache, 8);
+				matrixTiledMultiply(buffer, layout);
 			}
 			else
 			{
@@ -102,11 +300,45 @@ public class CacheSim {
 				System.exit(-1);
 			}
 
+			if (statistics == null) {
+				printStatistics(simulated, classifier, victim, timing, prefetcher, buffer);
+			}
+			else {
+				writeStatistics(statsFile, statistics, simulated, classifier);
+			}
+
+			if (log != null) {
+				log.close();
+				if (logStream != System.out) {
+					try {
+						logStream.close();
+					}
+					catch (IOException e) {
+						System.err.println("Error: cannot write " + logFile + ": " + e.getMessage());
+					}
+				}
+			}
+
 		}
 	}
 
     private static void printUsage() {
-        System.out.println("Usage: java CacheSim <blocks> <block_size> <input> [<assoc>] [ways]");
+        System.out.println("Usage: java CacheSim [-size <n>] [-write <wb|wt>] [-allocate <yes|no>] [-log <file>] [-logformat <text|binary>] [-layout <spec>] [-stats <file>] [-prefetch <kind>] [-victim <entries>] [-timing <hit,miss>] [-mshrs <m>] [-cores <P>] [-quantum <q>] [-policy <name>] [-classify] <blocks> <block_size> <input> [<assoc>] [ways]");
+        System.out.println("         <n>: Matrix size (default 8).");
+        System.out.println("     <wb|wt>: Write-back (default) or write-through.");
+        System.out.println("    <yes|no>: Whether a write miss loads the block (default yes).");
+        System.out.println("      <file>: Log every access to this file, - for the console.");
+        System.out.println("<text|binary>: Log lines like \"A: 1234\" (default) or 5 byte records.");
+        System.out.println("      <spec>: Per matrix base, elem, stride and pad in bytes, e.g. A:pad=64,C:base=65536");
+        System.out.println("-stats <file>: Export per set, per matrix and reuse statistics as JSON, or CSV for a .csv file.");
+        System.out.println("      <kind>: Prefetcher nextline, stride or stream, optionally with :degree, e.g. stride:2");
+        System.out.println("   <entries>: Blocks of a fully associative victim cache behind the cache, e.g. 4 to 16.");
+        System.out.println("  <hit,miss>: Latencies in cycles of a hit and a miss, e.g. 4,200; reports cycles, AMAT and MLP.");
+        System.out.println("         <m>: Outstanding misses of -timing (default 8).");
+        System.out.println("         <P>: Run matrixMultiply on P cores with coherent private caches (at most 64).");
+        System.out.println("         <q>: Accesses per core between coherence steps (default 1024).");
+        System.out.println("      <name>: Replacement policy lru (default), treeplru, bitplru, fifo, random, srrip or brrip.");
+        System.out.println("   -classify: Report the misses as compulsory, capacity and conflict misses.");
         System.out.println("    <blocks>: # of cache blocks (must be a power of 2).");
         System.out.println("<block_size>: Size of each cache block (must be a power of 2).");
         System.out.println("     <input>: Choose from rowMajor, columnMajor, matrixMultiply or matrixTiledMultiply");
@@ -116,114 +348,57 @@ public class CacheSim {
         System.exit(-1);
     }
 
-	private static boolean sendCacheRequest(Cache cache, String matrix, int i, int j, int size)
+	private static NWayAssociativeCache createCache(int blocks, int size, boolean assoc, boolean nway, int ways, String policy, boolean writeBack, boolean writeAllocate)
 	{
-		// different matrices are located in different places in the memory, this
-		// is modelled by using a matrix-specific base address.
-		int base = 0;
-		if (matrix.compareTo("A")==0)
-			base = 0;
-		else if (matrix.compareTo("B")==0)
-			base = 4*size*size + 64;
-		else if (matrix.compareTo("Cr")==0 || matrix.compareTo("C")==0)
-			base = 8*size*size + 128;
-		else
-		{
-			System.out.println("Matrix " + matrix + "not recognized, please use A, B or C");
-			System.exit(-1);
+		int sets = blocks;
+		int associativity = 1;
+		if (assoc) {
+			if (nway) {
+				associativity = ways;
+			} else {
+				sets = 1;
+				associativity = blocks;
+			}
 		}
-
-
-		// Address is calculated (multiply by assumes int equals 4B).
-		int address = base + 4*((i * size) + j);
-
-		// Print out the address  (Optional)
-		System.out.println(matrix + ": " +  address);
-
-    return cache.request(address);
+		NWayAssociativeCache cache = new NWayAssociativeCache(sets, size, associativity, ReplacementPolicy.create(policy, sets, associativity));
+		cache.setWritePolicy(writeBack, writeAllocate);
+		return cache;
 	}
 
 
-	// This function generates the access pattern.
-	private static void rowMajor(Cache cache, int size)
+	// Layout of the matrices A, B and C: different matrices are located in
+	// different places in the memory, by default 64 bytes apart.
+	private static MemoryLayout layout(int size, String spec)
 	{
-		// Statistics
-		int requests = 0;
-		int hits = 0;
+		return new MemoryLayout(size, MatrixSource.NAMES, new int[] { 0, 64, 64 }, spec);
+	}
 
-		// Input matrix
-		int A[][] = new int[size][size];
-		int B[][] = new int[size][size];
 
-		// Initialize matrix
-		int counter = 1;
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				A[ i ][ j ] = counter++;
-				B[ i ][ j ] = 0;
-			}
+	// Prints a matrix whose elements follow from their indices, so it never
+	// has to be stored. rowStart is printed in front of every row.
+	private static void printMatrix(String name, int size, String rowStart, LongBinaryOperator element)
+	{
+		if (size > MAX_PRINTED_SIZE)
+		{
+			System.out.println(name + "=\t(" + size + "x" + size + ", not printed)");
+			return;
 		}
-
-		// Print matrix (for verification)
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// A
-		System.out.println("A=\t");
+		System.out.println(name + "=\t");
 		for (int i=0;i<size;i++)
-		{	
-			System.out.println("\t");
+		{
+			System.out.print(rowStart);
 			for (int j=0;j<size;j++)
 			{
-				System.out.print(A[ i ][ j ]);
+				System.out.print(element.applyAsLong(i, j));
 				System.out.print("\t");
 			}
 			System.out.println();
 		}
+	}
 
-		// Now do B = A*2
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				B[ i ][ j ] = A[ i ][ j ]*2;
-
-				// Forward the access to the cache.
-				requests++;
-				if (sendCacheRequest(cache, "A", i, j, size)) 
-				{
-					hits++;
-				}
-				requests++;
-				if (sendCacheRequest(cache, "B", i, j, size)) 
-				{
-					hits++;
-				}
-
-			}
-		}
-
-		// Print matrix (for verification)
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// B 
-		System.out.println("B=\t");
-
-		for (int i=0;i<size;i++)
-		{	
-			System.out.println("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(B[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
-		System.out.println();
 
+	private static void printStatistics(Cache cache, MissClassifier classifier, VictimCache victim, TimingCache timing, PrefetchingCache prefetcher, RequestBuffer buffer)
+	{
 		// Force a cache dump (optional)
 		//cache.request(-1);
 		
@@ -231,244 +406,192 @@ public class CacheSim {
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("//////////////////////////////// Statistics ////////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("Total Requests: " + requests);
-		System.out.println("    Cache Hits: " + hits);
-		System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+		System.out.println("Total Requests: " + buffer.requests);
+		System.out.println("    Cache Hits: " + buffer.hits);
+		System.out.println("      Hit Rate: " + ((double) buffer.hits)/ buffer.requests);
+		if (classifier != null)
+		{
+			System.out.println("Compulsory Misses: " + classifier.compulsoryMisses());
+			System.out.println("  Capacity Misses: " + classifier.capacityMisses());
+			System.out.println("  Conflict Misses: " + classifier.conflictMisses());
+		}
+		if (victim != null)
+		{
+			System.out.println("      Victim Hits: " + victim.victimHits());
+			System.out.println("     Victim Swaps: " + victim.swaps());
+		}
+		if (timing != null)
+		{
+			System.out.println("     Total Cycles: " + timing.cycles());
+			System.out.println("             AMAT: " + timing.amat());
+			System.out.println("              MLP: " + timing.mlp());
+			System.out.println(" Secondary Misses: " + timing.secondaryMisses());
+			System.out.println("      MSHR Stalls: " + timing.stallCycles());
+		}
+		if (prefetcher != null)
+		{
+			System.out.println("       Prefetches: " + prefetcher.prefetches());
+			System.out.println("Prefetch Accuracy: " + prefetcher.accuracy());
+			System.out.println("Prefetch Coverage: " + prefetcher.coverage());
+			System.out.println(" Pollution Misses: " + prefetcher.pollution());
+		}
+		System.out.println(" Write Traffic: " + cache.writebackBytes() + " bytes");
 		System.out.println();
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-
 	}
 
 
-
-	// This function generates the access pattern.
-	private static void columnMajor(Cache cache, int size)
+	// Writes the detailed statistics to a file, or to the console for "-".
+	private static void writeStatistics(String file, AccessStatistics statistics, Cache cache, MissClassifier classifier)
 	{
-		// Statistics
-		int requests = 0;
-		int hits = 0;
-
-		// Input matrix
-		int A[][] = new int[size][size];
-		int B[][] = new int[size][size];
-
-		// Initialize matrix
-		int counter = 1;
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
+		boolean csv = file.endsWith(".csv");
+		if (file.equals("-"))
+		{
+			statistics.write(System.out, csv, cache, classifier);
+			return;
+		}
+		try (PrintStream out = new PrintStream(new FileOutputStream(file)))
+		{
+			statistics.write(out, csv, cache, classifier);
+			if (out.checkError())
 			{
-				A[ i ][ j ] = counter++;
-				B[ i ][ j ] = 0;
+				throw new IOException("write failed");
 			}
 		}
+		catch (IOException e)
+		{
+			System.err.println("Error: cannot write " + file + ": " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+
 
+	// This function generates the access pattern.
+	private static void rowMajor(RequestBuffer buffer, MemoryLayout layout)
+	{
+		int size = layout.size();
 		// Print matrix (for verification)
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// A
-		System.out.println("A=\t");
-		for (int i=0;i<size;i++)
-		{	
-			System.out.println("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(A[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
+		printMatrix("A", size, "\t" + System.lineSeparator(), (i, j) -> i*size + j + 1);
 
 		// Now do B = A*2
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				B[ j ][ i ] = A[ j ][ i ]*2;
+		buffer.run(new RowMajorSource(layout));
+
+		// Print matrix (for verification)
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		printMatrix("B", size, "\t" + System.lineSeparator(), (i, j) -> 2*(i*size + j + 1));
+		System.out.println();
+	}
 
-				// Forward the access to the cache.
-				requests++;
-				if (sendCacheRequest(cache, "A", j, i, size)) 
-				{
-					hits++;
-				}
-				requests++;
-				if (sendCacheRequest(cache, "B", j, i, size)) 
-				{
-					hits++;
-				}
 
-			}
-		}
 
+	// This function generates the access pattern.
+	private static void columnMajor(RequestBuffer buffer, MemoryLayout layout)
+	{
+		int size = layout.size();
 		// Print matrix (for verification)
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
+		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// B 
-		System.out.println("B=\t");
+		printMatrix("A", size, "\t" + System.lineSeparator(), (i, j) -> i*size + j + 1);
 
-		for (int i=0;i<size;i++)
-		{	
-			System.out.println("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(B[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
-		System.out.println();
+		// Now do B = A*2
+		buffer.run(new ColumnMajorSource(layout));
 
-		// Force a cache dump (optional)
-		//cache.request(-1);
-		
-		// Report the results of the simulation.
+		// Print matrix (for verification)
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("//////////////////////////////// Statistics ////////////////////////////////////");
+		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("Total Requests: " + requests);
-		System.out.println("    Cache Hits: " + hits);
-		System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+		printMatrix("B", size, "\t" + System.lineSeparator(), (i, j) -> 2*(i*size + j + 1));
 		System.out.println();
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-
 	}
 
 
 	// This function generates the access pattern for a straightforward matrix multiplication.
-	private static void matrixMultiply(Cache cache, int size)
+	private static void matrixMultiply(RequestBuffer buffer, MemoryLayout layout)
 	{
-		// Statistics
-		int requests = 0;
-		int hits = 0;
-
-		// Define matrices for A*B=C
-		int A[][] = new int[size][size];
-		int B[][] = new int[size][size];
-		int C[][] = new int[size][size];
-
-		// Initialize matrix
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				A[ i ][ j ] = i;
-				B[ i ][ j ] = j;
-				C[ i ][ j ] = 0;
-			}
-		}
-	
-		// Print matrix (for verification)
+		int size = layout.size();
+		// Print matrix (for verification): A[i][j] = i and B[i][j] = j
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// A
-		System.out.println("A=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(A[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
-		// B
-		System.out.println("B=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(B[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
+		printMatrix("A", size, "\t", (i, j) -> i);
+		printMatrix("B", size, "\t", (i, j) -> j);
 
 		// Now do A*B=C
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				for (int k=0;k<size;k++)
-				{
-					C[ i ][ j ] = C[ i ][ j ] + A[ i ][ k ] * B[ k ][ j ];
-
-					// Read C[k][i]
-					requests++;
-					if (sendCacheRequest(cache, "C", i, j, size)) 
-					{
-						hits++;
-					}
-					
-					// Read A[j][i]
-					requests++;
-					if (sendCacheRequest(cache, "A", i, k, size)) 
-					{
-						hits++;
-					}
-					
-					// Read B[k][j]
-					requests++;
-					if (sendCacheRequest(cache, "B", k, j, size)) 
-					{
-						hits++;
-					}
-					
-					// Write C[k][i]
-					requests++;
-					if (sendCacheRequest(cache, "Cr", i, j, size)) 
-					{
-						hits++;
-					}
+		buffer.run(new MatrixMultiplySource(layout));
 
-				}
-			}
+		// Print matrix (for verification): C[i][j] = size*i*j
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		printMatrix("C", size, "\t", (i, j) -> (long) size*i*j);
+	}
+
+
+
+
+
+	// The same multiplication on several cores: core p computes rows
+	// [p*size/P, (p+1)*size/P) of C with its own cache.
+	private static void matrixMultiply(Cache[] caches, MemoryLayout layout, int linesize, boolean writeAllocate, int quantum)
+	{
+		int size = layout.size();
+		int cores = caches.length;
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
+		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		printMatrix("A", size, "\t", (i, j) -> i);
+		printMatrix("B", size, "\t", (i, j) -> j);
+
+		AddressSource[] sources = new AddressSource[cores];
+		for (int p = 0; p < cores; p++) {
+			sources[p] = new MatrixMultiplySource(layout, p * size / cores, (p + 1) * size / cores);
 		}
+		MulticoreSimulator simulator = new MulticoreSimulator(caches, sources, linesize, writeAllocate, quantum);
+		simulator.run();
 
-		// Print matrix (for verification)
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// C
-		System.out.println("C=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(C[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
+		printMatrix("C", size, "\t", (i, j) -> (long) size*i*j);
 
-		// Force a cache dump (optional)
-		//cache.request(-1);
-		
-		// Report the results of the simulation.
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("//////////////////////////////// Statistics ////////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
+		long requests = 0;
+		long hits = 0;
+		long coherenceMisses = 0;
+		long writeTraffic = 0;
+		for (int p = 0; p < cores; p++) {
+			requests += simulator.requests(p);
+			hits += simulator.hits(p);
+			coherenceMisses += simulator.coherenceMisses(p);
+			writeTraffic += simulator.writebackBytes(p);
+			System.out.println("Core " + p + ": " + simulator.requests(p) + " requests, " + simulator.hits(p) + " hits, hit rate "
+					+ ((double) simulator.hits(p)) / simulator.requests(p) + ", " + simulator.coherenceMisses(p) + " coherence misses, "
+					+ simulator.invalidationsReceived(p) + " invalidations received");
+		}
 		System.out.println("Total Requests: " + requests);
 		System.out.println("    Cache Hits: " + hits);
 		System.out.println("      Hit Rate: " + ((double) hits)/ requests);
+		System.out.println("Coherence Misses: " + coherenceMisses);
+		System.out.println("   Invalidations: " + simulator.invalidations());
+		System.out.println("   Interventions: " + simulator.interventions());
+		System.out.println(" Write Traffic: " + writeTraffic + " bytes");
 		System.out.println();
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-
 	}
 
 
-
-
-
-	// This function generates the access pattern for a straightforward matrix multiplication.
-	private static void matrixTiledMultiply(Cache cache, int size)
+	// This function generates the access pattern for a tiled matrix multiplication.
+	private static void matrixTiledMultiply(RequestBuffer buffer, MemoryLayout layout)
 	{
+		int size = layout.size();
 		// Set tilesize
 		int tilesize = 2;
 		if (size%tilesize != 0)
@@ -477,134 +600,21 @@ public class CacheSim {
 			System.exit(-1);
 		}
 
-		// Statistics
-		int requests = 0;
-		int hits = 0;
-
-		// Define matrices for A*B=C
-		int A[][] = new int[size][size];
-		int B[][] = new int[size][size];
-		int C[][] = new int[size][size];
-
-		// Initialize matrix
-		for (int i=0;i<size;i++)
-		{	
-			for (int j=0;j<size;j++)
-			{
-				A[ i ][ j ] = i;
-				B[ i ][ j ] = j;
-				C[ i ][ j ] = 0;
-			}
-		}
-	
-		// Print matrix (for verification)
+		// Print matrix (for verification): A[i][j] = i and B[i][j] = j
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("/////////////////////////////// Input Matrix ///////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// A
-		System.out.println("A=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(A[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
-		// B
-		System.out.println("B=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(B[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
+		printMatrix("A", size, "\t", (i, j) -> i);
+		printMatrix("B", size, "\t", (i, j) -> j);
 
 		// Now do A*B=C
-		for (int i0=0;i0<size;i0+=tilesize)
-		{	
-			for (int j0=0;j0<size;j0+=tilesize)
-			{
-				for (int k0=0;k0<size;k0+=tilesize)
-				{
-					for (int i=i0;i<(i0+tilesize);i++)
-					{
-						for (int j=j0;j<(j0+tilesize);j++)
-						{
-							for (int k=k0;k<(k0+tilesize);k++)
-							{
-								C[ i ][ j ] = C[ i ][ j ] + A[ i ][ k ] * B[ k ][ j ];
-
-								// Read C[i][j]
-								requests++;
-								if (sendCacheRequest(cache, "C", i, j, size)) 
-								{
-									hits++;
-								}
-
-								// Read A[j][k]
-								requests++;
-								if (sendCacheRequest(cache, "A", i, k, size)) 
-								{
-									hits++;
-								}
-
-								// Read B[k][j]
-								requests++;
-								if (sendCacheRequest(cache, "B", k, j, size)) 
-								{
-									hits++;
-								}
-
-								// Write C[i][j]
-								requests++;
-								if (sendCacheRequest(cache, "Cr", i, j, size)) 
-								{
-									hits++;
-								}
-							}
-						}
-					}
-				}
-			}
-		}
+		buffer.run(new TiledMultiplySource(layout, tilesize));
 
-		// Print matrix (for verification)
+		// Print matrix (for verification): C[i][j] = size*i*j
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
 		System.out.println("/////////////////////////////// Output Matrix //////////////////////////////////");
 		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		// C
-		System.out.println("C=\t");
-		for (int i=0;i<size;i++)
-		{
-			System.out.print("\t");
-			for (int j=0;j<size;j++)
-			{
-				System.out.print(C[ i ][ j ]);
-				System.out.print("\t");
-			}
-			System.out.println();
-		}
-
-		// Force a cache dump (optional)
-		//cache.request(-1);
-		
-		// Report the results of the simulation.
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("//////////////////////////////// Statistics ////////////////////////////////////");
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-		System.out.println("Total Requests: " + requests);
-		System.out.println("    Cache Hits: " + hits);
-		System.out.println("      Hit Rate: " + ((double) hits)/ requests);
-		System.out.println();
-		System.out.println("////////////////////////////////////////////////////////////////////////////////");
-
+		printMatrix("C", size, "\t", (i, j) -> (long) size*i*j);
 	}
 
 
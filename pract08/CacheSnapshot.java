@@ -0,0 +1 @@
+../pract07/CacheSnapshot.java
\ No newline at end of file
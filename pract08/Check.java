@@ -0,0 +1 @@
+../pract07/Check.java
\ No newline at end of file
@@ -0,0 +1,24 @@
+/**
+ * Column major traversal: B[j][i] = A[j][i]*2.
+ */
+class ColumnMajorSource extends MatrixSource {
+
+  private int i;
+  private int j;
+
+  ColumnMajorSource(MemoryLayout layout) {
+    super(layout, 2);
+  }
+
+  protected void emit(int step, int[] addresses, byte[] operands, int at) {
+    put(addresses, operands, at, step == 0 ? A : B, j, i);
+  }
+
+  protected boolean advance() {
+    if (++j == size) {
+      j = 0;
+      return ++i < size;
+    }
+    return true;
+  }
+}
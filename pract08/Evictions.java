@@ -0,0 +1 @@
+../pract07/Evictions.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/FifoPolicy.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/LongIntMap.java
\ No newline at end of file
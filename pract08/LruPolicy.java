@@ -0,0 +1 @@
+../pract07/LruPolicy.java
\ No newline at end of file
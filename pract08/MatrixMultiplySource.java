@@ -0,0 +1,58 @@
+/**
+ * Straightforward matrix multiplication A*B=C in i, j, k order. Every
+ * iteration reads C[i][j], A[i][k] and B[k][j] and writes C[i][j]. The rows
+ * of C can be limited to a range, as computed by one core of a parallel
+ * multiplication.
+ */
+class MatrixMultiplySource extends MatrixSource {
+
+  private final int rowTo;
+  private int i;
+  private int j;
+  private int k;
+
+  MatrixMultiplySource(MemoryLayout layout) {
+    this(layout, 0, layout.size());
+  }
+
+  /**
+   * @param rowFrom first row of C.
+   * @param rowTo row after the last row of C, larger than rowFrom unless
+   *        the matrices are empty.
+   */
+  MatrixMultiplySource(MemoryLayout layout, int rowFrom, int rowTo) {
+    super(layout, 4);
+    if (rowFrom < 0 || rowTo > layout.size() || (rowFrom >= rowTo && layout.size() > 0)) {
+      throw new IllegalArgumentException("bad row range " + rowFrom + ".." + rowTo);
+    }
+    this.i = rowFrom;
+    this.rowTo = rowTo;
+  }
+
+  protected void emit(int step, int[] addresses, byte[] operands, int at) {
+    switch (step) {
+      case 0:
+        put(addresses, operands, at, C, i, j);
+        break;
+      case 1:
+        put(addresses, operands, at, A, i, k);
+        break;
+      case 2:
+        put(addresses, operands, at, B, k, j);
+        break;
+      default:
+        putWrite(addresses, operands, at, C, i, j);
+    }
+  }
+
+  protected boolean advance() {
+    if (++k == size) {
+      k = 0;
+      if (++j == size) {
+        j = 0;
+        return ++i < rowTo;
+      }
+    }
+    return true;
+  }
+}
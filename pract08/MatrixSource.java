@@ -0,0 +1,65 @@
+/**
+ * Base class for the matrix kernels. A kernel is a loop nest whose innermost
+ * iteration performs a fixed number of accesses ("steps"); subclasses emit the
+ * access for each step and advance the loop indices. Matrices are stored row
+ * major as described by a {@link MemoryLayout}.
+ */
+abstract class MatrixSource implements AddressSource {
+
+  // Operand ids.
+  static final byte A = 0;
+  static final byte B = 1;
+  static final byte C = 2;
+
+  static final String[] NAMES = { "A", "B", "C" };
+
+  protected final int size;
+  private final MemoryLayout layout;
+  private final int steps;
+
+  private int step;
+  private boolean done;
+
+  MatrixSource(MemoryLayout layout, int steps) {
+    this.size = layout.size();
+    this.layout = layout;
+    this.steps = steps;
+    this.done = size == 0;
+  }
+
+  public final int fill(int[] addresses, byte[] operands, int off, int len) {
+    int at = off;
+    int end = off + len;
+    while (at < end && !done) {
+      emit(step, addresses, operands, at++);
+      if (++step == steps) {
+        step = 0;
+        done = !advance();
+      }
+    }
+    return at - off;
+  }
+
+  /**
+   * Writes access <code>step</code> of the current innermost iteration.
+   */
+  protected abstract void emit(int step, int[] addresses, byte[] operands, int at);
+
+  /**
+   * Moves to the next innermost iteration.
+   *
+   * @return false when the loop nest is finished.
+   */
+  protected abstract boolean advance();
+
+  protected final void put(int[] addresses, byte[] operands, int at, byte operand, int i, int j) {
+    // The layouts of this driver are made for 32 bit addresses.
+    addresses[at] = (int) layout.address(operand, i, j);
+    operands[at] = operand;
+  }
+
+  protected final void putWrite(int[] addresses, byte[] operands, int at, byte operand, int i, int j) {
+    put(addresses, operands, at, operand, i, j);
+    operands[at] |= WRITE;
+  }
+}
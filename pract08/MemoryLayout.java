@@ -0,0 +1 @@
+../pract07/MemoryLayout.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/MissClassifier.java
\ No newline at end of file
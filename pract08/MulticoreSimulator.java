@@ -0,0 +1,356 @@
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Simulates several cores with private caches kept coherent by a directory
+ * with the MESI protocol. Every core runs its own address source on its own
+ * thread, in quanta of a fixed number of accesses:
+ * <ul>
+ * <li>bound phase: all cores simulate their next quantum in parallel against
+ * their private cache, and log the accesses that need the directory: misses,
+ * writes to lines the core does not own, and evictions;</li>
+ * <li>weave phase: when every core reached the barrier, the directory
+ * applies the logged events of all cores in a fixed order (by position in
+ * the quantum, then by core), invalidating and downgrading the copies in
+ * other caches.</li>
+ * </ul>
+ * The results therefore do not depend on the scheduling of the host threads.
+ * Within a quantum a core does not yet see the invalidations caused by other
+ * cores in that quantum; a smaller quantum is more exact.
+ *
+ * A coherence miss is a miss on a line that the core lost to an
+ * invalidation. A write to a line in state S is an upgrade: a hit that still
+ * invalidates the other copies. An intervention is a read of a line that
+ * another core holds modified.
+ */
+class MulticoreSimulator {
+
+  // Event kinds.
+  private static final byte GET_SHARED = 0;
+  private static final byte GET_MODIFIED = 1;
+  private static final byte UPGRADE = 2;
+  private static final byte WRITE_AROUND = 3;
+  private static final byte EVICT = 4;
+
+  // States of an owned line in Core.owned; lines in state S are not in it.
+  private static final int EXCLUSIVE = 1;
+  private static final int MODIFIED = 2;
+
+  private final class Core extends Thread {
+    final int id;
+    final Cache cache;
+    final AddressSource source;
+    final int[] addresses = new int[quantum];
+    final byte[] operands = new byte[quantum];
+    // Lines in state E or M, and lines lost to an invalidation.
+    final LongIntMap owned = new LongIntMap(1 << 10);
+    final LongIntMap invalidated = new LongIntMap(1 << 10);
+
+    // Events of the current quantum, at most two per access.
+    final byte[] eventKind = new byte[2 * quantum];
+    final long[] eventBlock = new long[2 * quantum];
+    final int[] eventIndex = new int[2 * quantum];
+    int events;
+    int simulated;
+
+    long requests;
+    long hits;
+    long coherenceMisses;
+    long invalidationsReceived;
+
+    Core(int id, Cache cache, AddressSource source) {
+      super("core-" + id);
+      setDaemon(true);
+      this.id = id;
+      this.cache = cache;
+      this.source = source;
+    }
+
+    public void run() {
+      try {
+        do {
+          bound();
+          barrier.await();
+        } while (!finished);
+      }
+      catch (RuntimeException | InterruptedException | BrokenBarrierException e) {
+        fail(e);
+      }
+    }
+
+    private void bound() {
+      events = 0;
+      simulated = source.fill(addresses, operands, 0, quantum);
+      for (int i = 0; i < simulated; i++) {
+        int address = addresses[i];
+        boolean write = (operands[i] & AddressSource.WRITE) != 0;
+        long block = (address & 0xffffffffL) >>> offsetBits;
+        if (cache.request(address, write)) {
+          hits++;
+          if (write) {
+            int state = owned.get(block, 0);
+            if (state == 0) {
+              event(UPGRADE, block, i);
+            }
+            if (state != MODIFIED) {
+              owned.put(block, MODIFIED);
+            }
+          }
+          continue;
+        }
+
+        if (invalidated.get(block, 0) != 0) {
+          invalidated.remove(block);
+          coherenceMisses++;
+        }
+        // A victim cache can lose more than one block in one request.
+        for (int e = 0, n = cache.evictions(); e < n; e++) {
+          long victimBlock = cache.evicted(e) >>> offsetBits;
+          owned.remove(victimBlock);
+          event(EVICT, victimBlock, i);
+        }
+        if (write && !writeAllocate) {
+          event(WRITE_AROUND, block, i);
+        }
+        else if (write) {
+          owned.put(block, MODIFIED);
+          event(GET_MODIFIED, block, i);
+        }
+        else {
+          event(GET_SHARED, block, i);
+        }
+      }
+      requests += simulated;
+    }
+
+    private void event(byte kind, long block, int index) {
+      eventKind[events] = kind;
+      eventBlock[events] = block;
+      eventIndex[events] = index;
+      events++;
+    }
+  }
+
+  private final int quantum;
+  private final int offsetBits;
+  private final boolean writeAllocate;
+  private final Core[] cores;
+  private final CyclicBarrier barrier;
+  private volatile boolean finished;
+  private volatile Exception failure;
+
+  // Directory: line number to entry, with the sharers as a bit set and the
+  // core holding the line in state E or M, or -1.
+  private final LongIntMap directory = new LongIntMap(1 << 12);
+  private long[] sharers = new long[1 << 12];
+  private int[] owner = new int[1 << 12];
+
+  private long invalidations;
+  private long interventions;
+
+  /**
+   * @param caches the private cache of every core, at most 64.
+   * @param sources the accesses of every core.
+   * @param linesize line size of the caches.
+   * @param writeAllocate whether a write miss loads the line, as configured
+   *        in the caches.
+   * @param quantum number of accesses of a core between two barriers.
+   */
+  MulticoreSimulator(Cache[] caches, AddressSource[] sources, int linesize, boolean writeAllocate, int quantum) {
+    if (caches.length < 1 || caches.length > 64 || sources.length != caches.length) {
+      throw new IllegalArgumentException("between 1 and 64 cores, each with a cache and a source");
+    }
+    if (quantum < 1) {
+      throw new IllegalArgumentException("quantum must be positive");
+    }
+    this.quantum = quantum;
+    this.offsetBits = Integer.numberOfTrailingZeros(linesize);
+    this.writeAllocate = writeAllocate;
+    this.cores = new Core[caches.length];
+    for (int c = 0; c < caches.length; c++) {
+      cores[c] = new Core(c, caches[c], sources[c]);
+    }
+    this.barrier = new CyclicBarrier(caches.length, this::weave);
+  }
+
+  /**
+   * Simulates all cores until every source is exhausted.
+   *
+   * @throws RuntimeException the first failure of a core or of the
+   *         directory, after all cores stopped.
+   */
+  void run() {
+    for (Core core : cores) {
+      core.start();
+    }
+    for (Core core : cores) {
+      try {
+        core.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure != null) {
+      throw new IllegalStateException(failure);
+    }
+  }
+
+  // Keeps the first real failure and interrupts the other cores: a core
+  // waiting at the barrier then breaks it, and a core still in its bound
+  // phase fails as soon as it arrives, so none of them waits forever. When
+  // the barrier action fails, the other cores may see the broken barrier
+  // before the failure itself is reported.
+  private synchronized void fail(Exception e) {
+    if (failure != null) {
+      if (!secondary(e) && secondary(failure)) {
+        failure = e;
+      }
+      return;
+    }
+    failure = e;
+    for (Core core : cores) {
+      if (core != Thread.currentThread()) {
+        core.interrupt();
+      }
+    }
+  }
+
+  // A failure caused by the failure of another core.
+  private static boolean secondary(Exception e) {
+    return e instanceof InterruptedException || e instanceof BrokenBarrierException;
+  }
+
+  // Barrier action: runs on one core thread while the others wait.
+  private void weave() {
+    int[] next = new int[cores.length];
+    boolean any = false;
+    for (int i = 0; i < quantum; i++) {
+      for (Core core : cores) {
+        int e = next[core.id];
+        while (e < core.events && core.eventIndex[e] == i) {
+          apply(core, core.eventKind[e], core.eventBlock[e]);
+          e++;
+        }
+        next[core.id] = e;
+      }
+    }
+    for (Core core : cores) {
+      any |= core.simulated > 0;
+    }
+    finished = !any;
+  }
+
+  private void apply(Core core, byte kind, long block) {
+    int entry = entry(block);
+    long self = 1L << core.id;
+    switch (kind) {
+      case GET_SHARED: {
+        int o = owner[entry];
+        if (o >= 0 && o != core.id) {
+          // The owner keeps a shared copy; a modified line is supplied by it.
+          if (cores[o].owned.get(block, 0) == MODIFIED) {
+            interventions++;
+          }
+          cores[o].owned.remove(block);
+          owner[entry] = -1;
+        }
+        sharers[entry] |= self;
+        if (sharers[entry] == self) {
+          owner[entry] = core.id;
+          core.owned.put(block, EXCLUSIVE);
+        }
+        break;
+      }
+      case GET_MODIFIED:
+      case UPGRADE:
+        invalidateOthers(core, entry, block);
+        sharers[entry] = self;
+        owner[entry] = core.id;
+        break;
+      case WRITE_AROUND:
+        invalidateOthers(core, entry, block);
+        sharers[entry] &= self;
+        if (owner[entry] != core.id) {
+          owner[entry] = -1;
+        }
+        break;
+      default:
+        sharers[entry] &= ~self;
+        if (owner[entry] == core.id) {
+          owner[entry] = -1;
+        }
+    }
+  }
+
+  private void invalidateOthers(Core core, int entry, long block) {
+    long others = sharers[entry] & ~(1L << core.id);
+    while (others != 0) {
+      Core other = cores[Long.numberOfTrailingZeros(others)];
+      others &= others - 1;
+      other.cache.invalidate(block << offsetBits);
+      other.owned.remove(block);
+      other.invalidated.put(block, 1);
+      other.invalidationsReceived++;
+      invalidations++;
+    }
+  }
+
+  private int entry(long block) {
+    int entry = directory.get(block, -1);
+    if (entry < 0) {
+      entry = directory.size();
+      if (entry == sharers.length) {
+        sharers = Arrays.copyOf(sharers, entry * 2);
+        owner = Arrays.copyOf(owner, entry * 2);
+      }
+      sharers[entry] = 0;
+      owner[entry] = -1;
+      directory.put(block, entry);
+    }
+    return entry;
+  }
+
+  int cores() {
+    return cores.length;
+  }
+
+  long requests(int core) {
+    return cores[core].requests;
+  }
+
+  long hits(int core) {
+    return cores[core].hits;
+  }
+
+  long coherenceMisses(int core) {
+    return cores[core].coherenceMisses;
+  }
+
+  long invalidationsReceived(int core) {
+    return cores[core].invalidationsReceived;
+  }
+
+  long writebackBytes(int core) {
+    return cores[core].cache.writebackBytes();
+  }
+
+  /**
+   * @return the number of copies invalidated by writes of other cores.
+   */
+  long invalidations() {
+    return invalidations;
+  }
+
+  /**
+   * @return the number of reads served by a core holding the line modified.
+   */
+  long interventions() {
+    return interventions;
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Checks the MESI transitions of the multicore simulator on a scripted
+ * access sequence, and that the failure of one core stops all of them.
+ */
+class MulticoreSimulatorTest {
+
+  private static final int LINE = 16;
+  private static final int A = 0;
+  private static final int B = 0x1000;
+  private static final int C = 0x2000;
+  private static final int D = 0x3000;
+
+  public static void main(String[] args) {
+    mesi();
+    for (int failing = 0; failing < 4; failing++) {
+      failure(failing);
+    }
+  }
+
+  // With a quantum of one access, every step is applied before the next one,
+  // core 0 before core 1.
+  private static void mesi() {
+    Script core0 = new Script();
+    Script core1 = new Script();
+    core0.read(A);   core1.read(B);
+    core0.read(C);   core1.write(A);  // c1 takes A modified; c0 loses its copy
+    core0.read(A);   core1.read(B);   // coherence miss, c1 supplies A
+    core0.write(A);  core1.read(B);   // upgrade from S invalidates c1
+    core0.read(B);   core1.read(A);   // coherence miss, c0 supplies A
+    core0.read(D);   core1.read(B);   // D exclusive in c0
+    core0.write(D);  core1.read(B);   // E to M without the directory
+
+    MulticoreSimulator simulator = simulate(1, core0, core1);
+    Check.equal(7, simulator.requests(0), "requests of core 0");
+    Check.equal(2, simulator.hits(0), "hits of core 0: the upgrade and the write to D");
+    Check.equal(4, simulator.hits(1), "hits of core 1: the reads of B after the first");
+    Check.equal(1, simulator.coherenceMisses(0), "coherence misses of core 0");
+    Check.equal(1, simulator.coherenceMisses(1), "coherence misses of core 1");
+    Check.equal(1, simulator.invalidationsReceived(0), "invalidations of core 0");
+    Check.equal(1, simulator.invalidationsReceived(1), "invalidations of core 1");
+    Check.equal(2, simulator.invalidations(), "invalidations");
+    Check.equal(2, simulator.interventions(), "reads of a modified line");
+
+    // Within one quantum the cores do not see each other's writes yet.
+    simulator = simulate(16, core0, core1);
+    Check.equal(0, simulator.coherenceMisses(0), "coherence misses of core 0 in one quantum");
+    Check.equal(1, simulator.invalidationsReceived(0), "core 0 loses A at the end of the quantum");
+  }
+
+  private static MulticoreSimulator simulate(int quantum, Script... scripts) {
+    Cache[] caches = new Cache[scripts.length];
+    AddressSource[] sources = new AddressSource[scripts.length];
+    for (int c = 0; c < scripts.length; c++) {
+      caches[c] = new NWayAssociativeCache(16, LINE, 4);
+      sources[c] = scripts[c].source();
+    }
+    MulticoreSimulator simulator = new MulticoreSimulator(caches, sources, LINE, true, quantum);
+    simulator.run();
+    return simulator;
+  }
+
+  // A core that fails must not leave the others waiting at the barrier.
+  private static void failure(int failing) {
+    Cache[] caches = new Cache[4];
+    AddressSource[] sources = new AddressSource[4];
+    for (int c = 0; c < caches.length; c++) {
+      caches[c] = new NWayAssociativeCache(16, LINE, 4);
+      int core = c;
+      sources[c] = new AddressSource() {
+        int quanta;
+
+        public int fill(int[] addresses, byte[] operands, int off, int len) {
+          if (core == failing && ++quanta == 3 + core) {
+            throw new ArithmeticException("core " + core);
+          }
+          for (int i = 0; i < len; i++) {
+            addresses[off + i] = (core << 12) + i * 4;
+            operands[off + i] = 0;
+          }
+          return len;
+        }
+      };
+    }
+    MulticoreSimulator simulator = new MulticoreSimulator(caches, sources, LINE, true, 8);
+    Check.fails(ArithmeticException.class, simulator::run, "failure of core " + failing);
+  }
+
+  // The accesses of one core.
+  private static final class Script {
+    private final int[] addresses = new int[64];
+    private final boolean[] writes = new boolean[64];
+    private int length;
+
+    void read(int address) {
+      addresses[length++] = address;
+    }
+
+    void write(int address) {
+      writes[length] = true;
+      read(address);
+    }
+
+    AddressSource source() {
+      return new AddressSource() {
+        int next;
+
+        public int fill(int[] out, byte[] operands, int off, int len) {
+          int n = Math.min(len, length - next);
+          for (int i = 0; i < n; i++) {
+            out[off + i] = addresses[next];
+            operands[off + i] = writes[next] ? AddressSource.WRITE : 0;
+            next++;
+          }
+          return n;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1 @@
+../pract07/NWayAssociativeCache.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/PrefetchingCache.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/RandomPolicy.java
\ No newline at end of file
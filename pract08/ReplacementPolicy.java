@@ -0,0 +1 @@
+../pract07/ReplacementPolicy.java
\ No newline at end of file
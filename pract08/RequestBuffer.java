@@ -0,0 +1,71 @@
+/**
+ * Pulls the addresses of an access pattern from an {@link AddressSource} and
+ * submits them to the cache in chunks through {@link Cache#requestBatch}, so
+ * the cache model runs in a tight loop instead of one virtual call per access.
+ * The accesses can optionally be handed to an {@link AccessLog}; without one
+ * nothing is printed. With {@link AccessStatistics} the accesses are
+ * submitted one by one instead, so every access can be attributed.
+ */
+class RequestBuffer {
+
+  static final int CHUNK = 4096;
+
+  private final Cache cache;
+  private final AccessLog log;
+  private final AccessStatistics statistics;
+  private final int[] addresses = new int[CHUNK];
+  private final byte[] operands = new byte[CHUNK];
+  private final boolean[] writes = new boolean[CHUNK];
+  private final long[] hitBitmap = new long[CHUNK / 64];
+
+  // Statistics
+  long requests;
+  long hits;
+
+  RequestBuffer(Cache cache) {
+    this(cache, null);
+  }
+
+  RequestBuffer(Cache cache, AccessLog log) {
+    this(cache, log, null);
+  }
+
+  RequestBuffer(Cache cache, AccessLog log, AccessStatistics statistics) {
+    this.cache = cache;
+    this.log = log;
+    this.statistics = statistics;
+  }
+
+  /**
+   * Simulates every access of the source. Returns once the log, if any, has
+   * written all of them.
+   */
+  void run(AddressSource source) {
+    int count;
+    while ((count = source.fill(addresses, operands, 0, CHUNK)) > 0) {
+      // Log the addresses (optional)
+      if (log != null) {
+        log.append(addresses, operands, count);
+      }
+      for (int i = 0; i < count; i++) {
+        writes[i] = (operands[i] & AddressSource.WRITE) != 0;
+      }
+      if (statistics == null) {
+        hits += cache.requestBatch(addresses, writes, 0, count, hitBitmap);
+      }
+      else {
+        for (int i = 0; i < count; i++) {
+          boolean hit = cache.request(addresses[i], writes[i]);
+          if (hit) {
+            hits++;
+          }
+          statistics.record(addresses[i], operands[i], hit, cache);
+        }
+      }
+      requests += count;
+    }
+    if (log != null) {
+      log.flush();
+    }
+  }
+}
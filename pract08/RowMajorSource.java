@@ -0,0 +1,24 @@
+/**
+ * Row major traversal: B[i][j] = A[i][j]*2.
+ */
+class RowMajorSource extends MatrixSource {
+
+  private int i;
+  private int j;
+
+  RowMajorSource(MemoryLayout layout) {
+    super(layout, 2);
+  }
+
+  protected void emit(int step, int[] addresses, byte[] operands, int at) {
+    put(addresses, operands, at, step == 0 ? A : B, i, j);
+  }
+
+  protected boolean advance() {
+    if (++j == size) {
+      j = 0;
+      return ++i < size;
+    }
+    return true;
+  }
+}
@@ -0,0 +1 @@
+../pract07/RripPolicy.java
\ No newline at end of file
@@ -0,0 +1,67 @@
+/**
+ * Tiled matrix multiplication A*B=C: the i, j and k loops are split in tiles
+ * of <code>tilesize</code> and the tiles are visited in i0, j0, k0 order. The
+ * accesses per iteration are the same as in {@link MatrixMultiplySource}.
+ */
+class TiledMultiplySource extends MatrixSource {
+
+  private final int tilesize;
+
+  private int i0;
+  private int j0;
+  private int k0;
+  private int i;
+  private int j;
+  private int k;
+
+  TiledMultiplySource(MemoryLayout layout, int tilesize) {
+    super(layout, 4);
+    if (size % tilesize != 0) {
+      throw new IllegalArgumentException("size must be a multiple of the tilesize");
+    }
+    this.tilesize = tilesize;
+  }
+
+  protected void emit(int step, int[] addresses, byte[] operands, int at) {
+    switch (step) {
+      case 0:
+        put(addresses, operands, at, C, i0 + i, j0 + j);
+        break;
+      case 1:
+        put(addresses, operands, at, A, i0 + i, k0 + k);
+        break;
+      case 2:
+        put(addresses, operands, at, B, k0 + k, j0 + j);
+        break;
+      default:
+        putWrite(addresses, operands, at, C, i0 + i, j0 + j);
+    }
+  }
+
+  protected boolean advance() {
+    // Within the tile.
+    if (++k < tilesize) {
+      return true;
+    }
+    k = 0;
+    if (++j < tilesize) {
+      return true;
+    }
+    j = 0;
+    if (++i < tilesize) {
+      return true;
+    }
+    i = 0;
+
+    // Next tile.
+    if ((k0 += tilesize) < size) {
+      return true;
+    }
+    k0 = 0;
+    if ((j0 += tilesize) < size) {
+      return true;
+    }
+    j0 = 0;
+    return (i0 += tilesize) < size;
+  }
+}
@@ -0,0 +1 @@
+../pract07/TimingCache.java
\ No newline at end of file
@@ -0,0 +1 @@
+../pract07/TreePlruPolicy.java
\ No newline at end of file
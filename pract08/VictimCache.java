@@ -0,0 +1 @@
+../pract07/VictimCache.java
\ No newline at end of file
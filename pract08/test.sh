@@ -0,0 +1 @@
+../pract07/test.sh
\ No newline at end of file